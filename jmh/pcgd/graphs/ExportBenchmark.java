@@ -0,0 +1,72 @@
+package pcgd.graphs;
+
+import pcgd.bench.Workload;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the JSON export and of the binary snapshots, on copies of the example graph from 10^2 to 10^6
+ * vertices. The files are written in a temporary file, deleted at the end of the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param("examples/graph")
+    public String graphFile;
+
+    private Graph graph;
+    private File json;
+    private File binary;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException, ParseException{
+        this.graph = Workload.tile(Parser.parseGraph(this.graphFile), this.size);
+        this.json = File.createTempFile("pcgd-bench", ".json");
+        this.binary = File.createTempFile("pcgd-bench", ".bin");
+        //Read by importBinary
+        this.graph.exportAsBinary(this.binary.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void delete(){
+        this.json.delete();
+        this.binary.delete();
+    }
+
+    @Benchmark
+    public long exportAsJSON() throws IOException{
+        this.graph.exportAsJSON(this.json.getPath());
+        return this.json.length();
+    }
+
+    @Benchmark
+    public long exportAsBinary() throws IOException{
+        this.graph.exportAsBinary(this.binary.getPath());
+        return this.binary.length();
+    }
+
+    @Benchmark
+    public Graph importBinary() throws IOException{
+        return Graph.importBinary(this.binary.getPath());
+    }
+}
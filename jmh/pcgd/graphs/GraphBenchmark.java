@@ -0,0 +1,130 @@
+package pcgd.graphs;
+
+import pcgd.bench.Workload;
+import pcgd.dynamics.CyclicPermutation;
+import pcgd.dynamics.PCGD;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the matching, the replacement and a full step, on copies of the example graph from 10^2 to 10^6
+ * vertices, so that the example dynamics has the same matches per vertex at every size. The cases modifying the graph
+ * run on a fresh copy made before each invocation, which is not timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GraphBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param("examples/graph")
+    public String graphFile;
+
+    @Param("examples/pcgd")
+    public String pcgdFile;
+
+    //Matches and rewrites on the common fork/join pool, as Main does
+    @Param("false")
+    public boolean parallel;
+
+    private Graph graph;
+    private PCGD pcgd;
+    //The cycle with the most matches on the graph, replaced alone by the replace case
+    private CyclicPermutation busiest;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException, ParseException{
+        this.graph = this.pooled(Workload.tile(Parser.parseGraph(this.graphFile), this.size));
+        this.pcgd = Parser.parsePCGD(this.pcgdFile);
+        int most = -1;
+        for(int i = 0; i < this.pcgd.size(); i++){
+            int n = this.graph.findMatches(this.pcgd.get(i).getPlan(0)).size();
+            if(n > most){
+                this.busiest = this.pcgd.get(i);
+                most = n;
+            }
+        }
+    }
+
+    /**
+     * Gives the pools of the benchmark to a graph.
+     * @param g the graph
+     * @return the graph
+     */
+    private Graph pooled(Graph g){
+        if(this.parallel){
+            g.setMatchingPool(ForkJoinPool.commonPool());
+            g.setRewritingPool(ForkJoinPool.commonPool());
+        }
+        return g;
+    }
+
+    /**
+     * A copy of the graph, made before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+        Graph work;
+
+        @Setup(Level.Invocation)
+        public void copy(GraphBenchmark b){
+            this.work = b.pooled(b.graph.copy());
+        }
+    }
+
+    /**
+     * A copy of the graph and the matches of the busiest cycle on it, found before each invocation.
+     */
+    @State(Scope.Thread)
+    public static class Matched {
+        Graph work;
+        List<List<int[]>> founds;
+
+        @Setup(Level.Invocation)
+        public void match(GraphBenchmark b){
+            this.work = b.pooled(b.graph.copy());
+            this.founds = this.work.matchAll(b.busiest);
+        }
+    }
+
+    @Benchmark
+    public int findPattern(){
+        int n = 0;
+        for(int i = 0; i < this.pcgd.size(); i++){
+            CyclicPermutation cycle = this.pcgd.get(i);
+            for(int k = 0; k < cycle.size(); k++){
+                n += this.graph.findPattern(cycle.getPattern(k)).size();
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public Graph replace(Matched m){
+        m.work.replaceAll(this.busiest, m.founds);
+        return m.work;
+    }
+
+    @Benchmark
+    public Graph apply(Copy c){
+        c.work.apply(this.pcgd);
+        return c.work;
+    }
+}
@@ -0,0 +1,73 @@
+package pcgd.parser;
+
+import pcgd.bench.Workload;
+import pcgd.dynamics.PCGD;
+import pcgd.graphs.Graph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the parser : parseGraph on copies of the example graph from 10^2 to 10^6 vertices, written in the input
+ * format in a temporary file, and parsePCGD on the example dynamics, which does not depend on the size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParserBenchmark {
+
+    /**
+     * The graph to parse, written once for the trial.
+     */
+    @State(Scope.Benchmark)
+    public static class GraphInput {
+        @Param({"100", "1000", "10000", "100000", "1000000"})
+        public int size;
+
+        @Param("examples/graph")
+        public String graphFile;
+
+        File input;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException, ParseException{
+            this.input = File.createTempFile("pcgd-bench", ".graph");
+            Workload.write(Workload.tile(Parser.parseGraph(this.graphFile), this.size), this.input.getPath());
+        }
+
+        @TearDown(Level.Trial)
+        public void delete(){
+            this.input.delete();
+        }
+    }
+
+    /**
+     * The PCGD to parse.
+     */
+    @State(Scope.Benchmark)
+    public static class PCGDInput {
+        @Param("examples/pcgd")
+        public String pcgdFile;
+    }
+
+    @Benchmark
+    public Graph parseGraph(GraphInput in) throws IOException, ParseException{
+        return Parser.parseGraph(in.input.getPath());
+    }
+
+    @Benchmark
+    public PCGD parsePCGD(PCGDInput in) throws IOException, ParseException{
+        return Parser.parsePCGD(in.pcgdFile);
+    }
+}
@@ -1,11 +1,27 @@
 package pcgd;
 
 import pcgd.dynamics.PCGD;
+import pcgd.graphs.Checkpoint;
+import pcgd.graphs.ExportPipeline;
 import pcgd.graphs.Graph;
+import pcgd.graphs.GraphSnapshot;
+import pcgd.graphs.JSONExporter;
+import pcgd.graphs.MetricsLog;
+import pcgd.graphs.Simulation;
+import pcgd.graphs.StepEngine;
+import pcgd.graphs.StepListener;
+import pcgd.graphs.StepMetrics;
+import pcgd.graphs.StepStats;
+import pcgd.graphs.TrajectoryWriter;
 import pcgd.parser.ParseException;
 import pcgd.parser.Parser;
 
+import javax.management.JMException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by nono on 20/06/17.
@@ -13,25 +29,84 @@ import java.io.IOException;
 public class Main {
 
     public static void main (String[] args){
+        //The options are given after the arguments
+        List<String> positional = new ArrayList<>();
+        String trajectory = null;
+        int keyframes = 100;
+        boolean gzip = false;
+        int checkpoints = 0;
+        boolean resume = false;
+        String metricsFile = null;
+        boolean jmx = false;
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("--trajectory") && i+1 < args.length){
+                trajectory = args[++i];
+            }else if(args[i].equals("--keyframes") && i+1 < args.length){
+                try{
+                    keyframes = Integer.parseInt(args[++i]);
+                }catch(NumberFormatException e){
+                    keyframes = 0;
+                }
+                if(keyframes <= 0){
+                    System.out.println("Interval between keyframes can not be parsed or is invalid.");
+                    return;
+                }
+            }else if(args[i].equals("--gzip")){
+                gzip = true;
+            }else if(args[i].equals("--checkpoint") && i+1 < args.length){
+                try{
+                    checkpoints = Integer.parseInt(args[++i]);
+                }catch(NumberFormatException e){
+                    checkpoints = 0;
+                }
+                if(checkpoints <= 0){
+                    System.out.println("Interval between checkpoints can not be parsed or is invalid.");
+                    return;
+                }
+            }else if(args[i].equals("--resume")){
+                resume = true;
+            }else if(args[i].equals("--metrics") && i+1 < args.length){
+                metricsFile = args[++i];
+            }else if(args[i].equals("--jmx")){
+                jmx = true;
+            }else{
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[0]);
         if(args.length < 3 || args.length > 4){
             System.out.println("3 or 4 Arguments Expected :\n" +
                     " - name of the file containing the input graph,\n" +
                     " - name of the file containing the PCGD description,\n" +
                     " - number of steps to run (positive),\n" +
-                    " - name of the directory where to put the jsons. (OPTIONNAL)");
+                    " - name of the directory where to put the jsons. (OPTIONNAL)\n" +
+                    "Options :\n" +
+                    " - --trajectory file : writes all the steps into a trajectory file instead of the jsons,\n" +
+                    " - --keyframes n : number of steps between two full graphs in the trajectory file (100 by default),\n" +
+                    " - --gzip : gzips the jsons,\n" +
+                    " - --checkpoint n : writes the state of the run every n steps in the directory of the jsons,\n" +
+                    " - --resume : runs from the last valid checkpoint of the directory of the jsons instead of the input graph,\n" +
+                    " - --metrics file : writes the metrics of each step into a file, as JSON lines,\n" +
+                    " - --jmx : shows the metrics of the steps through JMX, as "+StepStats.NAME+".");
             return;
         }
-        Graph g; PCGD p; int nSteps;
-        try{
-            g = Parser.parseGraph(args[0]);
-        }catch (ParseException e){
-            System.out.println("Error during parsing of the input graph :\n" +
-                    e.getMessage());
-            return;
-        }catch (IOException e){
-            System.out.println("I/O error on file \""+args[0]+"\" : "+e.getMessage());
+        if(trajectory != null && (checkpoints > 0 || resume)){
+            System.out.println("Checkpoints can only be used when writing the jsons.");
             return;
         }
+        Graph g = null; PCGD p; int nSteps;
+        if(!resume){
+            try{
+                g = Parser.parseGraph(args[0]);
+            }catch (ParseException e){
+                System.out.println("Error during parsing of the input graph :\n" +
+                        e.getMessage());
+                return;
+            }catch (IOException e){
+                System.out.println("I/O error on file \""+args[0]+"\" : "+e.getMessage());
+                return;
+            }
+        }
         //
         try{
             p=Parser.parsePCGD(args[1]);
@@ -63,26 +138,252 @@ public class Main {
         }else{
             dir = "graphs/";
         }
+        //The checkpoints are only valid with the PCGD they were written with
+        long fingerprint = checkpoints > 0 || resume ? p.fingerprint() : 0;
+        int first = 0;
+        if(resume){
+            List<String> skipped = new ArrayList<>();
+            Checkpoint c = Checkpoint.latest(dir, fingerprint, skipped);
+            for(String s : skipped){
+                System.out.println("Checkpoint skipped : "+s);
+            }
+            if(c == null){
+                System.out.println("No valid checkpoint to resume from in \""+dir+"\".");
+                return;
+            }
+            g = c.getGraph();
+            first = c.getStep();
+            System.out.println("Resuming from step "+first);
+        }else if(checkpoints > 0){
+            try{
+                Checkpoint.clear(dir);
+            }catch(IOException e){
+                System.out.println("I/O error on the checkpoints of \""+dir+"\" : "+e.getMessage());
+                return;
+            }
+        }
+        //Only the neighbourhoods of the rewritten patterns change from one step to the next
+        g.setIncrementalMatching(true);
+        g.setMatchingPool(ForkJoinPool.commonPool());
+        g.setRewritingPool(ForkJoinPool.commonPool());
+        //The steps are only measured if the metrics are asked for
+        MetricsLog log = null;
+        if(metricsFile != null){
+            try{
+                log = new MetricsLog(metricsFile, resume);
+            }catch(IOException e){
+                System.out.println("I/O error on file \""+metricsFile+"\" : "+e.getMessage());
+                return;
+            }
+        }
+        StepStats stats = null;
+        if(jmx){
+            stats = new StepStats();
+            try{
+                stats.register();
+            }catch(JMException e){
+                System.out.println("Metrics can not be shown through JMX : "+e.getMessage());
+                stats = null;
+            }
+        }
+        //Called after the step is exported, so that the time of the export is measured
+        List<StepListener> measures = new ArrayList<>();
+        if(log != null){measures.add(log);}
+        if(stats != null){measures.add(stats);}
         //
-        System.out.print("Step 0 : ");
         try{
-            g.exportAsJSON(dir+"graph0.json");
-            System.out.println(" ok");
-        }catch(IOException e){
-            System.out.println("I/O error on file \"graph0.json\" : "+e.getMessage());
+            if(trajectory != null){
+                runTrajectory(g, p, nSteps, trajectory, keyframes, measures);
+            }else if(Runtime.getRuntime().availableProcessors() > 1){
+                runPipelined(g, p, first, nSteps, dir, gzip, checkpoints, fingerprint, measures);
+            }else{
+                //With a single processor the export can not overlap the steps, the copies of the engine would only cost
+                runSequential(g, p, first, nSteps, dir, gzip, checkpoints, fingerprint, measures);
+            }
+        }finally{
+            if(log != null){
+                try{
+                    log.close();
+                }catch(IOException e){
+                    System.out.println("I/O error on file \""+metricsFile+"\" : "+e.getMessage());
+                }
+            }
         }
+    }
 
-        //
-        for(int i = 1; i<=nSteps; i++){
-            System.out.print("Step "+i+" : ");
-            g.apply(p);
+    /**
+     * Runs the steps and writes the json of each step after it, and a checkpoint every few steps.
+     * @param g the graph
+     * @param p the PCGD
+     * @param first the step of the graph, whose json is only written if it is 0
+     * @param nSteps the number of steps
+     * @param dir the directory where to put the jsons
+     * @param gzip true to gzip the jsons
+     * @param checkpoints the number of steps between two checkpoints, 0 for none
+     * @param fingerprint the fingerprint of the PCGD
+     * @param measures the listeners of the metrics of the steps, none not to measure them
+     */
+    private static void runSequential(Graph g, PCGD p, int first, int nSteps, String dir, boolean gzip,
+                                      int checkpoints, long fingerprint, List<StepListener> measures){
+        //The same exporter, and its buffer, is used for all the steps
+        JSONExporter json = new JSONExporter();
+        String ext = gzip ? ".json.gz" : ".json";
+        if(first == 0){
+            System.out.print("Step 0 : ");
             try{
-                g.exportAsJSON(dir+"graph"+i+".json");
+                json.export(g, dir+"graph0"+ext, gzip);
                 System.out.println(" ok");
             }catch(IOException e){
-                System.out.println("I/O error on file \"graph"+i+".json\" : "+e.getMessage());
+                System.out.println("I/O error on file \"graph0"+ext+"\" : "+e.getMessage());
             }
         }
 
+        //
+        Simulation simulation = new Simulation(g, p, first);
+        simulation.setMeasured(!measures.isEmpty());
+        simulation.addListener(new StepListener(){
+            @Override
+            public void beforeStep(long step, Graph graph){
+                System.out.print("Step "+step+" : ");
+            }
+
+            @Override
+            public void afterStep(long step, Graph graph, StepMetrics metrics){
+                long start = System.nanoTime();
+                try{
+                    json.export(graph, dir+"graph"+step+ext, gzip);
+                    System.out.println(" ok");
+                }catch(IOException e){
+                    System.out.println("I/O error on file \"graph"+step+ext+"\" : "+e.getMessage());
+                }
+                if(metrics != null){
+                    metrics.setExportNanos(System.nanoTime() - start);
+                }
+                if(checkpoints > 0 && step % checkpoints == 0){
+                    try{
+                        Checkpoint.save(graph, (int) step, fingerprint, dir);
+                    }catch(IOException e){
+                        System.out.println("I/O error on the checkpoint of step "+step+" : "+e.getMessage());
+                    }
+                }
+            }
+        });
+        for(StepListener l : measures){
+            simulation.addListener(l);
+        }
+        simulation.run(nSteps);
+    }
+
+    /**
+     * Runs the steps in an engine, and writes the json of each step on an other thread while the next step is computed.
+     * @param g the graph
+     * @param p the PCGD
+     * @param first the step of the graph, whose json is only written if it is 0
+     * @param nSteps the number of steps
+     * @param dir the directory where to put the jsons
+     * @param gzip true to gzip the jsons
+     * @param checkpoints the number of steps between two checkpoints, 0 for none
+     * @param fingerprint the fingerprint of the PCGD
+     * @param measures the listeners of the metrics of the steps, none not to measure them
+     */
+    private static void runPipelined(Graph g, PCGD p, int first, int nSteps, String dir, boolean gzip,
+                                     int checkpoints, long fingerprint, List<StepListener> measures){
+        StepEngine engine = new StepEngine(g, p, first);
+        //Only used by the thread of the pipeline
+        JSONExporter json = new JSONExporter();
+        try(ExportPipeline export = new ExportPipeline(s -> exportStep(s, dir, json, gzip, checkpoints, fingerprint, measures), 0)){
+            if(first == 0){
+                export.submit(engine.acquire());
+            }
+            for(int i = first+1; i<=nSteps; i++){
+                engine.step(!measures.isEmpty() ? new StepMetrics(i) : null);
+                export.submit(engine.acquire());
+            }
+        }catch(IOException e){
+            System.out.println("Export stopped : "+e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the json of a step, and its checkpoint every few steps, on the thread of the export pipeline.
+     * @param s the snapshot of the step
+     * @param dir the directory where to put the jsons
+     * @param json the exporter of the pipeline
+     * @param gzip true to gzip the json
+     * @param checkpoints the number of steps between two checkpoints, 0 for none
+     * @param fingerprint the fingerprint of the PCGD
+     * @param measures the listeners of the metrics of the steps, called on the thread of the pipeline
+     */
+    private static void exportStep(GraphSnapshot s, String dir, JSONExporter json, boolean gzip, int checkpoints,
+                                   long fingerprint, List<StepListener> measures){
+        String name = "graph"+s.getStep()+(gzip ? ".json.gz" : ".json");
+        long start = System.nanoTime();
+        try{
+            json.export(s, dir+name, gzip);
+            System.out.println("Step "+s.getStep()+" :  ok");
+        }catch(IOException e){
+            System.out.println("Step "+s.getStep()+" : I/O error on file \""+name+"\" : "+e.getMessage());
+        }
+        StepMetrics metrics = s.getMetrics();
+        if(metrics != null){
+            metrics.setExportNanos(System.nanoTime() - start);
+            //As for a listener on an executor, the graph is not given
+            for(StepListener l : measures){
+                l.afterStep(s.getStep(), null, metrics);
+            }
+        }
+        if(checkpoints > 0 && s.getStep() % checkpoints == 0 && s.getStep() > 0){
+            try{
+                Checkpoint.save(s, fingerprint, dir);
+            }catch(IOException e){
+                System.out.println("Step "+s.getStep()+" : I/O error on the checkpoint : "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the steps and writes them into a trajectory file.
+     * @param g the graph
+     * @param p the PCGD
+     * @param nSteps the number of steps
+     * @param filename the name of the trajectory file
+     * @param keyframes the number of steps between two keyframes
+     * @param measures the listeners of the metrics of the steps, none not to measure them
+     */
+    private static void runTrajectory(Graph g, PCGD p, int nSteps, String filename, int keyframes,
+                                      List<StepListener> measures){
+        try(TrajectoryWriter w = new TrajectoryWriter(g, filename, keyframes)){
+            System.out.println("Step 0 :  ok");
+            Simulation simulation = new Simulation(g, p);
+            simulation.setMeasured(!measures.isEmpty());
+            simulation.addListener(new StepListener(){
+                @Override
+                public void beforeStep(long step, Graph graph){
+                    System.out.print("Step "+step+" : ");
+                }
+
+                @Override
+                public void afterStep(long step, Graph graph, StepMetrics metrics){
+                    long start = System.nanoTime();
+                    try{
+                        w.writeStep();
+                    }catch(IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                    System.out.println(" ok");
+                    if(metrics != null){
+                        metrics.setExportNanos(System.nanoTime() - start);
+                    }
+                }
+            });
+            for(StepListener l : measures){
+                simulation.addListener(l);
+            }
+            simulation.run(nSteps);
+        }catch(UncheckedIOException e){
+            System.out.println("I/O error on file \""+filename+"\" : "+e.getCause().getMessage());
+        }catch(IOException e){
+            System.out.println("I/O error on file \""+filename+"\" : "+e.getMessage());
+        }
     }
 }
@@ -0,0 +1,45 @@
+package pcgd;
+
+import pcgd.graphs.TrajectoryReader;
+
+import java.io.IOException;
+
+/**
+ * Writes the steps of a trajectory file as the jsons of the visualizer, as Main does without a trajectory file.
+ */
+public class Replay {
+
+    public static void main(String[] args){
+        if(args.length != 2 && args.length != 4){
+            System.out.println("2 or 4 Arguments Expected :\n" +
+                    " - name of the trajectory file,\n" +
+                    " - name of the directory where to put the jsons,\n" +
+                    " - first step to write and last step to write (OPTIONNAL, all the steps by default).");
+            return;
+        }
+        String dir = args[1].endsWith("/") ? args[1] : args[1]+"/";
+        try(TrajectoryReader r = new TrajectoryReader(args[0])){
+            int from = 0;
+            int to = r.stepCount()-1;
+            if(args.length == 4){
+                try{
+                    from = Integer.parseInt(args[2]);
+                    to = Integer.parseInt(args[3]);
+                }catch(NumberFormatException e){
+                    from = -1;
+                }
+                if(from < 0 || to >= r.stepCount() || from > to){
+                    System.out.println("Requested steps can not be parsed or are not in the "+r.stepCount()+" steps of the file.");
+                    return;
+                }
+            }
+            for(int i = from; i <= to; i++){
+                System.out.print("Step "+i+" : ");
+                r.graphAt(i).exportAsJSON(dir+"graph"+i+".json");
+                System.out.println(" ok");
+            }
+        }catch(IOException e){
+            System.out.println("I/O error : "+e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package pcgd;
+
+import pcgd.dynamics.PCGD;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+import pcgd.sharding.ShardNode;
+import pcgd.sharding.SocketTransport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one shard of a simulation split over several processes. Every shard is started with the same files and list of
+ * addresses, and its own index; they all read the input graph, only keeping their part of it, and run the steps
+ * together. The shards send their vertices to the first one, which writes the json of the last step as it gets them.
+ */
+public class Shard {
+
+    public static void main(String[] args){
+        if(args.length != 6){
+            System.out.println("6 Arguments Expected :\n" +
+                    " - name of the file containing the input graph,\n" +
+                    " - name of the file containing the PCGD description,\n" +
+                    " - number of steps to run (positive),\n" +
+                    " - name of the directory where to put the json of the last step,\n" +
+                    " - index of this shard, from 0,\n" +
+                    " - addresses of all the shards, by index, as host:port separated by commas.");
+            return;
+        }
+        PCGD p; int nSteps; int index;
+        try{
+            p = Parser.parsePCGD(args[1]);
+        }catch(ParseException e){
+            System.out.println("Error during parsing of the PCGD :\n" +
+                    e.getMessage());
+            return;
+        }catch (IOException e){
+            System.out.println("I/O error on file \""+args[1]+"\" : "+e.getMessage());
+            return;
+        }
+        try{
+            nSteps = Integer.parseInt(args[2]);
+            if(nSteps < 0){
+                throw new NumberFormatException();
+            }
+        }catch (NumberFormatException e){
+            System.out.println("Requested number of steps can not be parsed or is invalid.");
+            return;
+        }
+        String dir = args[3].endsWith("/") ? args[3] : args[3]+"/";
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for(String address : args[5].split(",")){
+            int colon = address.lastIndexOf(':');
+            try{
+                addresses.add(new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon+1))));
+            }catch(IllegalArgumentException | StringIndexOutOfBoundsException e){
+                System.out.println("Address \""+address+"\" can not be parsed.");
+                return;
+            }
+        }
+        try{
+            index = Integer.parseInt(args[4]);
+            if(index < 0 || index >= addresses.size()){
+                throw new NumberFormatException();
+            }
+        }catch (NumberFormatException e){
+            System.out.println("Index of the shard can not be parsed or is not one of the "+addresses.size()+" shards.");
+            return;
+        }
+        //
+        try(SocketTransport t = new SocketTransport(index, addresses)){
+            ShardNode node;
+            try{
+                node = ShardNode.load(args[0], t);
+            }catch (ParseException e){
+                System.out.println("Error during parsing of the input graph :\n" +
+                        e.getMessage());
+                return;
+            }
+            System.out.println("Shard "+index+" : "+node.vertexCount()+" vertices");
+            for(int i = 1; i <= nSteps; i++){
+                node.apply(p);
+                System.out.println("Step "+i+" : "+node.vertexCount()+" vertices, "+node.ghostCount()+" ghosts");
+            }
+            node.exportAsJSON(dir+"graph"+nSteps+".json", false);
+            if(index == 0){
+                System.out.println("Graph written in \""+dir+"graph"+nSteps+".json\"");
+            }
+        }catch(IOException e){
+            System.out.println("I/O error : "+e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package pcgd.bench;
+
+import pcgd.graphs.Exceptions.EdgePortException;
+import pcgd.graphs.Exceptions.VertexNameException;
+import pcgd.graphs.Graph;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Synthetic graphs for the benchmarks : disjoint copies of a base graph (typically the one of examples/), so that a
+ * dynamics written for the base graph has the same matches, per vertex, at every size.
+ */
+public class Workload {
+
+    private Workload(){}
+
+    /**
+     * Builds a graph made of copies of a base graph, with at least the given number of vertices. The vertex v of the
+     * i-th copy is named "c"+i+"_"+v.
+     * @param base the base graph
+     * @param size the wanted number of vertices
+     * @return the graph
+     */
+    public static Graph tile(Graph base, int size){
+        Graph g = new Graph();
+        int copies = Math.max(1, (size + base.vertexCount() - 1) / base.vertexCount());
+        try{
+            for(int c = 0; c < copies; c++){
+                String prefix = "c"+c+"_";
+                for(int v = 0; v < base.vertexCapacity(); v++){
+                    if(base.isVertex(v)){g.addVertex(prefix+base.nameOf(v), base.stateOf(v));}
+                }
+                for(int v = 0; v < base.vertexCapacity(); v++){
+                    if(!base.isVertex(v)){continue;}
+                    for(int p = 0; p < base.portBound(v); p++){
+                        int u = base.oppositeVertex(v, p);
+                        int q = u >= 0 ? base.oppositePort(v, p) : Graph.FREE;
+                        if(u > v || (u == v && q > p)){
+                            g.addEdge(prefix+base.nameOf(v), p, prefix+base.nameOf(u), q);
+                        }
+                    }
+                }
+            }
+        }catch(VertexNameException | EdgePortException e){
+            //The copies are disjoint and the base graph is valid
+            throw new IllegalStateException(e);
+        }
+        return g;
+    }
+
+    /**
+     * Writes a graph in the input format of the parser.
+     * @param g the graph
+     * @param filename the name of the file
+     * @throws IOException if the file can not be written
+     */
+    public static void write(Graph g, String filename) throws IOException{
+        try(BufferedWriter bw = new BufferedWriter(new FileWriter(filename))){
+            bw.write("graph:\n");
+            for(int v = 0; v < g.vertexCapacity(); v++){
+                if(g.isVertex(v)){bw.write("\tv:\t"+g.nameOf(v)+"("+g.stateOf(v)+")\n");}
+            }
+            for(int v = 0; v < g.vertexCapacity(); v++){
+                if(!g.isVertex(v)){continue;}
+                for(int p = 0; p < g.portBound(v); p++){
+                    int u = g.oppositeVertex(v, p);
+                    int q = u >= 0 ? g.oppositePort(v, p) : Graph.FREE;
+                    if(u > v || (u == v && q > p)){
+                        bw.write("\te:\t"+g.nameOf(v)+":"+p+","+g.nameOf(u)+":"+q+"\n");
+                    }
+                }
+            }
+            bw.write(":endgraph\n");
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package pcgd.dynamics;
 
+import pcgd.graphs.BorderIndex;
+import pcgd.graphs.PatternPlan;
+import pcgd.graphs.RewritePlan;
 import pcgd.graphs.SemiEdge;
 import pcgd.graphs.Subgraph;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by nono on 14/06/17.
@@ -13,10 +20,15 @@ import java.util.Map;
 public class CyclicPermutation {
     private List<Subgraph> parts;
     private List<Map<SemiEdge, SemiEdge>> attachments;
+    //The parts and the replacements compiled once for all the steps
+    private List<PatternPlan> plans;
+    private List<RewritePlan> rewritePlans;
 
     public CyclicPermutation(){
         this.parts = new ArrayList<>();
         this.attachments = new ArrayList<>();
+        this.plans = new ArrayList<>();
+        this.rewritePlans = new ArrayList<>();
     }
 
     /**
@@ -24,30 +36,38 @@ public class CyclicPermutation {
      *  - All parts must be added first, and then all attachments, so if an attachment has already been added, we throw an exception,
      *  - If the subgraph is non-trivially-overlapping with itself, we throw an exception,
      *  - If the subgraph is non-trivially-overlapping with any of the other subgraphs already added, we throw an exception.
+     * The overlaps are only searched between vertices of the same state and degree, and all of them are reported.
+     * The subgraph is frozen first, so it can not be modified anymore, even if it is refused.
      * @param s the subgraph to add
-     * @throws PCGDException if one of the above conditions is met.
+     * @throws PCGDException if one of the above conditions is met, with one line per overlap.
      */
     public void addPart (Subgraph s) throws PCGDException{
         if(this.attachments.size() > 0){
             throw new PCGDException("An Attachment Map as already been added, add all parts first.");
         }
-        PCGDException e = s.bordersOverlapOn(s);
-        if(e != null){//Parts MUST NOT be non-trivially-self-overlapping
-            throw new PCGDException("Self-overlap risk in part "+parts.size()+" between vertices "+e.getMessage());
+        int n = parts.size();
+        s.freeze();
+        BorderIndex index = s.borderIndex();
+        List<String> errors = new ArrayList<>();
+        //Parts MUST NOT be non-trivially-self-overlapping
+        for(String overlap : index.overlapsOn(index, Integer.MAX_VALUE)){
+            errors.add("Self-overlap risk in part "+n+" between vertices "+overlap);
         }
-        int k = 0;
-        while(k<parts.size()){
-            e = s.bordersOverlapOn(parts.get(k));
-            if(e!=null){//Parts MUST NOT be overlapping with each others
-                throw new PCGDException("Overlap risk between part "+parts.size()+" and part "+k+" between vertices "+e.getMessage());
+        //Parts MUST NOT be overlapping with each others
+        for(int k = 0; k < n; k++){
+            BorderIndex other = parts.get(k).borderIndex();
+            for(String overlap : index.overlapsOn(other, Integer.MAX_VALUE)){
+                errors.add("Overlap risk between part "+n+" and part "+k+" between vertices "+overlap);
             }
-            e=parts.get(k).bordersOverlapOn(s);
-            if(e!=null){//Parts MUST NOT be overlapping with each others
-                throw new PCGDException("Overlap risk between part "+k+" and part "+parts.size()+" between vertices "+e.getMessage());
+            for(String overlap : other.overlapsOn(index, Integer.MAX_VALUE)){
+                errors.add("Overlap risk between part "+k+" and part "+n+" between vertices "+overlap);
             }
-            k++;
+        }
+        if(!errors.isEmpty()){
+            throw new PCGDException(String.join("\n", errors));
         }
         parts.add(s);
+        plans.add(new PatternPlan(s));
     }
 
     /**
@@ -58,17 +78,19 @@ public class CyclicPermutation {
      *      * im( alpha(i) ) = S(P(i+1)) [The image of the i-th attachment must be the semi-edges set of the (i+1)-th part]
      *      * So we are sure that alpha does map S(Pi) into S(Pi+1).
      * @param attachment the attachment map to add
-     * @throws PCGDException if one of the above condition is not met.
+     * @throws PCGDException if one of the above condition is not met, with one line per semi edge in error.
      */
     public void addAttachment (Map<SemiEdge, SemiEdge> attachment) throws PCGDException{
         if(this.attachments.size() >= this.parts.size()){
             throw new PCGDException("Number of attachments exceeding number of parts !");
         }
-        PCGDException e = checkAttachment(attachment);
-        if(e != null ) {
-            throw e;
+        List<String> errors = checkAttachment(attachment);
+        if(!errors.isEmpty()) {
+            throw new PCGDException(String.join("\n", errors));
         }
         attachments.add(attachment);
+        int i = attachments.size()-1;
+        rewritePlans.add(new RewritePlan(parts.get(i), parts.get((i+1)%parts.size()), attachment));
     }
 
     /**
@@ -83,53 +105,45 @@ public class CyclicPermutation {
      * Check if a given attachment map alpha (which would become the i-th attachment map of the permutation)
      * actually maps S(Pi) into S(Pi+1). See method 'addAttachment()' for more details.
      * @param alpha the attachment to test.
-     * @return a PCGDException with a message explainig the problem, if there is a problem; null otherwise.
+     * @return the messages explaining the problems, one per semi edge in error; empty if there is no problem.
      */
-    private PCGDException checkAttachment(Map<SemiEdge, SemiEdge> alpha){
-        PCGDException e;
-        SemiEdge[] sp = parts.get(attachments.size()).getSemiEdges().toArray(new SemiEdge[0]);
-        SemiEdge[] domalpha = alpha.keySet().toArray(new SemiEdge[0]);
-        e = included(sp, domalpha);
-        if(e != null){
-            return new PCGDException("Semi edge "+e.getMessage()+" of part "+attachments.size()+" does not appear in the domain of attachment "+attachments.size());
+    private List<String> checkAttachment(Map<SemiEdge, SemiEdge> alpha){
+        List<String> errors = new ArrayList<>();
+        int i = attachments.size();
+        int next = (i+1)%parts.size();
+        Collection<SemiEdge> sp = parts.get(i).getSemiEdges();
+        Set<SemiEdge> domalpha = alpha.keySet();
+        for(SemiEdge s : missing(sp, domalpha)){
+            errors.add("Semi edge "+s+" of part "+i+" does not appear in the domain of attachment "+i);
         }
-        e = included(domalpha, sp);
-        if(e != null){
-            return new PCGDException("Semi edge "+e.getMessage()+" of the domain of attachment "+attachments.size()+" does not appear in part "+attachments.size());
+        for(SemiEdge s : missing(domalpha, new HashSet<>(sp))){
+            errors.add("Semi edge "+s+" of the domain of attachment "+i+" does not appear in part "+i);
         }
         //
-        SemiEdge[] sp1 = parts.get((attachments.size()+1)%parts.size()).getSemiEdges().toArray(new SemiEdge[0]);
-        SemiEdge[] imalpha = alpha.values().toArray(new SemiEdge[0]);
-        e = included(sp1, imalpha);
-        if(e != null){
-            return new PCGDException("Semi edge "+e.getMessage()+" of part "+((attachments.size()+1)%parts.size())+" does not appear in the image of attachment "+attachments.size());
+        Collection<SemiEdge> sp1 = parts.get(next).getSemiEdges();
+        Set<SemiEdge> imalpha = new LinkedHashSet<>(alpha.values());
+        for(SemiEdge s : missing(sp1, imalpha)){
+            errors.add("Semi edge "+s+" of part "+next+" does not appear in the image of attachment "+i);
         }
-        e = included(sp1, imalpha);
-        if(e != null){
-            return new PCGDException("Semi edge "+e.getMessage()+" of the image of attachment "+attachments.size()+" does not appear in part "+((attachments.size()+1)%parts.size()));
+        for(SemiEdge s : missing(imalpha, new HashSet<>(sp1))){
+            errors.add("Semi edge "+s+" of the image of attachment "+i+" does not appear in part "+next);
         }
-        //
-        return null;
+        return errors;
     }
 
     /**
      * Test the inclusion of the 'small' semi edges set into the 'big' one.
      * i.e. for all element e of 'small' there is an element e' in 'big' such as e = e'
-     * @param small a semi-edge array
-     * @param big a semi-edge array
-     * @return true if 'small' is included in 'big',
+     * @param small a semi-edge collection
+     * @param big a semi-edge set
+     * @return the elements of 'small' which are not in 'big', in the order of 'small'; empty if 'small' is included in 'big'.
      */
-    private PCGDException included (SemiEdge[] small, SemiEdge[] big){
-        int i = 0;
-        while(i<small.length){
-            int j = 0;
-            while(j < big.length && (!small[i].equals(big[j]))){
-                j++;
-            }
-            if(j==big.length){return new PCGDException(small[i].toString());}
-            i++;
+    private static List<SemiEdge> missing(Collection<SemiEdge> small, Set<SemiEdge> big){
+        List<SemiEdge> missing = new ArrayList<>();
+        for(SemiEdge s : small){
+            if(!big.contains(s)){missing.add(s);}
         }
-        return null;
+        return missing;
     }
 
     /**
@@ -153,6 +167,24 @@ public class CyclicPermutation {
         return this.parts.get(i);
     }
 
+    /**
+     * Get the matching plan of the i-th part of the cyclic permutation, compiled when the part was added.
+     * @param i the index of the desired part.
+     * @return the plan of the i-th part.
+     */
+    public PatternPlan getPlan(int i){
+        return this.plans.get(i);
+    }
+
+    /**
+     * Get the replacement of the i-th part by the next one, compiled when the i-th attachment map was added.
+     * @param i the index of the desired part.
+     * @return the replacement of the i-th part.
+     */
+    public RewritePlan getRewritePlan(int i){
+        return this.rewritePlans.get(i);
+    }
+
     /**
      * Get the i-th attachment map of the cyclic permutation
      * @param i the index of the desired attachment
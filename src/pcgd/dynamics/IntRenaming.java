@@ -0,0 +1,117 @@
+package pcgd.dynamics;
+
+import java.util.Arrays;
+
+/**
+ * A bijective renaming between the ids of the vertices of two graphs, stored in two arrays : the image of each
+ * antecedent and the antecedent of each image. Both ways are looked up in constant time, and the renaming is emptied in
+ * the time of the number of bindings, so that the same renaming can be reused for all the attempts of a search instead
+ * of allocating one per attempt.
+ * Same as Renaming, with ids instead of names.
+ */
+public class IntRenaming {
+
+    /**
+     * The image or antecedent of an id which has none.
+     */
+    public static final int UNDEFINED = -1;
+
+    private int[] images;
+    private int[] antecedents;
+    //The antecedents in the order they were bound
+    private int[] bound;
+    private int size;
+
+    /**
+     * Creates an empty renaming.
+     * @param domain a bound on the antecedents : all of them are lower than it
+     * @param range a bound on the images : all of them are lower than it
+     */
+    public IntRenaming(int domain, int range){
+        this.images = new int[domain];
+        this.antecedents = new int[range];
+        Arrays.fill(this.images, UNDEFINED);
+        Arrays.fill(this.antecedents, UNDEFINED);
+        this.bound = new int[Math.min(domain, range)];
+        this.size = 0;
+    }
+
+    /**
+     * Sets R(a) = b, if neither a has an image nor b has an antecedent.
+     * @param a an antecedent
+     * @param b the image of a
+     * @return true if the binding was made; false if a already has an image or b already has an antecedent.
+     */
+    public boolean bind(int a, int b){
+        if(this.images[a] != UNDEFINED || this.antecedents[b] != UNDEFINED){return false;}
+        this.images[a] = b;
+        this.antecedents[b] = a;
+        this.bound[this.size++] = a;
+        return true;
+    }
+
+    /**
+     * Returns R(a).
+     * @param a the antecedent
+     * @return R(a), or UNDEFINED if no image was set for a.
+     */
+    public int get(int a){
+        return this.images[a];
+    }
+
+    /**
+     * Returns the antecedent of an image.
+     * @param b the image
+     * @return the id a such as R(a) = b, or UNDEFINED if there is none.
+     */
+    public int antecedentOf(int b){
+        return this.antecedents[b];
+    }
+
+    /**
+     * Tests if the renaming contains the given id as an antecedent
+     * @param a an id
+     * @return true if this id has an image by the renaming; false otherwise
+     */
+    public boolean containsAntecedent(int a){
+        return this.images[a] != UNDEFINED;
+    }
+
+    /**
+     * Tests if the renaming contains the given id as an image
+     * @param b an id
+     * @return true if the renaming contains an id a such as R(a) = b; false otherwise
+     */
+    public boolean containsImage(int b){
+        return this.antecedents[b] != UNDEFINED;
+    }
+
+    /**
+     * Returns the number of antecedents bound.
+     * @return the size of the renaming
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Returns the i-th antecedent bound.
+     * @param i an index lower than size()
+     * @return the antecedent, in the order they were bound
+     */
+    public int antecedentAt(int i){
+        return this.bound[i];
+    }
+
+    /**
+     * Empties the renaming, in the time of the number of antecedents bound.
+     */
+    public void clear(){
+        for(int i = 0; i < this.size; i++){
+            int a = this.bound[i];
+            this.antecedents[this.images[a]] = UNDEFINED;
+            this.images[a] = UNDEFINED;
+        }
+        this.size = 0;
+    }
+}
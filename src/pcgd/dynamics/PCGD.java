@@ -1,7 +1,18 @@
 package pcgd.dynamics;
 
+import pcgd.graphs.SemiEdge;
+import pcgd.graphs.Subgraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by nono on 14/06/17.
@@ -47,4 +58,70 @@ public class PCGD {
         return i<cycles.size()?cycles.get(i):null;
     }
 
+    /**
+     * Computes a fingerprint of the PCGD, from its cycles, their parts (with the ids of their vertices, on which the
+     * rewriting depends) and their attachment maps. The same description parsed twice gives the same fingerprint, so it
+     * can be kept with a state of a simulation to check that it is resumed with the same dynamics.
+     * @return the fingerprint, the first 64 bits of a SHA-256 of the PCGD
+     */
+    public long fingerprint(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(cycles.size());
+            for(CyclicPermutation c : cycles){
+                out.writeInt(c.size());
+                for(int i = 0; i < c.size(); i++){
+                    writePart(c.getPattern(i), out);
+                    writeAttachment(c.getAttachment(i), out);
+                }
+            }
+        }catch(IOException e){//Not thrown by an array
+            throw new IllegalStateException(e);
+        }
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            return ByteBuffer.wrap(digest).getLong();
+        }catch(NoSuchAlgorithmException e){//SHA-256 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writePart(Subgraph s, DataOutputStream out) throws IOException{
+        int capacity = s.vertexCapacity();
+        out.writeInt(capacity);
+        for(int v = 0; v < capacity; v++){
+            if(!s.isVertex(v)){
+                out.writeBoolean(false);
+                continue;
+            }
+            out.writeBoolean(true);
+            writeString(s.nameOf(v), out);
+            out.writeInt(s.stateOf(v));
+            out.writeInt(s.portBound(v));
+            for(int p = 0; p < s.portBound(v); p++){
+                out.writeInt(s.oppositeVertex(v, p));
+                out.writeInt(s.oppositePort(v, p));
+            }
+        }
+    }
+
+    private static void writeAttachment(Map<SemiEdge, SemiEdge> attachment, DataOutputStream out) throws IOException{
+        //The order of a map is not fixed, the semi edges are sorted
+        List<Map.Entry<SemiEdge, SemiEdge>> entries = new ArrayList<>(attachment.entrySet());
+        entries.sort(Comparator.comparing((Map.Entry<SemiEdge, SemiEdge> e) -> e.getKey().getName())
+                .thenComparingInt(e -> e.getKey().getPort()));
+        out.writeInt(entries.size());
+        for(Map.Entry<SemiEdge, SemiEdge> e : entries){
+            writeString(e.getKey().getName(), out);
+            out.writeInt(e.getKey().getPort());
+            writeString(e.getValue().getName(), out);
+            out.writeInt(e.getValue().getPort());
+        }
+    }
+
+    private static void writeString(String s, DataOutputStream out) throws IOException{
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
 }
@@ -18,10 +18,23 @@ public class Renaming {
 
     //private boolean ok;
     private Map<String, String> r;
+    //The inverse of r, so that the images are found without scanning r
+    private Map<String, String> inverse;
 
     public Renaming(){
         //this.ok = true;
         this.r = new HashMap<>();
+        this.inverse = new HashMap<>();
+    }
+
+    /**
+     * Creates a renaming from its two directions, already built.
+     * @param r the renaming
+     * @param inverse the inverse of r
+     */
+    private Renaming(Map<String, String> r, Map<String, String> inverse){
+        this.r = r;
+        this.inverse = inverse;
     }
 
     /**
@@ -31,7 +44,12 @@ public class Renaming {
      * @return false if a already has an image, true otherwise.
      */
     public boolean bind(String a, String b){
-        boolean ok = (this.r.put(a,b) == null);
+        String old = this.r.put(a,b);
+        if(old != null && a.equals(this.inverse.get(old))){
+            this.inverse.remove(old);
+        }
+        this.inverse.put(b,a);
+        boolean ok = (old == null);
         return ok;
     }
 
@@ -113,7 +131,7 @@ public class Renaming {
      * @return true if the renaming contains a name a such as R(a) = s; false otherwise
      */
     public boolean containsImage(String s){
-        return this.r.containsValue(s);
+        return this.inverse.containsKey(s);
     }
 
     /**
@@ -121,11 +139,7 @@ public class Renaming {
      * @return the inverse of the renaming.
      */
     public Renaming mirror(){
-        Renaming mirror = new Renaming();
         //if(! ok){mirror.setNo();};
-        for(String s : this.r.keySet()){
-            mirror.bind(this.r.get(s), s);
-        }
-        return mirror;
+        return new Renaming(new HashMap<>(this.inverse), new HashMap<>(this.r));
     }
 }
@@ -0,0 +1,89 @@
+package pcgd.generator;
+
+import pcgd.dynamics.PCGD;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Command line generator of large graphs, written in the input format of the parser.
+ */
+public class Generate {
+
+    public static void main(String[] args){
+        if(args.length < 2){
+            System.out.println("Arguments Expected :\n" +
+                    " - name of the file where to write the graph,\n" +
+                    " - number of background vertices,\n" +
+                    " - --topology chain|grid|random-regular|tree (OPTIONNAL, chain by default),\n" +
+                    " - --degree d : degree of the random regular graphs, children of the tree nodes (OPTIONNAL, 3 by default),\n" +
+                    " - --states s:w,s:w,... : states and their weights (OPTIONNAL, state 0 by default),\n" +
+                    " - --seed n (OPTIONNAL),\n" +
+                    " - --plant file:n : plants n instances of each part of the PCGD of the file (OPTIONNAL).");
+            return;
+        }
+        Generator generator;
+        try{
+            int n = Integer.parseInt(args[1]);
+            Topology topology = Topology.CHAIN;
+            int i = 2;
+            //The topology is needed to create the generator, the other options are set after
+            for(int j = 2; j+1 < args.length; j++){
+                if(args[j].equals("--topology")){
+                    topology = Topology.valueOf(args[j+1].toUpperCase().replace('-', '_'));
+                }
+            }
+            generator = new Generator(n, topology);
+            while(i < args.length){
+                if(i+1 >= args.length){
+                    System.out.println("Missing value of option "+args[i]+".");
+                    return;
+                }
+                String value = args[i+1];
+                switch(args[i]){
+                    case "--topology":
+                        break;
+                    case "--degree":
+                        generator.setDegree(Integer.parseInt(value));
+                        break;
+                    case "--states":
+                        generator.setStates(StateDistribution.parse(value));
+                        break;
+                    case "--seed":
+                        generator.setSeed(Long.parseLong(value));
+                        break;
+                    case "--plant":
+                        int colon = value.lastIndexOf(':');
+                        if(colon == -1){
+                            System.out.println("Expected file:count after --plant.");
+                            return;
+                        }
+                        PCGD p = Parser.parsePCGD(value.substring(0, colon));
+                        generator.plant(p, Integer.parseInt(value.substring(colon+1)));
+                        break;
+                    default:
+                        System.out.println("Unknown option "+args[i]+".");
+                        return;
+                }
+                i += 2;
+            }
+        }catch(IllegalArgumentException e){
+            System.out.println("Invalid argument : "+e.getMessage());
+            return;
+        }catch(ParseException e){
+            System.out.println("Error during parsing of the PCGD :\n"+e.getMessage());
+            return;
+        }catch(IOException e){
+            System.out.println("I/O error on the PCGD file : "+e.getMessage());
+            return;
+        }
+        //
+        try{
+            generator.generate(new TextSink(new FileWriter(args[0])));
+        }catch(IOException e){
+            System.out.println("I/O error on file \""+args[0]+"\" : "+e.getMessage());
+        }
+    }
+}
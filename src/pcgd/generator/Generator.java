@@ -0,0 +1,213 @@
+package pcgd.generator;
+
+import pcgd.dynamics.CyclicPermutation;
+import pcgd.dynamics.PCGD;
+import pcgd.graphs.Graph;
+import pcgd.graphs.Subgraph;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates large port graphs for load testing : a background graph of a given topology, with random states, and planted
+ * instances of the parts of a PCGD. The graph is given to a sink vertex by vertex and edge by edge, so it can be
+ * written to disk without being held in memory; only the random regular topology keeps an array of ints per vertex.
+ * The background vertices are named v0, v1, ... The vertex o of the i-th instance of the part k of the cycle c is named
+ * pc_k_i_o, and each of its semi edges is plugged on port 0 of a new filler vertex pc_k_i_fj.
+ */
+public class Generator {
+
+    private final int vertexCount;
+    private final Topology topology;
+    private int degree;
+    private StateDistribution states;
+    private long seed;
+    private PCGD plantedPCGD;
+    private int plantedCount;
+
+    /**
+     * Creates a generator of graphs with a given number of background vertices, of degree 3 (for the trees and the
+     * random regular graphs), all in state 0, without planted instances.
+     * @param vertexCount the number of background vertices
+     * @param topology the shape of the background graph
+     */
+    public Generator(int vertexCount, Topology topology){
+        if(vertexCount < 0){
+            throw new IllegalArgumentException("Negative number of vertices.");
+        }
+        this.vertexCount = vertexCount;
+        this.topology = topology;
+        this.degree = 3;
+        this.states = StateDistribution.constant(0);
+        this.seed = 0;
+        this.plantedPCGD = null;
+        this.plantedCount = 0;
+    }
+
+    /**
+     * Sets the degree of the random regular graphs, or the number of children of the nodes of the trees. Not used by the
+     * chains and grids.
+     * @param degree the degree, positive
+     */
+    public void setDegree(int degree){
+        if(degree <= 0){
+            throw new IllegalArgumentException("Degree must be positive.");
+        }
+        this.degree = degree;
+    }
+
+    /**
+     * Sets the distribution of the states of the background vertices and of the filler vertices.
+     * @param states the distribution
+     */
+    public void setStates(StateDistribution states){
+        this.states = states;
+    }
+
+    /**
+     * Sets the seed of the random choices. The same seed gives the same graph.
+     * @param seed the seed
+     */
+    public void setSeed(long seed){
+        this.seed = seed;
+    }
+
+    /**
+     * Plants instances of each part of each cycle of a PCGD.
+     * @param pcgd the PCGD
+     * @param count the number of instances of each part
+     */
+    public void plant(PCGD pcgd, int count){
+        this.plantedPCGD = pcgd;
+        this.plantedCount = count;
+    }
+
+    /**
+     * Generates the graph and closes the sink.
+     * @param sink the sink receiving the graph
+     * @throws IOException if the sink fails
+     */
+    public void generate(GraphSink sink) throws IOException{
+        Random random = new Random(this.seed);
+        for(int v = 0; v < this.vertexCount; v++){
+            sink.vertex("v"+v, this.states.sample(random));
+        }
+        switch(this.topology){
+            case CHAIN:
+                for(int v = 1; v < this.vertexCount; v++){
+                    sink.edge("v"+(v-1), 1, "v"+v, 0);
+                }
+                break;
+            case GRID:
+                int width = (int) Math.ceil(Math.sqrt(this.vertexCount));
+                for(int v = 0; v < this.vertexCount; v++){
+                    if(v % width > 0){sink.edge("v"+(v-1), 1, "v"+v, 0);}
+                    if(v >= width){sink.edge("v"+(v-width), 3, "v"+v, 2);}
+                }
+                break;
+            case TREE:
+                for(int v = 1; v < this.vertexCount; v++){
+                    sink.edge("v"+((v-1)/this.degree), 1+(v-1)%this.degree, "v"+v, 0);
+                }
+                break;
+            case RANDOM_REGULAR:
+                this.randomRegular(sink, random);
+                break;
+        }
+        if(this.plantedPCGD != null){
+            for(int c = 0; c < this.plantedPCGD.size(); c++){
+                CyclicPermutation cycle = this.plantedPCGD.get(c);
+                for(int k = 0; k < cycle.size(); k++){
+                    for(int i = 0; i < this.plantedCount; i++){
+                        this.plantPart(sink, cycle.getPattern(k), "p"+c+"_"+k+"_"+i+"_", random);
+                    }
+                }
+            }
+        }
+        sink.close();
+    }
+
+    /**
+     * Generates a graph and builds it in memory.
+     * @return the graph
+     */
+    public Graph build(){
+        GraphObjectSink sink = new GraphObjectSink();
+        try{
+            this.generate(sink);
+        }catch(IOException e){
+            //Building in memory does no I/O
+            throw new IllegalStateException(e);
+        }
+        return sink.getGraph();
+    }
+
+    /**
+     * Connects the background vertices as a random regular graph : degree/2 random cycles through all the vertices, and
+     * a random perfect matching for an odd degree (one vertex stays unmatched if there is an odd number of vertices).
+     * @param sink the sink
+     * @param random the random generator
+     * @throws IOException if the sink fails
+     */
+    private void randomRegular(GraphSink sink, Random random) throws IOException{
+        int n = this.vertexCount;
+        if(n == 0){return;}
+        int[] order = new int[n];
+        for(int k = 0; k < this.degree/2; k++){
+            shuffle(order, random);
+            for(int i = 0; i < n; i++){
+                sink.edge("v"+order[i], 2*k+1, "v"+order[(i+1)%n], 2*k);
+            }
+        }
+        if(this.degree % 2 == 1){
+            shuffle(order, random);
+            for(int i = 0; i+1 < n; i += 2){
+                sink.edge("v"+order[i], this.degree-1, "v"+order[i+1], this.degree-1);
+            }
+        }
+    }
+
+    /**
+     * Fills an array with a random permutation of 0..length-1.
+     * @param order the array
+     * @param random the random generator
+     */
+    private static void shuffle(int[] order, Random random){
+        for(int i = 0; i < order.length; i++){
+            int j = random.nextInt(i+1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+    }
+
+    /**
+     * Gives an instance of a part to the sink, with a filler vertex plugged on each semi edge.
+     * @param sink the sink
+     * @param part the part
+     * @param prefix the prefix of the names of the vertices of the instance
+     * @param random the random generator
+     * @throws IOException if the sink fails
+     */
+    private void plantPart(GraphSink sink, Subgraph part, String prefix, Random random) throws IOException{
+        for(int o = 0; o < part.vertexCapacity(); o++){
+            if(part.isVertex(o)){sink.vertex(prefix+part.nameOf(o), part.stateOf(o));}
+        }
+        int fillers = 0;
+        for(int o = 0; o < part.vertexCapacity(); o++){
+            if(!part.isVertex(o)){continue;}
+            for(int p = 0; p < part.portBound(o); p++){
+                int u = part.oppositeVertex(o, p);
+                if(u == Graph.SEMI){
+                    String filler = prefix+"f"+(fillers++);
+                    sink.vertex(filler, this.states.sample(random));
+                    sink.edge(prefix+part.nameOf(o), p, filler, 0);
+                }else if(u >= 0){
+                    int q = part.oppositePort(o, p);
+                    if(u > o || (u == o && q > p)){
+                        sink.edge(prefix+part.nameOf(o), p, prefix+part.nameOf(u), q);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package pcgd.generator;
+
+import pcgd.graphs.Exceptions.EdgePortException;
+import pcgd.graphs.Exceptions.VertexNameException;
+import pcgd.graphs.Graph;
+
+/**
+ * Builds a Graph object from a generated graph.
+ */
+public class GraphObjectSink implements GraphSink {
+
+    private final Graph graph;
+
+    /**
+     * Starts building an empty graph.
+     */
+    public GraphObjectSink(){
+        this.graph = new Graph();
+    }
+
+    @Override
+    public void vertex(String name, int state){
+        try{
+            this.graph.addVertex(name, state);
+        }catch(VertexNameException e){
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void edge(String name1, int port1, String name2, int port2){
+        try{
+            this.graph.addEdge(name1, port1, name2, port2);
+        }catch(VertexNameException | EdgePortException e){
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close(){
+    }
+
+    /**
+     * Returns the graph built.
+     * @return the graph
+     */
+    public Graph getGraph(){
+        return this.graph;
+    }
+}
@@ -0,0 +1,34 @@
+package pcgd.generator;
+
+import java.io.IOException;
+
+/**
+ * Receives a graph vertex by vertex and edge by edge, as it is generated. The two ends of an edge are always given before
+ * the edge.
+ */
+public interface GraphSink {
+
+    /**
+     * Receives a vertex.
+     * @param name the name of the vertex
+     * @param state the state of the vertex
+     * @throws IOException if the vertex can not be written
+     */
+    void vertex(String name, int state) throws IOException;
+
+    /**
+     * Receives an edge between two vertices already received.
+     * @param name1 the name of the first end
+     * @param port1 the port of the first end
+     * @param name2 the name of the second end
+     * @param port2 the port of the second end
+     * @throws IOException if the edge can not be written
+     */
+    void edge(String name1, int port1, String name2, int port2) throws IOException;
+
+    /**
+     * Ends the graph.
+     * @throws IOException if the graph can not be written
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,79 @@
+package pcgd.generator;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A random distribution of the states of the generated vertices.
+ */
+public class StateDistribution {
+
+    private final int[] states;
+    private final double[] cumulated;
+
+    /**
+     * Creates a distribution.
+     * @param states the possible states
+     * @param weights the weight of each state, positive
+     */
+    public StateDistribution(int[] states, double[] weights){
+        if(states.length == 0 || states.length != weights.length){
+            throw new IllegalArgumentException("Expected as many weights as states, and at least one state.");
+        }
+        this.states = states.clone();
+        this.cumulated = new double[weights.length];
+        double total = 0;
+        for(int i = 0; i < weights.length; i++){
+            if(!(weights[i] > 0)){
+                throw new IllegalArgumentException("Weight of state "+states[i]+" is not positive.");
+            }
+            total += weights[i];
+            this.cumulated[i] = total;
+        }
+        for(int i = 0; i < weights.length; i++){
+            this.cumulated[i] /= total;
+        }
+    }
+
+    /**
+     * Creates the distribution giving always the same state.
+     * @param state the state
+     * @return the distribution
+     */
+    public static StateDistribution constant(int state){
+        return new StateDistribution(new int[]{state}, new double[]{1});
+    }
+
+    /**
+     * Reads a distribution written as "state:weight,state:weight,...", the weights being optional.
+     * @param s the distribution
+     * @return the distribution
+     * @throws IllegalArgumentException if s is not a distribution
+     */
+    public static StateDistribution parse(String s){
+        String[] items = s.split(",");
+        int[] states = new int[items.length];
+        double[] weights = new double[items.length];
+        try{
+            for(int i = 0; i < items.length; i++){
+                int colon = items[i].indexOf(':');
+                states[i] = Integer.parseInt((colon == -1 ? items[i] : items[i].substring(0, colon)).trim());
+                weights[i] = colon == -1 ? 1 : Double.parseDouble(items[i].substring(colon+1).trim());
+            }
+        }catch(NumberFormatException e){
+            throw new IllegalArgumentException("Invalid state distribution \""+s+"\".");
+        }
+        return new StateDistribution(states, weights);
+    }
+
+    /**
+     * Draws a state.
+     * @param random the random generator
+     * @return the state
+     */
+    public int sample(Random random){
+        int i = Arrays.binarySearch(this.cumulated, random.nextDouble());
+        i = i >= 0 ? i+1 : -i-1;
+        return this.states[Math.min(i, this.states.length-1)];
+    }
+}
@@ -0,0 +1,52 @@
+package pcgd.generator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes a graph in the input format of the parser as it is generated, so that graphs larger than the memory can be
+ * written.
+ */
+public class TextSink implements GraphSink {
+
+    private final BufferedWriter out;
+
+    /**
+     * Starts writing a graph.
+     * @param out where the graph is written, closed with the sink
+     * @throws IOException if the graph can not be written
+     */
+    public TextSink(Writer out) throws IOException{
+        this.out = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out, 1 << 16);
+        this.out.write("graph:\n");
+    }
+
+    @Override
+    public void vertex(String name, int state) throws IOException{
+        this.out.write("\tv:\t");
+        this.out.write(name);
+        this.out.write('(');
+        this.out.write(Integer.toString(state));
+        this.out.write(")\n");
+    }
+
+    @Override
+    public void edge(String name1, int port1, String name2, int port2) throws IOException{
+        this.out.write("\te:\t");
+        this.out.write(name1);
+        this.out.write(':');
+        this.out.write(Integer.toString(port1));
+        this.out.write(',');
+        this.out.write(name2);
+        this.out.write(':');
+        this.out.write(Integer.toString(port2));
+        this.out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.out.write(":endgraph\n");
+        this.out.close();
+    }
+}
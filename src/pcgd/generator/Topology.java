@@ -0,0 +1,25 @@
+package pcgd.generator;
+
+/**
+ * The shapes of the generated graphs.
+ */
+public enum Topology {
+    /**
+     * A path : port 1 of each vertex is connected to port 0 of the next one.
+     */
+    CHAIN,
+    /**
+     * A square grid, as close as possible to a square : ports 0, 1, 2, 3 lead to the left, right, upper and lower
+     * neighbours.
+     */
+    GRID,
+    /**
+     * A random graph where every vertex has the same degree, made of degree/2 random cycles through all the vertices
+     * (ports 2k and 2k+1 for the k-th cycle), and a random perfect matching on the last port for an odd degree.
+     */
+    RANDOM_REGULAR,
+    /**
+     * A complete tree : port 0 leads to the parent, ports 1 to degree to the children.
+     */
+    TREE
+}
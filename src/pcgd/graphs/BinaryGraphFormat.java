@@ -0,0 +1,198 @@
+package pcgd.graphs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The binary snapshot of a graph, which keeps the ids of the vertices, the ids to reuse and the next fresh name, so
+ * that a graph read back behaves exactly as the graph written. All the ints are variable length integers.
+ *
+ * The snapshot is : the magic bytes "PCGB" and the version; a header with the bound on the ids, the number of vertices,
+ * the number of edges, the fresh number and the number of ids to reuse; the ids to reuse; then the string table of the
+ * vertices, one entry per id, 0 for an id not in use, or 1 + the length of the prefix shared with the previous name,
+ * followed by the rest of the name, the state and the number of ports; and at last the edges, grouped by their lowest
+ * end v : for each vertex the number of its edges, then for each edge its port, u-v and the port of u.
+ */
+class BinaryGraphFormat {
+
+    private static final byte[] MAGIC = {'P', 'C', 'G', 'B'};
+    private static final int VERSION = 1;
+    private static final int INITIAL_LENGTH = 1024;
+
+    private BinaryGraphFormat(){}
+
+    /**
+     * Writes a graph.
+     * @param g a graph, or a subgraph without semi edges
+     * @param out the output
+     * @throws IOException if the output fails
+     * @throws RuntimeException if the graph is a subgraph containing semi edges.
+     */
+    static void write(Graph g, BinaryOutput out) throws IOException{
+        //The ports of the semi edges would be lost
+        g.checkExport();
+        int capacity = g.vertexCapacity();
+        int[] free = g.names.freeIds();
+        out.writeBytes(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeVarInt(capacity);
+        out.writeVarInt(g.vertexCount());
+        out.writeVarInt(g.edgeCount);
+        out.writeVarInt(g.freshNumber);
+        out.writeVarInt(free.length);
+        for(int id : free){
+            out.writeVarInt(id);
+        }
+        //String table and vertices
+        String previous = "";
+        for(int v = 0; v < capacity; v++){
+            String name = g.names.name(v);
+            if(name == null){
+                out.writeVarInt(0);
+                continue;
+            }
+            int shared = sharedPrefix(previous, name);
+            out.writeVarInt(shared+1);
+            out.writeString(name.substring(shared));
+            out.writeSignedVarInt(g.states[v]);
+            out.writeVarInt(g.ports[v].length/2);
+            previous = name;
+        }
+        //Edges, each one written once from its lowest end
+        for(int v = 0; v < capacity; v++){
+            if(!g.isVertex(v)){continue;}
+            int[] t = g.ports[v];
+            int n = 0;
+            for(int p = 0; 2*p < t.length; p++){
+                if(owns(v, p, t[2*p], t[2*p+1])){n++;}
+            }
+            out.writeVarInt(n);
+            for(int p = 0; 2*p < t.length; p++){
+                int u = t[2*p];
+                int q = t[2*p+1];
+                if(owns(v, p, u, q)){
+                    out.writeVarInt(p);
+                    out.writeVarInt(u-v);
+                    out.writeVarInt(q);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a graph.
+     * @param in the input
+     * @return the graph, with the default settings of the matching and of the rewriting
+     * @throws IOException if the input fails or does not hold a binary snapshot
+     */
+    static Graph read(BinaryInput in) throws IOException{
+        byte[] magic = new byte[MAGIC.length];
+        in.readBytes(magic);
+        if(!Arrays.equals(magic, MAGIC)){
+            throw new IOException("Not a binary graph snapshot");
+        }
+        int version = in.readVarInt();
+        if(version != VERSION){
+            throw new IOException("Unsupported version "+version+" of binary graph snapshot");
+        }
+        int capacity = in.readVarInt();
+        int vertexCount = in.readVarInt();
+        int edgeCount = in.readVarInt();
+        int freshNumber = in.readVarInt();
+        int freeCount = in.readVarInt();
+        //Every id below the bound is either in use or to reuse
+        if(capacity < 0 || vertexCount < 0 || edgeCount < 0 || freeCount < 0
+                || (long) capacity != (long) vertexCount + freeCount){
+            throw corrupted();
+        }
+        //The arrays only grow with what is read, so that a damaged header ends the input before a large allocation
+        int[] free = new int[Math.min(freeCount, INITIAL_LENGTH)];
+        for(int i = 0; i < freeCount; i++){
+            if(i == free.length){free = Arrays.copyOf(free, Math.min(freeCount, 2*free.length));}
+            free[i] = in.readVarInt();
+            if(free[i] < 0 || free[i] >= capacity){throw corrupted();}
+        }
+        Graph g = new Graph();
+        g.freshNumber = freshNumber;
+        String previous = "";
+        for(int v = 0; v < capacity; v++){
+            int tag = in.readVarInt();
+            if(tag == 0){continue;}
+            int shared = tag-1;
+            if(shared < 0 || shared > previous.length()){throw corrupted();}
+            String suffix = in.readString();
+            String name = shared == 0 ? suffix : previous.substring(0, shared).concat(suffix);
+            int state = in.readSignedVarInt();
+            int portBound = in.readVarInt();
+            if(portBound < 0 || portBound > Integer.MAX_VALUE/2){throw corrupted();}
+            if(!g.names.set(v, name)){throw corrupted();}
+            g.ensureCapacity(v+1);
+            g.states[v] = state;
+            g.degrees[v] = 0;
+            if(portBound == 0){
+                g.ports[v] = Graph.NO_PORTS;
+            }else{
+                g.ports[v] = new int[2*portBound];
+                Arrays.fill(g.ports[v], Graph.FREE);
+            }
+            g.stateIndex.add(v, state);
+            previous = name;
+        }
+        if(g.names.size() != vertexCount){throw corrupted();}
+        g.ensureCapacity(capacity);
+        for(int id : free){
+            if(g.isVertex(id)){throw corrupted();}
+        }
+        g.names.setFreeIds(capacity, free);
+        for(int v = 0; v < capacity; v++){
+            if(!g.isVertex(v)){continue;}
+            int n = in.readVarInt();
+            for(int i = 0; i < n; i++){
+                int p = in.readVarInt();
+                int u = v + in.readVarInt();
+                int q = in.readVarInt();
+                if(!g.isVertex(u) || !isFree(g, v, p) || !isFree(g, u, q) || (u == v && p == q)){throw corrupted();}
+                g.ports[v][2*p] = u;
+                g.ports[v][2*p+1] = q;
+                g.ports[u][2*q] = v;
+                g.ports[u][2*q+1] = p;
+                g.degrees[v]++;
+                g.degrees[u]++;
+                g.edgeCount++;
+            }
+        }
+        if(g.edgeCount != edgeCount){throw corrupted();}
+        return g;
+    }
+
+    /**
+     * Tests if an edge is written from port p of v, its lowest end.
+     * @param v a vertex
+     * @param p a port of v
+     * @param u the opposite vertex, FREE if the port is not in use
+     * @param q the opposite port
+     * @return true if the edge is written from v
+     */
+    private static boolean owns(int v, int p, int u, int q){
+        return u > v || (u == v && q > p);
+    }
+
+    private static boolean isFree(Graph g, int v, int p){
+        return p >= 0 && p < g.ports[v].length/2 && g.ports[v][2*p] == Graph.FREE;
+    }
+
+    private static int sharedPrefix(String a, String b){
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while(i < n && a.charAt(i) == b.charAt(i)){
+            i++;
+        }
+        //Do not split a surrogate pair, the rest of the name must be valid UTF-16
+        if(i > 0 && Character.isHighSurrogate(a.charAt(i-1))){i--;}
+        return i;
+    }
+
+    private static IOException corrupted(){
+        return new IOException("Corrupted binary graph snapshot");
+    }
+}
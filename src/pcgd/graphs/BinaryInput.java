@@ -0,0 +1,114 @@
+package pcgd.graphs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads what a BinaryOutput wrote, from a stream, through a buffer.
+ */
+class BinaryInput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * Creates an input reading a stream.
+     * @param in the stream, not closed by the input
+     */
+    BinaryInput(InputStream in){
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Reads raw bytes.
+     * @param bytes the array to fill
+     * @throws IOException if the stream fails or ends before
+     */
+    void readBytes(byte[] bytes) throws IOException{
+        int done = 0;
+        while(done < bytes.length){
+            if(this.position == this.limit){this.fill();}
+            int n = Math.min(bytes.length - done, this.limit - this.position);
+            System.arraycopy(this.buffer, this.position, bytes, done, n);
+            this.position += n;
+            done += n;
+        }
+    }
+
+    /**
+     * Reads an int written by writeVarInt.
+     * @return the int
+     * @throws IOException if the stream fails, ends before, or does not hold an int
+     */
+    int readVarInt() throws IOException{
+        long value = this.readVarLong();
+        if(value > 0xFFFFFFFFL){
+            throw new IOException("Malformed int in binary graph data");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads an int written by writeSignedVarInt.
+     * @return the int
+     * @throws IOException if the stream fails, ends before, or does not hold an int
+     */
+    int readSignedVarInt() throws IOException{
+        int value = this.readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a variable length integer of up to 64 bits.
+     * @return the integer
+     * @throws IOException if the stream fails, ends before, or does not hold an integer
+     */
+    long readVarLong() throws IOException{
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            if(this.position == this.limit){this.fill();}
+            byte b = this.buffer[this.position++];
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0){return value;}
+        }
+        throw new IOException("Malformed int in binary graph data");
+    }
+
+    /**
+     * Reads a string written by writeString.
+     * @return the string
+     * @throws IOException if the stream fails or ends before
+     */
+    String readString() throws IOException{
+        int length = this.readVarInt();
+        if(length < 0){
+            throw new IOException("Malformed string in binary graph data");
+        }
+        if(length <= this.limit - this.position){
+            String s = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+            return s;
+        }
+        byte[] bytes = new byte[length];
+        this.readBytes(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void fill() throws IOException{
+        int n = this.in.read(this.buffer, 0, this.buffer.length);
+        if(n <= 0){
+            throw new EOFException("Unexpected end of binary graph data");
+        }
+        this.position = 0;
+        this.limit = n;
+    }
+}
@@ -0,0 +1,95 @@
+package pcgd.graphs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the binary formats of the graphs into a stream, through a buffer : ints as variable length integers (7 bits per
+ * byte, the high bit set on all the bytes but the last one), and strings as their length followed by their UTF-8 bytes.
+ */
+class BinaryOutput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+
+    /**
+     * Creates an output writing into a stream.
+     * @param out the stream, not closed by the output
+     */
+    BinaryOutput(OutputStream out){
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.position = 0;
+    }
+
+    /**
+     * Writes raw bytes.
+     * @param bytes the bytes
+     * @throws IOException if the stream fails
+     */
+    void writeBytes(byte[] bytes) throws IOException{
+        if(this.position + bytes.length > this.buffer.length){
+            this.flushBuffer();
+        }
+        if(bytes.length > this.buffer.length){
+            this.out.write(bytes);
+            return;
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    /**
+     * Writes a non negative int in 1 to 5 bytes, the small values being the shortest.
+     * @param value an int, non negative
+     * @throws IOException if the stream fails
+     */
+    void writeVarInt(int value) throws IOException{
+        if(this.position + 5 > this.buffer.length){
+            this.flushBuffer();
+        }
+        while((value & ~0x7F) != 0){
+            this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.position++] = (byte) value;
+    }
+
+    /**
+     * Writes any int, the values close to 0 being the shortest (zigzag encoding).
+     * @param value an int
+     * @throws IOException if the stream fails
+     */
+    void writeSignedVarInt(int value) throws IOException{
+        this.writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes a string, as the number of its UTF-8 bytes followed by the bytes.
+     * @param s a string
+     * @throws IOException if the stream fails
+     */
+    void writeString(String s) throws IOException{
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        this.writeVarInt(bytes.length);
+        this.writeBytes(bytes);
+    }
+
+    /**
+     * Writes the buffer into the stream, and flushes the stream.
+     * @throws IOException if the stream fails
+     */
+    void flush() throws IOException{
+        this.flushBuffer();
+        this.out.flush();
+    }
+
+    private void flushBuffer() throws IOException{
+        this.out.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+}
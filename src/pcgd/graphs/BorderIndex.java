@@ -0,0 +1,113 @@
+package pcgd.graphs;
+
+import pcgd.dynamics.IntRenaming;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The vertices of a subgraph grouped by state and degree, with its border vertices. Two vertices are only glued by
+ * twoVerticesConsistent if they have the same state and degree, so the overlaps of the borders of a subgraph on
+ * another one are only searched among the vertices of the other one with the state and degree of each border vertex.
+ * The index is a picture of the subgraph when it is built : it must be built again if the subgraph is modified. A
+ * frozen subgraph, which can not be modified, keeps its index (see Subgraph.borderIndex).
+ */
+public class BorderIndex {
+
+    private final Subgraph subgraph;
+    //Ids of the vertices by state and degree, in increasing order
+    private final Map<Long, int[]> vertices;
+    //Ids of the border vertices in increasing order, and their states and degrees
+    private final int[] borders;
+    private final Set<Long> borderKeys;
+
+    /**
+     * Indexes the vertices of a subgraph.
+     * @param subgraph the subgraph
+     */
+    public BorderIndex(Subgraph subgraph){
+        this.subgraph = subgraph;
+        this.vertices = new HashMap<>();
+        this.borderKeys = new HashSet<>();
+        Map<Long, List<Integer>> all = new HashMap<>();
+        List<Integer> border = new ArrayList<>();
+        int capacity = subgraph.vertexCapacity();
+        for(int v = 0; v < capacity; v++){
+            if(!subgraph.isVertex(v)){continue;}
+            Long key = key(subgraph.states[v], subgraph.degrees[v]);
+            all.computeIfAbsent(key, k -> new ArrayList<>()).add(v);
+            if(subgraph.isBorder(v)){
+                border.add(v);
+                this.borderKeys.add(key);
+            }
+        }
+        all.forEach((key, ids) -> this.vertices.put(key, toArray(ids)));
+        this.borders = toArray(border);
+    }
+
+    /**
+     * Returns the subgraph indexed.
+     * @return the subgraph
+     */
+    public Subgraph getSubgraph(){
+        return this.subgraph;
+    }
+
+    /**
+     * Tests if a border vertex of the subgraph has the state and degree of a vertex of another subgraph. If not, the
+     * borders of the subgraph can not overlap on the other one.
+     * @param other the index of the other subgraph
+     * @return true if an overlap is possible
+     */
+    public boolean mayOverlapOn(BorderIndex other){
+        for(Long key : this.borderKeys){
+            if(other.vertices.containsKey(key)){return true;}
+        }
+        return false;
+    }
+
+    /**
+     * Finds the border vertices of the subgraph which are consistent with a vertex of another subgraph, without the
+     * trivial overlaps gluing vertices of the same names. Same as Subgraph.bordersOverlapOn, giving all the overlaps :
+     * the first one found is the one bordersOverlapOn gives.
+     * @param other the index of the other subgraph
+     * @param max the number of overlaps after which the search stops
+     * @return the overlaps, as the quoted names of the two vertices, in the order of the border vertices then of the
+     *         vertices of other.
+     */
+    public List<String> overlapsOn(BorderIndex other, int max){
+        List<String> overlaps = new ArrayList<>();
+        if(max <= 0 || !this.mayOverlapOn(other)){return overlaps;}
+        Subgraph s = this.subgraph;
+        Subgraph o = other.subgraph;
+        IntRenaming binding = new IntRenaming(o.vertexCapacity(), s.vertexCapacity());
+        for(int localV : this.borders){
+            int[] candidates = other.vertices.get(key(s.states[localV], s.degrees[localV]));
+            if(candidates == null){continue;}
+            for(int otherV : candidates){
+                binding.clear();
+                if(s.twoVerticesConsistent(localV, otherV, o, binding) && !s.isTrivial(o, binding)){
+                    overlaps.add("\""+s.nameOf(localV)+"\" and \""+o.nameOf(otherV)+"\"");
+                    if(overlaps.size() == max){return overlaps;}
+                }
+            }
+        }
+        return overlaps;
+    }
+
+    private static Long key(int state, int degree){
+        return ((long) state << 32) | (degree & 0xFFFFFFFFL);
+    }
+
+    private static int[] toArray(List<Integer> ids){
+        int[] t = new int[ids.size()];
+        for(int i = 0; i < t.length; i++){
+            t[i] = ids.get(i);
+        }
+        return t;
+    }
+}
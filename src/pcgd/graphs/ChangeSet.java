@@ -0,0 +1,75 @@
+package pcgd.graphs;
+
+import java.util.Arrays;
+
+/**
+ * A set of vertex ids, filled by a graph with the vertices whose state or ports changed, when it is tracked by the graph
+ * (see Graph.track). Each id appears only once, in the order of the first change.
+ */
+public class ChangeSet {
+
+    private int[] vertices;
+    private int size;
+    private boolean[] marked;
+
+    /**
+     * Creates an empty change set.
+     */
+    public ChangeSet(){
+        this.vertices = new int[16];
+        this.size = 0;
+        this.marked = new boolean[16];
+    }
+
+    /**
+     * Adds a vertex id to the set, if it is not already in it.
+     * @param v a vertex id
+     */
+    public void add(int v){
+        if(v >= marked.length){
+            marked = Arrays.copyOf(marked, Math.max(2*marked.length, v+1));
+        }
+        if(marked[v]){return;}
+        marked[v] = true;
+        if(size == vertices.length){
+            vertices = Arrays.copyOf(vertices, 2*vertices.length);
+        }
+        vertices[size++] = v;
+    }
+
+    /**
+     * Tests if a vertex id is in the set.
+     * @param v a vertex id
+     * @return true if the vertex changed since the last clear
+     */
+    public boolean contains(int v){
+        return v < marked.length && marked[v];
+    }
+
+    /**
+     * Returns the i-th vertex id of the set.
+     * @param i an index lower than size()
+     * @return the i-th vertex id
+     */
+    public int get(int i){
+        return vertices[i];
+    }
+
+    /**
+     * Returns the number of vertex ids in the set.
+     * @return the size of the set
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Empties the set.
+     */
+    public void clear(){
+        for(int i = 0; i < size; i++){
+            marked[vertices[i]] = false;
+        }
+        size = 0;
+    }
+}
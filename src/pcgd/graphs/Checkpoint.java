@@ -0,0 +1,212 @@
+package pcgd.graphs;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The state of a simulation at a step, from which it can be resumed : the graph with its ids and its next fresh name,
+ * the index of the step and the fingerprint of the PCGD. A run resumed from a checkpoint gives the same graphs as the
+ * run which wrote it.
+ *
+ * The checkpoints of a run are files named checkpointN.pcgc in a directory, N being the step. Each file is : the magic
+ * bytes "PCGC" and the version, the step, the 8 bytes of the fingerprint, the binary snapshot of the graph (see
+ * BinaryGraphFormat), and the CRC32 of all that. A file is written under another name then renamed, and is checked when
+ * read, so that a run stopped while writing a checkpoint can be resumed from the one before.
+ */
+public class Checkpoint {
+
+    private static final byte[] MAGIC = {'P', 'C', 'G', 'C'};
+    private static final int VERSION = 1;
+    private static final String PREFIX = "checkpoint";
+    private static final String SUFFIX = ".pcgc";
+
+    private final int step;
+    private final long fingerprint;
+    private final Graph graph;
+
+    private Checkpoint(int step, long fingerprint, Graph graph){
+        this.step = step;
+        this.fingerprint = fingerprint;
+        this.graph = graph;
+    }
+
+    /**
+     * Returns the step of the checkpoint.
+     * @return the index of the step
+     */
+    public int getStep(){
+        return this.step;
+    }
+
+    /**
+     * Returns the fingerprint of the PCGD of the run which wrote the checkpoint.
+     * @return the fingerprint
+     */
+    public long getFingerprint(){
+        return this.fingerprint;
+    }
+
+    /**
+     * Returns the graph of the checkpoint.
+     * @return the graph, with the default settings of the matching and of the rewriting
+     */
+    public Graph getGraph(){
+        return this.graph;
+    }
+
+    /**
+     * Writes the checkpoint of a step into a directory. The other checkpoints are deleted, except the last one before it.
+     * @param g the graph at the step
+     * @param step the index of the step
+     * @param fingerprint the fingerprint of the PCGD
+     * @param dir the directory of the checkpoints
+     * @throws IOException in case of I/O accident.
+     */
+    public static void save(Graph g, int step, long fingerprint, String dir) throws IOException{
+        Path target = Paths.get(dir, PREFIX+step+SUFFIX);
+        Path tmp = Paths.get(dir, PREFIX+step+SUFFIX+".tmp");
+        try(FileOutputStream file = new FileOutputStream(tmp.toFile())){
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            BinaryOutput out = new BinaryOutput(checked);
+            out.writeBytes(MAGIC);
+            out.writeVarInt(VERSION);
+            out.writeVarInt(step);
+            out.writeBytes(ByteBuffer.allocate(8).putLong(fingerprint).array());
+            BinaryGraphFormat.write(g, out);
+            out.flush();
+            file.write(ByteBuffer.allocate(4).putInt((int) checked.getChecksum().getValue()).array());
+            //The checkpoint must be on the disk before it replaces the last one
+            file.getFD().sync();
+        }
+        try{
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }catch(AtomicMoveNotSupportedException e){
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        //The last checkpoint before this one is kept in case this one is damaged later. The ones after it could only be
+        //left by a run which was not resumed from them, they are deleted.
+        boolean previous = true;
+        for(int other : steps(dir)){
+            if(other == step){continue;}
+            if(other < step && previous){
+                previous = false;
+                continue;
+            }
+            Files.deleteIfExists(Paths.get(dir, PREFIX+other+SUFFIX));
+        }
+    }
+
+    /**
+     * Deletes the checkpoints of a directory, before a run which does not resume from them.
+     * @param dir the directory of the checkpoints
+     * @throws IOException in case of I/O accident.
+     */
+    public static void clear(String dir) throws IOException{
+        for(int step : steps(dir)){
+            Files.deleteIfExists(Paths.get(dir, PREFIX+step+SUFFIX));
+        }
+    }
+
+    /**
+     * Writes the checkpoint of the step of a snapshot into a directory. The other checkpoints are deleted, except the
+     * last one before it.
+     * @param s a snapshot, held by the caller
+     * @param fingerprint the fingerprint of the PCGD
+     * @param dir the directory of the checkpoints
+     * @throws IOException in case of I/O accident.
+     */
+    public static void save(GraphSnapshot s, long fingerprint, String dir) throws IOException{
+        if(s.getStep() > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Step "+s.getStep()+" too large for a checkpoint.");
+        }
+        save(s.graph(), (int) s.getStep(), fingerprint, dir);
+    }
+
+    /**
+     * Reads a checkpoint file.
+     * @param filename the name of the file
+     * @return the checkpoint
+     * @throws IOException in case of I/O accident, or if the file is not a checkpoint or is damaged.
+     */
+    public static Checkpoint read(String filename) throws IOException{
+        byte[] bytes = Files.readAllBytes(Paths.get(filename));
+        int length = bytes.length - 4;
+        if(length < MAGIC.length || !Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)){
+            throw new IOException("Not a checkpoint");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        if((int) crc.getValue() != ByteBuffer.wrap(bytes, length, 4).getInt()){
+            throw new IOException("Corrupted checkpoint");
+        }
+        BinaryInput in = new BinaryInput(new ByteArrayInputStream(bytes, MAGIC.length, length - MAGIC.length));
+        int version = in.readVarInt();
+        if(version != VERSION){
+            throw new IOException("Unsupported version "+version+" of checkpoint");
+        }
+        int step = in.readVarInt();
+        byte[] fingerprint = new byte[8];
+        in.readBytes(fingerprint);
+        Graph g = BinaryGraphFormat.read(in);
+        return new Checkpoint(step, ByteBuffer.wrap(fingerprint).getLong(), g);
+    }
+
+    /**
+     * Finds the last valid checkpoint of a directory : the one of the highest step which can be read and was written
+     * with the given PCGD.
+     * @param dir the directory of the checkpoints
+     * @param fingerprint the fingerprint of the PCGD
+     * @param skipped where to add why each checkpoint after the one returned was skipped, or null
+     * @return the checkpoint, or null if there is no valid checkpoint
+     */
+    public static Checkpoint latest(String dir, long fingerprint, List<String> skipped){
+        for(int step : steps(dir)){
+            String name = PREFIX+step+SUFFIX;
+            try{
+                Checkpoint c = read(Paths.get(dir, name).toString());
+                if(c.getStep() == step && c.getFingerprint() == fingerprint){return c;}
+                if(skipped != null){
+                    skipped.add(name+" : "+(c.getStep() != step ? "wrong step" : "written with another PCGD"));
+                }
+            }catch(IOException e){
+                if(skipped != null){skipped.add(name+" : "+e.getMessage());}
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the steps of the checkpoints of a directory.
+     * @param dir the directory
+     * @return the steps, from the last one
+     */
+    private static List<Integer> steps(String dir){
+        List<Integer> steps = new ArrayList<>();
+        String[] names = new File(dir).list();
+        if(names == null){return steps;}
+        for(String name : names){
+            if(!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)){continue;}
+            try{
+                steps.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }catch(NumberFormatException e){
+                //Not a checkpoint
+            }
+        }
+        steps.sort(Collections.reverseOrder());
+        return steps;
+    }
+}
@@ -0,0 +1,172 @@
+package pcgd.graphs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the snapshots of the steps of a StepEngine on a background thread, so that the next step is computed while the
+ * last one is written. The snapshots are written in the order they are given, and released once written.
+ * The queue of the snapshots waiting to be written is bounded : giving a snapshot blocks while it is full. With a queue
+ * of capacity 0, the engine computes one step while the writer writes the step before, and its two buffers are enough;
+ * each snapshot waiting in the queue costs a copy of the graph in the engine.
+ * The first error of the writer is given back by the next call to submit or close, and the following snapshots are
+ * released without being written.
+ */
+public class ExportPipeline implements Closeable {
+
+    /**
+     * What is done with each snapshot on the background thread.
+     */
+    public interface Export {
+        /**
+         * Writes a snapshot. The snapshot is released after.
+         * @param snapshot the snapshot of a step
+         * @throws IOException in case of I/O accident, which stops the pipeline.
+         */
+        void write(GraphSnapshot snapshot) throws IOException;
+    }
+
+    //How often a blocked submit checks that the writer has not failed, in milliseconds
+    private static final long POLL = 100;
+
+    //Put in the queue by close, after the last snapshot
+    private final GraphSnapshot end;
+    private final Export export;
+    private final BlockingQueue<GraphSnapshot> queue;
+    private final Thread writer;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    /**
+     * Creates a pipeline and starts its background thread.
+     * @param export what is done with each snapshot
+     * @param capacity the number of snapshots that may wait to be written, 0 or more
+     */
+    public ExportPipeline(Export export, int capacity){
+        if(capacity < 0){
+            throw new IllegalArgumentException("Negative capacity.");
+        }
+        this.end = new GraphSnapshot(null);
+        this.export = export;
+        this.queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+        this.failure = null;
+        this.closed = false;
+        this.writer = new Thread(this::run, "pcgd-export");
+        this.writer.start();
+    }
+
+    /**
+     * Gives a snapshot to write. Blocks while the queue is full.
+     * @param snapshot a snapshot held by the caller, released by the pipeline
+     * @throws IOException if the writer failed before, or if the thread is interrupted while waiting. The snapshot is
+     *                     then released without being written.
+     */
+    public void submit(GraphSnapshot snapshot) throws IOException{
+        if(this.closed){
+            snapshot.release();
+            throw new IllegalStateException("Pipeline closed.");
+        }
+        try{
+            this.put(snapshot);
+        }catch(IOException | RuntimeException | Error e){
+            snapshot.release();
+            throw e;
+        }
+        if(this.failure != null){
+            //The writer failed while the snapshot was put in the queue, it may have drained the queue before
+            this.drain();
+            this.throwFailure();
+        }
+    }
+
+    /**
+     * Waits for all the snapshots given to be written, and stops the background thread.
+     * @throws IOException if the writer failed, or if the thread is interrupted while waiting.
+     */
+    @Override
+    public void close() throws IOException{
+        if(this.closed){return;}
+        this.closed = true;
+        if(this.failure == null){
+            this.put(this.end);
+        }
+        try{
+            this.writer.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the export");
+        }
+        this.throwFailure();
+    }
+
+    /**
+     * Puts a snapshot in the queue, checking while it waits that the writer does not fail.
+     * @param snapshot a snapshot, or end
+     * @throws IOException if the writer failed, or if the thread is interrupted while waiting.
+     */
+    private void put(GraphSnapshot snapshot) throws IOException{
+        try{
+            while(true){
+                this.throwFailure();
+                if(this.queue.offer(snapshot, POLL, TimeUnit.MILLISECONDS)){return;}
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the export");
+        }
+    }
+
+    /**
+     * Gives back the error of the writer, if any.
+     * @throws IOException if the writer failed with an I/O error
+     */
+    private void throwFailure() throws IOException{
+        Throwable t = this.failure;
+        if(t == null){return;}
+        if(t instanceof IOException){throw new IOException(t.getMessage(), t);}
+        if(t instanceof RuntimeException){throw new IllegalStateException("Export failed : "+t.getMessage(), t);}
+        throw new IllegalStateException("Export thread failed", t);
+    }
+
+    /**
+     * The loop of the background thread.
+     */
+    private void run(){
+        while(true){
+            GraphSnapshot s;
+            try{
+                s = this.queue.take();
+            }catch(InterruptedException e){
+                this.failure = new InterruptedIOException("Export thread interrupted");
+                this.drain();
+                return;
+            }
+            if(s == this.end){return;}
+            try{
+                this.export.write(s);
+            }catch(Throwable t){
+                this.failure = t;
+                s.release();
+                this.drain();
+                return;
+            }
+            s.release();
+        }
+    }
+
+    /**
+     * Releases the snapshots left in the queue, after a failure. The ones given later are refused by submit.
+     * Called by both threads, each snapshot being taken from the queue only once.
+     */
+    private void drain(){
+        GraphSnapshot s;
+        while((s = this.queue.poll()) != null){
+            if(s != this.end){s.release();}
+        }
+    }
+}
@@ -1,38 +1,92 @@
 package pcgd.graphs;
 
 import pcgd.dynamics.CyclicPermutation;
+import pcgd.dynamics.IntRenaming;
 import pcgd.dynamics.PCGD;
 import pcgd.dynamics.Renaming;
 import pcgd.graphs.Exceptions.EdgePortException;
 import pcgd.graphs.Exceptions.VertexNameException;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by nono on 13/06/17.
  */
 public class Graph{
 
-    protected static final String FRESH_PREFIX = "newVertex";
+    /**
+     * The prefix of the names given to the new vertices, which must not be used for any other purpose.
+     */
+    public static final String FRESH_PREFIX = "newVertex";
+    /**
+     * Value of the opposite vertex of a port that is not in use.
+     */
+    public static final int FREE = -1;
+    /**
+     * Value of the opposite vertex of a port used by a semi edge (only in subgraphs).
+     */
+    public static final int SEMI = -2;
+    protected static final int UNBOUND = -1;
+    protected static final int[] NO_PORTS = new int[0];
 
+    /**
+     * The vertices are identified by the dense ids of their names in the name table. For each id in use we keep the
+     * state, the degree, and the port table of the vertex : ports[id][2*p] is the opposite vertex of port p
+     * (FREE if the port is not in use) and ports[id][2*p+1] is the opposite port.
+     */
     protected int freshNumber;
-    protected Map<String, Vertex> vertices;
-    protected Map<String, Edge> edges;
+    protected NameTable names;
+    protected int[] states;
+    protected int[] degrees;
+    protected int[][] ports;
+    protected int edgeCount;
+    /**
+     * The vertices in each state, to search the matches of a pattern only from the vertices in the state of its anchor.
+     */
+    protected StateIndex stateIndex;
+    /**
+     * The change sets filled with the vertices changed by every modification of the graph.
+     */
+    protected ChangeSet[] trackers;
+    /**
+     * The index of the matches, used by apply when the incremental matching is on; null otherwise.
+     */
+    protected MatchIndex matchIndex;
+    /**
+     * The pool where findPattern searches the anchors in parallel; null to search sequentially.
+     */
+    protected ForkJoinPool matchingPool;
+    /**
+     * The pool where apply rewrites the matches of a cycle in parallel; null to rewrite them one by one.
+     */
+    protected ForkJoinPool rewritingPool;
+    protected RewriteBatch rewriteBatch;
 
     /**
      * Creates an empty graph.
      */
     public Graph (){
         this.freshNumber = 0;
-        this.vertices = new HashMap<>();
-        this.edges = new HashMap<>();
+        this.names = new NameTable();
+        this.states = new int[16];
+        this.degrees = new int[16];
+        this.ports = new int[16][];
+        this.edgeCount = 0;
+        this.stateIndex = new StateIndex();
+        this.trackers = new ChangeSet[0];
+        this.matchIndex = null;
+        this.matchingPool = null;
+        this.rewritingPool = null;
+        this.rewriteBatch = null;
     }
 
     /**
@@ -43,7 +97,8 @@ public class Graph{
      * @throws VertexNameException if the name is already used.
      */
     public void addVertex(String name, int state) throws VertexNameException{
-        addVertex(new Vertex(name,state));
+        if(this.names.id(name) != -1){throw new VertexNameException("Trying to add vertex "+new Vertex(name, state)+". Conflicting vertex name : "+name);}
+        this.newVertex(name, state);
     }
 
     /**
@@ -52,8 +107,7 @@ public class Graph{
      * @throws VertexNameException if the name is already used
      */
     public void addVertex(Vertex v) throws VertexNameException{
-        if(this.vertices.containsKey(v.getName())){throw new VertexNameException("Trying to add vertex "+v+". Conflicting vertex name : "+v.getName());}
-        this.vertices.put(v.getName(), v);
+        addVertex(v.getName(), v.getState());
     }
 
     /**
@@ -76,33 +130,421 @@ public class Graph{
      * @throws VertexNameException if one of the names is not in the graph
      */
     public void addEdge(Edge e)throws EdgePortException, VertexNameException{
-        if(!this.vertices.containsKey(e.getName1())){
+        int v1 = this.names.id(e.getName1());
+        int v2 = this.names.id(e.getName2());
+        if(v1 == -1){
             throw new VertexNameException("Trying to add edge "+e+". Vertex "+e.getName1()+" not in the graph.");
         }
-        if(!this.vertices.containsKey(e.getName2())){
+        if(v2 == -1){
             throw new VertexNameException("Trying to add edge "+e+". Vertex "+e.getName2()+" not in the graph.");
         }
-        for(String s : edges.keySet()){
-            Edge c = edges.get(s);
-            if(c.getName1().equals(e.getName1())){
-                if(c.getPort1() == e.getPort1()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort1()+" of "+c.getName1()+" already in use in "+c);
-                }
-            }else if(c.getName1().equals(e.getName2())){
-                if(c.getPort1() == e.getPort2()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort1()+" of "+c.getName1()+" already in use in "+c);
-                }
-            }else if(c.getName2().equals(e.getName1())){
-                if(c.getPort2() == e.getPort1()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort2()+" of "+c.getName2()+" already in use in "+c);
-                }
-            }else if(c.getName2().equals(e.getName2())){
-                if(c.getPort2() == e.getPort2()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort2()+" of "+c.getName2()+" already in use in "+c);
-                }
+        this.checkPortFree(e, v1, e.getPort1());
+        this.checkPortFree(e, v2, e.getPort2());
+        if(v1 == v2 && e.getPort1() == e.getPort2()){
+            throw new EdgePortException("Trying to add edge "+e+". Both ends use port "+e.getPort1()+" of "+e.getName1());
+        }
+        this.link(v1, e.getPort1(), v2, e.getPort2());
+    }
+
+    /**
+     * Adds an edge between two vertices given by their ids. Same as addEdge with the names of the vertices.
+     * @param v1 the id of the first vertex
+     * @param port1 port used on the first vertex
+     * @param v2 the id of the second vertex
+     * @param port2 port used on the second vertex
+     * @throws EdgePortException if one of the ports of a vertex is already used
+     * @throws VertexNameException if the edge is not allowed between these vertices
+     */
+    public void addEdge(int v1, int port1, int v2, int port2) throws EdgePortException, VertexNameException{
+        if(v1 == v2 || port1 < 0 || port2 < 0 || this.oppositeVertex(v1, port1) != FREE || this.oppositeVertex(v2, port2) != FREE){
+            //Let the checks by name give the error
+            this.addEdge(new Edge(this.nameOf(v1), port1, this.nameOf(v2), port2));
+            return;
+        }
+        this.link(v1, port1, v2, port2);
+    }
+
+    /**
+     * Part of addEdge, throws an exception if the given port of the given vertex is already used by an edge.
+     * @param e the edge we are trying to add
+     * @param v the id of one of the ends of e
+     * @param port the port used by e on this end
+     * @throws EdgePortException if the port is already in use, or is negative
+     */
+    protected void checkPortFree(Edge e, int v, int port) throws EdgePortException{
+        if(port < 0){
+            throw new EdgePortException("Trying to add edge "+e+". Port "+port+" is negative.");
+        }
+        if(this.oppositeVertex(v, port) != FREE){
+            throw new EdgePortException("Trying to add edge "+e+". Port "+port+" of "+this.nameOf(v)+" already in use in "+this.edgeAt(v, port));
+        }
+    }
+
+    /**
+     * Stores a new vertex without any check, with no port in use.
+     * @param name the name of the vertex, not already used
+     * @param state the state of the vertex
+     * @return the id of the vertex
+     */
+    protected int newVertex(String name, int state){
+        int v = this.names.add(name);
+        this.ensureCapacity(v+1);
+        this.states[v] = state;
+        this.degrees[v] = 0;
+        this.ports[v] = NO_PORTS;
+        this.stateIndex.add(v, state);
+        this.touch(v);
+        return v;
+    }
+
+    /**
+     * Makes the vertex arrays large enough for the given number of ids.
+     * @param capacity the number of ids
+     */
+    protected void ensureCapacity(int capacity){
+        if(capacity > this.states.length){
+            int length = Math.max(2*this.states.length, capacity);
+            this.states = Arrays.copyOf(this.states, length);
+            this.degrees = Arrays.copyOf(this.degrees, length);
+            this.ports = Arrays.copyOf(this.ports, length);
+        }
+    }
+
+    /**
+     * Removes a vertex without any check. All its ports must have been unlinked before.
+     * @param v the id of the vertex
+     */
+    protected void deleteVertex(int v){
+        this.stateIndex.remove(v, this.states[v]);
+        this.names.remove(v);
+        this.ports[v] = null;
+        this.touch(v);
+    }
+
+    /**
+     * Changes the state of a vertex.
+     * @param v the id of the vertex
+     * @param state the new state
+     */
+    protected void setState(int v, int state){
+        if(this.states[v] != state){
+            this.stateIndex.remove(v, this.states[v]);
+            this.stateIndex.add(v, state);
+        }
+        this.states[v] = state;
+        this.touch(v);
+    }
+
+    /**
+     * Connects port p of v to port q of u, without any check. Both ports must be free.
+     * @param v the id of the first end
+     * @param p the port of the first end
+     * @param u the id of the second end
+     * @param q the port of the second end
+     */
+    protected void link(int v, int p, int u, int q){
+        this.setPort(v, p, u, q);
+        this.setPort(u, q, v, p);
+        this.edgeCount++;
+    }
+
+    /**
+     * Removes the edge using port p of v, if there is one.
+     * @param v the id of a vertex
+     * @param p a port
+     */
+    protected void unlink(int v, int p){
+        int u = this.oppositeVertex(v, p);
+        if(u < 0){return;}
+        int q = this.ports[v][2*p+1];
+        this.clearPort(v, p);
+        this.clearPort(u, q);
+        this.edgeCount--;
+    }
+
+    /**
+     * Sets one half of an edge or, with SEMI as opposite vertex, a semi edge. The port must be free.
+     * @param v the id of the vertex
+     * @param p the port of the vertex
+     * @param u the opposite vertex
+     * @param q the opposite port
+     */
+    protected void setPort(int v, int p, int u, int q){
+        this.writePort(v, p, u, q);
+        this.touch(v);
+    }
+
+    /**
+     * Same as setPort, without recording the change in the change sets. Used when rewriting in parallel, as several
+     * vertices are written at the same time.
+     * @param v the id of the vertex
+     * @param p the port of the vertex
+     * @param u the opposite vertex
+     * @param q the opposite port
+     */
+    protected void writePort(int v, int p, int u, int q){
+        int[] t = this.ports[v];
+        if(2*p >= t.length){
+            int length = Math.max(2*(p+1), Math.min(2*t.length, 64));
+            int old = t.length;
+            t = Arrays.copyOf(t, length);
+            Arrays.fill(t, old, length, FREE);
+            this.ports[v] = t;
+        }
+        t[2*p] = u;
+        t[2*p+1] = q;
+        this.degrees[v]++;
+    }
+
+    /**
+     * Frees port p of v, which must be in use.
+     * @param v the id of the vertex
+     * @param p the port
+     */
+    protected void clearPort(int v, int p){
+        this.ports[v][2*p] = FREE;
+        this.ports[v][2*p+1] = FREE;
+        this.degrees[v]--;
+        this.touch(v);
+    }
+
+    /**
+     * Records a change of a vertex in all the tracking change sets.
+     * @param v the id of the changed vertex
+     */
+    protected void touch(int v){
+        for(ChangeSet c : this.trackers){
+            c.add(v);
+        }
+    }
+
+    /**
+     * Starts filling a change set with the ids of the vertices changed by every following modification of the graph
+     * (added, removed, new state, or port connected or disconnected).
+     * @param changes the change set
+     */
+    public void track(ChangeSet changes){
+        this.trackers = Arrays.copyOf(this.trackers, this.trackers.length+1);
+        this.trackers[this.trackers.length-1] = changes;
+    }
+
+    /**
+     * Stops filling a change set.
+     * @param changes a change set given to track
+     */
+    public void untrack(ChangeSet changes){
+        int i = Arrays.asList(this.trackers).indexOf(changes);
+        if(i == -1){return;}
+        ChangeSet[] t = new ChangeSet[this.trackers.length-1];
+        System.arraycopy(this.trackers, 0, t, 0, i);
+        System.arraycopy(this.trackers, i+1, t, i, t.length-i);
+        this.trackers = t;
+    }
+
+    /**
+     * Turns on or off the incremental matching. When it is on, apply keeps the matches of the parts of the cycles from
+     * one call to the next, and only searches them again around the vertices changed in between.
+     * It is worth it when the steps only change a small part of the graph.
+     * @param incremental true to turn the incremental matching on, false to turn it off.
+     */
+    public void setIncrementalMatching(boolean incremental){
+        if(incremental && this.matchIndex == null){
+            this.matchIndex = new MatchIndex(this);
+        }else if(!incremental && this.matchIndex != null){
+            this.matchIndex.close();
+            this.matchIndex = null;
+        }
+    }
+
+    /**
+     * Returns a copy of the graph, with the same ids, the same next fresh names, and the same settings of the matching
+     * and of the rewriting. The change sets tracking the graph do not track the copy.
+     * @return the copy
+     */
+    public Graph copy(){
+        Graph g = new Graph();
+        g.freshNumber = this.freshNumber;
+        g.names = new NameTable(this.names);
+        g.states = this.states.clone();
+        g.degrees = this.degrees.clone();
+        g.ports = this.ports.clone();
+        for(int v = 0; v < g.ports.length; v++){
+            if(g.ports[v] != null && g.ports[v].length > 0){g.ports[v] = g.ports[v].clone();}
+        }
+        g.edgeCount = this.edgeCount;
+        g.stateIndex = new StateIndex(this.stateIndex);
+        g.setIncrementalMatching(this.matchIndex != null);
+        g.matchingPool = this.matchingPool;
+        g.rewritingPool = this.rewritingPool;
+        return g;
+    }
+
+    /**
+     * Makes this graph equal to an other one, which only differs from it on the given vertices. The ids, and the next
+     * ids and fresh names given, become the same as in the other graph. Only the given vertices are copied, and
+     * recorded as changed.
+     * @param other a graph
+     * @param changed the ids of the vertices that may differ between the two graphs, in use or not in each of them
+     */
+    public void syncFrom(Graph other, ChangeSet changed){
+        for(int i = 0; i < changed.size(); i++){
+            this.copyVertex(other, changed.get(i));
+        }
+        this.names.copyFreeIds(other.names);
+        this.freshNumber = other.freshNumber;
+        this.edgeCount = other.edgeCount;
+    }
+
+    /**
+     * Gives to a vertex id the name, the state and the port table it has in an other graph, or removes it.
+     * @param other a graph
+     * @param v an id, in use or not in each graph
+     */
+    private void copyVertex(Graph other, int v){
+        String name = other.names.name(v);
+        String old = this.names.name(v);
+        if(old != null){
+            this.stateIndex.remove(v, this.states[v]);
+        }
+        if(name == null ? old != null : !name.equals(old)){
+            this.names.set(v, name);
+        }
+        if(name == null){
+            if(v < this.ports.length){this.ports[v] = null;}
+        }else{
+            this.ensureCapacity(v+1);
+            this.states[v] = other.states[v];
+            this.stateIndex.add(v, this.states[v]);
+            this.degrees[v] = other.degrees[v];
+            int[] t = other.ports[v];
+            if(t.length == 0){
+                this.ports[v] = NO_PORTS;
+            }else if(this.ports[v] != null && this.ports[v].length == t.length){
+                System.arraycopy(t, 0, this.ports[v], 0, t.length);
+            }else{
+                this.ports[v] = t.clone();
             }
         }
-        this.edges.put(e.toString(), e);
+        this.touch(v);
+    }
+
+    /**
+     * Returns a bound on the ids of the vertices: all the ids in use are lower than it.
+     * @return the bound
+     */
+    public int vertexCapacity(){
+        return this.names.capacity();
+    }
+
+    /**
+     * Tests if an id is the id of a vertex of the graph.
+     * @param v an id
+     * @return true if the id is in use
+     */
+    public boolean isVertex(int v){
+        return this.names.name(v) != null;
+    }
+
+    /**
+     * Returns the number of vertices of the graph.
+     * @return the number of vertices
+     */
+    public int vertexCount(){
+        return this.names.size();
+    }
+
+    /**
+     * Returns the number of edges of the graph (semi edges not included).
+     * @return the number of edges
+     */
+    public int edgeCount(){
+        return this.edgeCount;
+    }
+
+    /**
+     * Returns the id of the vertex of given name.
+     * @param name the name of a vertex
+     * @return the id, or -1 if there is no vertex of this name
+     */
+    public int idOf(String name){
+        return this.names.id(name);
+    }
+
+    /**
+     * Returns the id of the vertex whose name is given as a range of characters.
+     * @param chars an array of characters
+     * @param from the index of the first character of the name
+     * @param to the index after the last character of the name
+     * @return the id, or -1 if there is no vertex of this name
+     */
+    public int idOf(char[] chars, int from, int to){
+        return this.names.id(chars, from, to);
+    }
+
+    /**
+     * Returns the name of the vertex of given id.
+     * @param v the id of a vertex
+     * @return the name, or null if the id is not in use
+     */
+    public String nameOf(int v){
+        return this.names.name(v);
+    }
+
+    /**
+     * Returns the state of the vertex of given id.
+     * @param v the id of a vertex
+     * @return the state
+     */
+    public int stateOf(int v){
+        return this.states[v];
+    }
+
+    /**
+     * Returns the number of vertices in a state.
+     * @param state a state
+     * @return the number of vertices in this state
+     */
+    public int stateCount(int state){
+        return this.stateIndex.count(state);
+    }
+
+    /**
+     * Returns the degree (number of ports in use) of the vertex of given id.
+     * @param v the id of a vertex
+     * @return the degree
+     */
+    public int degreeOf(int v){
+        return this.degrees[v];
+    }
+
+    /**
+     * Returns a bound on the ports of a vertex: all the ports in use are lower than it.
+     * @param v the id of a vertex
+     * @return the bound
+     */
+    public int portBound(int v){
+        return this.ports[v].length / 2;
+    }
+
+    /**
+     * Returns the vertex at the opposite end of the edge using port p of v.
+     * @param v the id of a vertex
+     * @param p a port
+     * @return the id of the opposite vertex, FREE if the port is not in use, SEMI if it is used by a semi edge.
+     */
+    public int oppositeVertex(int v, int p){
+        int[] t = this.ports[v];
+        return 2*p < t.length ? t[2*p] : FREE;
+    }
+
+    /**
+     * Returns the port used at the opposite end of the edge using port p of v, which must be an edge.
+     * @param v the id of a vertex
+     * @param p a port
+     * @return the opposite port
+     */
+    public int oppositePort(int v, int p){
+        return this.ports[v][2*p+1];
     }
 
     /**
@@ -111,225 +553,346 @@ public class Graph{
      * @throws IOException in case of I/O accident.
      */
     public void exportAsJSON (String filename) throws IOException{
-        try(BufferedWriter bw = new BufferedWriter(new FileWriter(new File(filename)))){
-            Vertex[] verticesArray = this.vertices.values().toArray(new Vertex[0]);
-            Edge[] halfEdgesArray = this.edges.values().toArray(new Edge[0]);
-            bw.write("{\n\t\"nodes\":[\n");
-            int i = 0;
-            while(i<verticesArray.length-1){
-                bw.write("\t\t"+verticesArray[i].toJSONString()+",\n");
-                i++;
-            }
-            if(i==verticesArray.length-1){
-                bw.write("\t\t"+verticesArray[i].toJSONString()+"\n");
-            }
-            bw.write("\t],\n\n\t\"links\":[\n");
-            i = 0;
-            while(i<halfEdgesArray.length-1){
-                bw.write("\t\t"+halfEdgesArray[i].toJSONString()+",\n");
-                i++;
-            }
-            if(i==halfEdgesArray.length-1){
-                bw.write("\t\t"+halfEdgesArray[i].toJSONString()+"\n");
-            }
-            bw.write("\t]\n}");
-        }catch(IOException e){throw e;}
+        this.exportAsJSON(filename, false);
     }
 
     /**
-     * Returns the degree (number of edges comming out of it) of the vertex of given name in this graph
-     * @param vertexName the name of the vertex
-     * @return the degree of the vertex.
+     * Writes a JSON description, compatible with the visualizer, into the file of given name, optionally gzipped.
+     * To write many graphs, a JSONExporter can be kept and used for each of them.
+     * @param filename the name of the file where to output JSON
+     * @param gzip true to gzip the file
+     * @throws IOException in case of I/O accident.
      */
-    public int degreeOfVertex(String vertexName){
-        int degree = 0;
-        for(Edge e : this.edges.values()){
-            if(e.getName1().equals(vertexName)){degree++;}
-            else if(e.getName2().equals(vertexName)){degree++;}
-        }
-        return degree;
+    public void exportAsJSON(String filename, boolean gzip) throws IOException{
+        new JSONExporter().export(this, filename, gzip);
     }
 
     /**
-     * Part of the TwoVerticesConsistent (TVC) method, tests if the renaming already maps localVertex to otherVertex.
-     * @param localVertex one of the two vertices we are trying to unify, the one in the localGraph
-     * @param otherVertex one of the two vertices we are trying to unify, the one in the other subgraph
-     * @param rename the current renaming we are trying to calculate.
-     * @return true if localVertex and otherVertex are mapped to each other, false otherwise (mapped to something else or not mapped at all)
+     * Checks that the graph can be written as JSON or as a binary snapshot, before it is written.
      */
-    protected boolean TVC_alreadyTested(Vertex localVertex, Vertex otherVertex, Renaming rename){
-        //Test if we already tested this case
-        if(rename.containsAntecedent(localVertex.getName())
-                && rename.containsImage(otherVertex.getName())
-                && rename.get(localVertex.getName()).equals(otherVertex.getName())) {
-            //Case already considered
-            return true;
-        }
-        return false;
+    void checkExport(){
     }
 
     /**
-     * Part of the TwoVerticesConsistent (TVC) method, tests if localVertex and otherVertex are in different states
-     * @param localVertex one of the two vertices we are trying to unify, the one in the localGraph
-     * @param otherVertex one of the two vertices we are trying to unify, the one in the other subgraph
-     * @return true if the states of the two vertices are different, false if they are equal
+     * Writes a binary snapshot of the graph into the file of given name. Unlike the JSON export, the snapshot can be
+     * read back with importBinary.
+     * @param filename the name of the file
+     * @throws IOException in case of I/O accident.
      */
-    protected boolean TVC_differentStates(Vertex localVertex, Vertex otherVertex){
-        //Test if the vertices are in different states
-        if(localVertex.getState() != otherVertex.getState()){
-            return true;
+    public void exportAsBinary(String filename) throws IOException{
+        try(OutputStream out = new FileOutputStream(filename)){
+            this.writeBinary(out);
         }
-        return false;
     }
 
     /**
-     * Part of the TwoVerticesConsistent (TVC) method, tests if localVertex and otherVertex have different degrees in their respective graphs
-     * @param localVertex one of the two vertices we are trying to unify, the one in the localGraph
-     * @param otherVertex one of the two vertices we are trying to unify, the one in the other subgraph
-     * @param other the other subgraph that we are trying to unify this to.
-     * @return true if the two vertices have different degrees, false if they have the same degree
+     * Writes a binary snapshot of the graph into a stream. The ids of the vertices, the ids to reuse and the next fresh
+     * name are kept, so that the graph read back gives the same results as this one. The settings of the matching and
+     * of the rewriting are not kept.
+     * @param out the stream, not closed
+     * @throws IOException in case of I/O accident.
      */
-    protected boolean TVC_differentDegrees(Vertex localVertex, Vertex otherVertex, Subgraph other){
-        //Test if the vertices have different degree
-        if(this.degreeOfVertex(localVertex.getName()) != other.degreeOfVertex(otherVertex.getName())){
-            return true;
+    public void writeBinary(OutputStream out) throws IOException{
+        BinaryOutput bo = new BinaryOutput(out);
+        BinaryGraphFormat.write(this, bo);
+        bo.flush();
+    }
+
+    /**
+     * Reads a graph from a file written by exportAsBinary.
+     * @param filename the name of the file
+     * @return the graph
+     * @throws IOException in case of I/O accident, or if the file is not a binary snapshot.
+     */
+    public static Graph importBinary(String filename) throws IOException{
+        try(InputStream in = new FileInputStream(filename)){
+            return readBinary(in);
         }
-        return false;
     }
 
     /**
-     * Part of the TwoVerticesConsistent (TVC) method, tests if localVertex can not be mapped to otherVertex (the method bind of renaming returns false)
-     * @param localVertex one of the two vertices we are trying to unify, the one in the localGraph
-     * @param otherVertex one of the two vertices we are trying to unify, the one in the other subgraph
-     * @param rename the current renaming we are trying to calculate.
-     * @return true if localVertex can not be mapped to otherVertex; false otherwise.
+     * Reads a graph from a stream, written by writeBinary. The stream may be read after the end of the snapshot.
+     * @param in the stream, not closed
+     * @return the graph
+     * @throws IOException in case of I/O accident, or if the stream does not hold a binary snapshot.
      */
-    protected Boolean TVC_cantBind(Vertex localVertex, Vertex otherVertex, Renaming rename){
-        //Test if we can bind the names of the two vertices
-        return (! rename.bind(localVertex.getName(), otherVertex.getName()));
+    public static Graph readBinary(InputStream in) throws IOException{
+        return BinaryGraphFormat.read(new BinaryInput(in));
     }
 
-    protected boolean TVC_edgesAndRecur(Vertex localVertex, Subgraph other, Renaming rename){
-        //Test localVertex's Edges and recur
-        Boolean ok;
-        for(Edge localEdge : this.edges.values()){
-            SemiEdge closeHalf;//The semi edge wich is the half of localEdge on the localVertex side, if localEdge is linked to localVertex
-            SemiEdge farHalf; // The half on the opposite side of the edge, far from localVertex
-            if(localEdge.getName1().equals(localVertex.getName())) {
-                //localEdge"s end 1 is localVertex
-                closeHalf = new SemiEdge(localEdge.getName1(), localEdge.getPort1());
-                farHalf = new SemiEdge(localEdge.getName2(), localEdge.getPort2());
-            }else if(localEdge.getName2().equals(localVertex.getName())){
-                //localEdge's end 2 is localVertex
-                closeHalf = new SemiEdge(localEdge.getName2(), localEdge.getPort2());
-                farHalf = new SemiEdge(localEdge.getName1(), localEdge.getPort1());
-            }else {
-                //This edge is not linked to localVertex, we don't care
-                closeHalf = null;
-                farHalf = null;
-            }
-            //
-            if(closeHalf != null){
-                if(other.containsSemiEdge(rename.apply(closeHalf))){
-                    //localEdge is matched by a semi edge in other, it's ok !
-                    //nothing to do
-                }else{
-                    Edge otherEdge = other.containsEdgeforSemiEdge(rename.apply(closeHalf));
-                    if(otherEdge == null){
-                        //LocalEdge is unmatched in other
-                        return false;
-                    }else{
-                        if(otherEdge.getName1().equals(rename.apply(closeHalf).getName())){
-                            if(otherEdge.getPort2() != farHalf.getPort()){
-                                //the 'far' port is different !
-                                return false;
-                            }else{
-                                //We now follow this edge and test if the graphs are also consistent by the other end of the edge
-                                ok = twoVerticesConsistent(
-                                        this.vertices.get(farHalf.getName()),
-                                        other.vertices.get(otherEdge.getName2()),
-                                        other,
-                                        rename
-                                );
-                                if(!ok){return false;}
-                            }
-                        }else{
-                            if(otherEdge.getPort1() != farHalf.getPort()){
-                                //the 'far' port is different !
-                                return false;
-                            }else{
-                                //We now follow this edge and test if the graphs are also consistent by the other end of the edge
-                                ok = twoVerticesConsistent(
-                                        this.vertices.get(farHalf.getName()),
-                                        other.vertices.get(otherEdge.getName1()),
-                                        other,
-                                        rename
-                                );
-                                if(!ok){return false;}
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return true;
+    /**
+     * Returns the degree (number of edges comming out of it) of the vertex of given name in this graph
+     * @param vertexName the name of the vertex
+     * @return the degree of the vertex.
+     */
+    public int degreeOfVertex(String vertexName){
+        int v = this.names.id(vertexName);
+        return v == -1 ? 0 : this.degrees[v];
+    }
+
+    /**
+     * Returns the half-edge at the opposite end of the edge using the given port of the given vertex.
+     * @param name the name of the vertex
+     * @param port the port
+     * @return the opposite half-edge, or null if the port is not in use by an edge (or the vertex does not exist).
+     */
+    public SemiEdge oppositeOf(String name, int port){
+        int v = this.names.id(name);
+        if(v == -1 || port < 0){return null;}
+        int u = this.oppositeVertex(v, port);
+        return u < 0 ? null : new SemiEdge(this.nameOf(u), this.oppositePort(v, port));
+    }
+
+    /**
+     * Returns the edge using the given port of the given vertex, oriented from this vertex.
+     * @param name the name of the vertex
+     * @param port the port
+     * @return the edge {name:port, far:farPort}, or null if the port is not in use by an edge.
+     */
+    public Edge edgeAt(String name, int port){
+        SemiEdge far = this.oppositeOf(name, port);
+        return far == null ? null : new Edge(name, port, far.getName(), far.getPort());
+    }
+
+    /**
+     * Same as edgeAt(String, int) with the id of the vertex.
+     * @param v the id of the vertex
+     * @param port the port
+     * @return the edge {name:port, far:farPort}, or null if the port is not in use by an edge.
+     */
+    protected Edge edgeAt(int v, int port){
+        int u = this.oppositeVertex(v, port);
+        return u < 0 ? null : new Edge(this.nameOf(v), port, this.nameOf(u), this.oppositePort(v, port));
     }
 
     /**
      * This method tries to calculate a renaming R such that R(this) is superposable with a subgraph other; starting by two
      * given vertices which are the first 'gluing point' candidate. if they are consistent (they do not disagree on states and connectivity),
-     * we continue recursively by following the edges to an other pair of point we try to glue. We modify the renaming as we test.
+     * we continue by following the edges to an other pair of point we try to glue. We modify the renaming as we test.
      * At the end we return a boolean to say if this was a success or not. if it was not, do not consider the renaming.
-     * @param localVertex a vertex of this we try to match with otherVertex
-     * @param otherVertex a vertex of other we try to match with localVertex
+     * The edges are followed depth first, with an explicit stack instead of recursion, so that the size of the
+     * subgraphs is not limited by the size of the thread stack.
+     * The renaming is given as the inverse binding, from the ids of other to the ids of this, so that testing if a vertex
+     * of this is already glued is a single lookup.
+     * @param localVertex the id of a vertex of this we try to match with otherVertex
+     * @param otherVertex the id of a vertex of other we try to match with localVertex
      * @param other a subgraph
-     * @param rename a renaming that we calculate.
+     * @param binding the inverse of the renaming that we calculate, left partially filled on failure.
      * @return true if this and other are consistent and localVertex and otherVertex coincides; false otherwise.
      */
-    protected boolean twoVerticesConsistent(Vertex localVertex, Vertex otherVertex, Subgraph other, Renaming rename){
+    protected boolean twoVerticesConsistent(int localVertex, int otherVertex, Subgraph other, IntRenaming binding){
         //Test if we already tested this case
-        if(TVC_alreadyTested(localVertex, otherVertex, rename)){return true;}
+        if(binding.get(otherVertex) == localVertex){return true;}
+        if(!this.bindConsistent(localVertex, otherVertex, other, binding)){return false;}
+        //The pairs of glued vertices whose ports are being tested, with the next port to test of each
+        int[] stack = new int[3*8];
+        int top = 0;
+        stack[top++] = localVertex;
+        stack[top++] = otherVertex;
+        stack[top++] = 0;
+        while(top > 0){
+            int local = stack[top-3];
+            int o = stack[top-2];
+            int p = stack[top-1];
+            int[] t = this.ports[local];
+            if(2*p >= t.length){
+                //All the ports of local are tested
+                top -= 3;
+                continue;
+            }
+            stack[top-1] = p+1;
+            int far = t[2*p];
+            if(far == FREE){continue;}
+            int otherFar = other.oppositeVertex(o, p);
+            if(otherFar == FREE){
+                //the port is unmatched in other
+                return false;
+            }
+            if(far == SEMI || otherFar == SEMI){
+                //a semi edge matches anything in use
+                continue;
+            }
+            if(other.oppositePort(o, p) != t[2*p+1]){
+                //the 'far' port is different !
+                return false;
+            }
+            //We now follow this edge and test if the graphs are also consistent by the other end of the edge
+            if(binding.get(otherFar) == far){continue;}
+            if(!this.bindConsistent(far, otherFar, other, binding)){return false;}
+            if(top == stack.length){
+                stack = Arrays.copyOf(stack, 2*stack.length);
+            }
+            stack[top++] = far;
+            stack[top++] = otherFar;
+            stack[top++] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Part of twoVerticesConsistent, glues two vertices if they have the same state and degree and are not glued yet.
+     * @param localVertex the id of a vertex of this
+     * @param otherVertex the id of a vertex of other
+     * @param other a subgraph
+     * @param binding the inverse of the renaming
+     * @return true if the vertices were glued; false otherwise.
+     */
+    private boolean bindConsistent(int localVertex, int otherVertex, Subgraph other, IntRenaming binding){
         //Test if the vertices are in the same state
-        if(TVC_differentStates(localVertex, otherVertex)){return false;}
+        if(this.states[localVertex] != other.states[otherVertex]){return false;}
         //Test if the vertices have the same degree
-        if(TVC_differentDegrees(localVertex, otherVertex, other)){return false;}
-        //Test if we can bind the names of the two vertices
-        if(TVC_cantBind(localVertex, otherVertex, rename)){return false;}
-        //Test localVertex's Edges and recur
-        return TVC_edgesAndRecur(localVertex, other, rename);
+        if(this.degrees[localVertex] != other.degrees[otherVertex]){return false;}
+        //Test if we can bind the two vertices
+        return binding.bind(otherVertex, localVertex);
     }
 
+    /**
+     * Returns an empty match of a pattern, for PatternPlan.match and replace.
+     * @param other the pattern
+     * @return a match with no vertex bound
+     */
+    protected static int[] newBinding(Subgraph other){
+        int[] binding = new int[other.vertexCapacity()];
+        Arrays.fill(binding, UNBOUND);
+        return binding;
+    }
 
     /**
      * Calculates all the renamings such that the given pattern is included (after renaming) in this. As this is a graph,
      * it does not contains any semi-edge, so we can use twoVerticesConsistent to do so. (superposition means inclusion here).
+     * The pattern is compiled for this search only, the plans of the parts of a PCGD are compiled when it is built.
      * @param pattern a subgraph that we are trying to identify inside this
      * @return the list of renamings R such that all R(pattern) are included in this.
      */
     public List<Renaming> findPattern(Subgraph pattern){
         ArrayList<Renaming> finds = new ArrayList<>();
-        Vertex patternFirst = pattern.vertices.values().toArray(new Vertex[0])[0];
-        for(Vertex v : this.vertices.values()){
+        for(int[] match : this.findMatches(new PatternPlan(pattern))){
             Renaming r = new Renaming();
-            if(this.twoVerticesConsistent(v, patternFirst, pattern, r)){
-                finds.add(r.mirror());
+            for(int o = 0; o < match.length; o++){
+                if(match[o] != UNBOUND){r.bind(pattern.nameOf(o), this.nameOf(match[o]));}
+            }
+            finds.add(r);
+        }
+        return finds;
+    }
+
+    /**
+     * Same as findPattern, with the matches given as arrays : match[o] is the id in this of the vertex o of the pattern.
+     * @param plan the compiled pattern that we are trying to identify inside this
+     * @return the list of the matches of the pattern in this.
+     */
+    protected List<int[]> findMatches(PatternPlan plan){
+        //Only the vertices in the state of the anchor can be bound to it, we take the anchor in the rarest state
+        PatternPlan anchored = plan.anchoredFor(this);
+        if(anchored.anchor() == -1){return new ArrayList<>();}
+        int[] candidates = this.stateIndex.sortedMembers(anchored.anchorState());
+        List<int[]> finds;
+        if(this.matchingPool != null && candidates.length > MatchTask.THRESHOLD){
+            finds = this.matchingPool.invoke(new MatchTask(this, anchored, candidates, 0, candidates.length));
+        }else{
+            finds = this.findMatches(anchored, candidates, 0, candidates.length);
+        }
+        //The matches are given in the order of the vertex bound to the first vertex of the pattern, whatever the anchor
+        if(anchored.anchor() != plan.key()){
+            int key = plan.key();
+            finds.sort((m1, m2) -> Integer.compare(m1[key], m2[key]));
+        }
+        return finds;
+    }
+
+    /**
+     * Same as findMatches, only for the matches anchored on a range of candidate vertices. It only reads the graph, so
+     * several ranges can be searched at the same time.
+     * @param plan the compiled pattern that we are trying to identify inside this
+     * @param candidates the ids of the vertices the anchor can be bound to, in increasing order
+     * @param from the index of the first candidate of the range
+     * @param to the end of the range (excluded)
+     * @return the list of the matches of the pattern in this anchored in the range, in the order of their anchors.
+     */
+    protected List<int[]> findMatches(PatternPlan plan, int[] candidates, int from, int to){
+        List<int[]> finds = new ArrayList<>();
+        if(plan.anchor() == -1){return finds;}
+        int[] binding = newBinding(plan.getPattern());
+        for(int i = from; i < to; i++){
+            int v = candidates[i];
+            if(plan.match(this, v, binding)){
+                finds.add(binding);
+                binding = newBinding(plan.getPattern());
+            }else{
+                Arrays.fill(binding, UNBOUND);
             }
-            //
         }
         return finds;
     }
 
+    /**
+     * Sets the pool used to search the matches of the patterns in parallel, each anchor being independent. The matches
+     * found are the same, in the same order, as with a sequential search.
+     * @param pool a fork/join pool, or null to search sequentially
+     */
+    public void setMatchingPool(ForkJoinPool pool){
+        this.matchingPool = pool;
+    }
+
+    /**
+     * Sets the pool used by apply to rewrite in parallel the matches of the parts of a cycle, which are disjoint.
+     * The resulting graph is the same as with a sequential rewriting, but the ids of the vertices may differ.
+     * @param pool a fork/join pool, or null to rewrite sequentially
+     */
+    public void setRewritingPool(ForkJoinPool pool){
+        this.rewritingPool = pool;
+    }
+
+    /**
+     * Returns the id of one of the vertices of the graph.
+     * @return the lowest id in use, -1 if the graph is empty.
+     */
+    protected int firstVertex(){
+        int capacity = this.vertexCapacity();
+        for(int v = 0; v < capacity; v++){
+            if(this.isVertex(v)){return v;}
+        }
+        return -1;
+    }
+
     /**
      * Modifies the graph by applying a given PCGD on it.
      * @param pcgd the dynamic to apply on the graph
      */
     public void apply(PCGD pcgd){
+        this.apply(pcgd, null);
+    }
+
+    /**
+     * Modifies the graph by applying a given PCGD on it, and measures the step.
+     * @param pcgd the dynamic to apply on the graph
+     * @param metrics where to record the measures of the step, or null
+     */
+    public void apply(PCGD pcgd, StepMetrics metrics){
+        this.apply(pcgd, metrics, null, 0);
+    }
+
+    /**
+     * Same as apply(PCGD, StepMetrics), telling a listener when the matches of each cycle are found and when they are
+     * replaced. Used by Simulation, so that there is only one step loop.
+     * @param pcgd the dynamic to apply on the graph
+     * @param metrics where to record the measures of the step, or null
+     * @param listener the listener of the cycles, or null
+     * @param step the index of the step, given to the listener
+     */
+    void apply(PCGD pcgd, StepMetrics metrics, StepListener listener, long step){
         int pcgdSize = pcgd.size();
+        if(metrics != null){metrics.begin(this, pcgd);}
         int k = 0;
         while(k < pcgdSize){
-            this.apply(pcgd.get(k));
+            if(metrics == null && listener == null){
+                this.apply(pcgd.get(k));
+            }else{
+                this.apply(pcgd, k, metrics, listener, step);
+            }
             k++;
         }
+        if(metrics != null){metrics.end(this, pcgd);}
     }
 
     /**
@@ -337,22 +900,78 @@ public class Graph{
      * @param cycle the cyclic permutation to apply
      */
     protected void apply(CyclicPermutation cycle){
+        this.replaceAll(cycle, this.matchAll(cycle));
+    }
+
+    /**
+     * Same as apply on the c-th cycle of a PCGD, recording the matches found and the time spent, and telling a listener.
+     * @param pcgd the PCGD
+     * @param c the index of the cycle to apply
+     * @param metrics where to record the measures, or null
+     * @param listener the listener of the cycles, or null
+     * @param step the index of the step, given to the listener
+     */
+    private void apply(PCGD pcgd, int c, StepMetrics metrics, StepListener listener, long step){
+        CyclicPermutation cycle = pcgd.get(c);
+        long start = System.nanoTime();
+        List<List<int[]>> founds = this.matchAll(cycle);
+        long matched = System.nanoTime();
+        int[] counts = listener != null ? new int[founds.size()] : null;
+        for(int k = 0; k < founds.size(); k++){
+            if(metrics != null){metrics.matched(this, pcgd, c, k, founds.get(k).size());}
+            if(counts != null){counts[k] = founds.get(k).size();}
+        }
+        if(listener != null){listener.afterMatch(step, c, counts);}
+        //The time of the listener is not part of the step
+        long replace = System.nanoTime();
+        this.replaceAll(cycle, founds);
+        if(metrics != null){metrics.addTimes(matched - start, System.nanoTime() - replace);}
+        if(listener != null){listener.afterReplace(step, c);}
+    }
+
+    /**
+     * Finds the matches of all the parts of a cycle, before any of them is replaced.
+     * @param cycle the cyclic permutation
+     * @return the matches of each part
+     */
+    List<List<int[]>> matchAll(CyclicPermutation cycle){
         int cycleSize = cycle.size();
-        //Pre-calculate all matchings
-        List<List<Renaming>> founds = new ArrayList<>();
+        List<List<int[]>> founds = new ArrayList<>();
         int k = 0;
         while(k<cycleSize){
-            founds.add(this.findPattern(cycle.getPattern(k)));
+            founds.add(this.matchIndex != null ? this.matchIndex.matches(cycle, k) : this.findMatches(cycle.getPlan(k)));
             k++;
         }
-        //
+        return founds;
+    }
+
+    /**
+     * Replaces the matches of all the parts of a cycle by the next parts.
+     * @param cycle the cyclic permutation
+     * @param founds the matches of each part
+     */
+    void replaceAll(CyclicPermutation cycle, List<List<int[]>> founds){
+        int cycleSize = cycle.size();
+        int k;
+        if(this.rewritingPool != null){
+            if(this.rewriteBatch == null){
+                this.rewriteBatch = new RewriteBatch(this);
+            }
+            k = 0;
+            while(k<cycleSize){
+                RewritePlan plan = cycle.getRewritePlan(k);
+                for(int[] match : founds.get(k)){
+                    this.rewriteBatch.add(plan, match);
+                }
+                k++;
+            }
+            if(this.rewriteBatch.run(this.rewritingPool)){return;}
+            //The matches overlap, we can only rewrite them one by one
+        }
         k=0;
         while(k<cycleSize){
-            for(Renaming r : founds.get(k)) {
-                this.replace(cycle.getPattern(k), cycle.getPattern((k + 1) % cycleSize), cycle.getAttachment(k), r);
-                /*try{
-                    this.exportAsJSON("visualizer/graphs/graph-1.json");
-                }catch(Exception osef){}*/
+            for(int[] match : founds.get(k)) {
+                this.replace(cycle.getPattern(k), cycle.getPattern((k + 1) % cycleSize), cycle.getAttachment(k), match);
             }
             k++;
         }
@@ -367,81 +986,83 @@ public class Graph{
      * @param r the renaming
      */
     protected void replace(Subgraph pattern, Subgraph image, Map<SemiEdge, SemiEdge> attachment, Renaming r){
-        //Remove vertices
-        for(String v : pattern.vertices.keySet()){
-            this.vertices.remove(r.get(v));
-        }
-        //Remove edges
-        for(Edge e : pattern.edges.values()){
-            Edge rem = this.edges.remove(r.apply(e).toString());
-            if(rem == null){//If we did not removed anything, maybe the edge is reversed in this graph
-                this.edges.remove(r.apply(new Edge(e.getName2(), e.getPort2(), e.getName1(), e.getPort1())).toString());
+        int[] match = newBinding(pattern);
+        for(int o = 0; o < match.length; o++){
+            if(pattern.isVertex(o)){match[o] = this.idOf(r.get(pattern.nameOf(o)));}
+        }
+        this.replace(pattern, image, attachment, match);
+    }
+
+    /**
+     * Same as replace with the renaming given as a match : match[o] is the id in this of the vertex o of the pattern.
+     * @param pattern the pattern we previously searched, and that we will remove from the graph
+     * @param image the image of this pattern, that we will insert into the graph
+     * @param attachment an attachment map to insert the image properly
+     * @param match the match of the pattern
+     */
+    protected void replace(Subgraph pattern, Subgraph image, Map<SemiEdge, SemiEdge> attachment, int[] match){
+        //Remember where the semi edges are plugged before removing anything
+        List<int[]> plugs = new ArrayList<>();//{pattern vertex, port, plugged vertex, plugged port}
+        for(int o = 0; o < match.length; o++){
+            if(!pattern.isVertex(o)){continue;}
+            for(int p = 0; p < pattern.portBound(o); p++){
+                if(pattern.oppositeVertex(o, p) == SEMI && this.oppositeVertex(match[o], p) >= 0){
+                    plugs.add(new int[]{o, p, this.oppositeVertex(match[o], p), this.oppositePort(match[o], p)});
+                }
             }
         }
-        Map<String, String> freshNames = new HashMap<>();
-        //Add new vertices
-        for(Vertex v : image.vertices.values()){
-            Vertex n;
-            try {
-                n = r.apply(v);
-            }catch (RuntimeException exep){
-                //If we caught an exeption, this means that we can't rename v, so it is a new vertex
-                freshNames.put(v.getName(), this.getFreshName());
-                n=new Vertex(freshNames.get(v.getName()), v.getState());
+        //Remove edges, including the ones plugged on semi edges, and vertices which are not in the image
+        for(int o = 0; o < match.length; o++){
+            if(!pattern.isVertex(o)){continue;}
+            int v = match[o];
+            for(int p = 0; p < this.portBound(v); p++){
+                this.unlink(v, p);
             }
-            if(n!=null){this.vertices.put(n.getName(), n);}
-        }
-        //Transform semi edges
-        List<Edge> newEdges = new ArrayList<>();//We can't modify the edges while we iterate on it,
-        List<Edge> toDelete = new ArrayList<>();//so we keep the edges to add or remove for later
-        for(SemiEdge s : pattern.semiEdges.values()){
-            SemiEdge rS = r.apply(s);//Renamed S
-            SemiEdge alphaRS;
-            try {
-                alphaRS = r.apply(attachment.get(s));//Attachment alpha image of rS
-            }catch(RuntimeException exep){
-                //If We can't rename, then its a new vertex.
-                alphaRS = new SemiEdge(freshNames.get(attachment.get(s).getName()), s.getPort());
+            if(image.idOf(pattern.nameOf(o)) == -1){
+                this.deleteVertex(v);
             }
-            for(Edge e : this.edges.values()){
-                Edge newEdge = null;
-                if(e.getName1().equals(rS.getName()) && e.getPort1() == rS.getPort()){
-                    newEdge = new Edge(alphaRS.getName(), alphaRS.getPort(), e.getName2(), e.getPort2());
-                }else if(e.getName2().equals(rS.getName()) && e.getPort2() == rS.getPort()){
-                    newEdge = new Edge(e.getName1(), e.getPort1(), alphaRS.getName(), alphaRS.getPort());
-                }
-                if(newEdge != null) {
-                    toDelete.add(e);
-                    newEdges.add(newEdge);
-                    break;//Each edge can be matched only once, so no need to continue to iterate
-                }
+        }
+        //Add new vertices, the ones of the pattern are kept with the state of the image
+        int[] imageMatch = newBinding(image);
+        for(int i = 0; i < imageMatch.length; i++){
+            if(!image.isVertex(i)){continue;}
+            int o = pattern.idOf(image.nameOf(i));
+            if(o != -1){
+                imageMatch[i] = match[o];
+                this.setState(match[o], image.states[i]);
+            }else{
+                //The pattern does not know this vertex, so it is a new vertex
+                imageMatch[i] = this.newVertex(this.getFreshName(), image.states[i]);
             }
         }
         //Add new Edges
-        for(Edge e : image.edges.values()){
-            Edge n;
-            try{
-                n = r.apply(e);
-            }catch(RuntimeException exep){
-                String name1 = r.get(e.getName1());
-                String name2 = r.get(e.getName2());
-                if(name1 == null){
-                    //R does not know e.name1, so its a new vertex.
-                    name1 = freshNames.get(e.getName1());
+        for(int i = 0; i < imageMatch.length; i++){
+            if(!image.isVertex(i)){continue;}
+            for(int p = 0; p < image.portBound(i); p++){
+                int j = image.oppositeVertex(i, p);
+                int q = j >= 0 ? image.oppositePort(i, p) : FREE;
+                if(j > i || (j == i && q > p)){
+                    this.link(imageMatch[i], p, imageMatch[j], q);
                 }
-                if(name2 == null){
-                    //R does not know e.name2, so its a new vertex.
-                    name2 = freshNames.get(e.getName2());
-                }
-                n = new Edge(name1, e.getPort1(), name2, e.getPort2());
             }
-            this.edges.put(n.toString(),n);
-        }
-        for(Edge e : toDelete){
-            this.edges.remove(e.toString());
         }
-        for(Edge e : newEdges){
-            this.edges.put(e.toString(), e);
+        //Plug the semi edges of the image where the semi edges of the pattern were plugged
+        for(int[] plug : plugs){
+            SemiEdge alpha = attachment.get(new SemiEdge(pattern.nameOf(plug[0]), plug[1]));
+            int v = imageMatch[image.idOf(alpha.getName())];
+            int u = plug[2];
+            int q = plug[3];
+            for(int[] other : plugs){
+                if(match[other[0]] == u && other[1] == q){
+                    //Two semi edges of the pattern were plugged together, we plug their images together
+                    SemiEdge otherAlpha = attachment.get(new SemiEdge(pattern.nameOf(other[0]), other[1]));
+                    u = imageMatch[image.idOf(otherAlpha.getName())];
+                    q = otherAlpha.getPort();
+                }
+            }
+            if(this.oppositeVertex(v, alpha.getPort()) == FREE){
+                this.link(v, alpha.getPort(), u, q);
+            }
         }
     }
 
@@ -452,7 +1073,7 @@ public class Graph{
      */
     protected String getFreshName(){
         this.freshNumber++;
-        return this.FRESH_PREFIX+freshNumber;
+        return FRESH_PREFIX+this.freshNumber;
     }
-    
+
 }
@@ -0,0 +1,219 @@
+package pcgd.graphs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only view of the graph of one step of a StepEngine. The graph does not change while the snapshot is held : the
+ * engine never writes a buffer that a reader holds. A snapshot is held from StepEngine.acquire to release, and must
+ * not be used after it is released.
+ */
+public class GraphSnapshot {
+
+    //Number of readers holding the snapshot; -1 while the engine writes the buffer
+    private static final int WRITING = -1;
+
+    private final Graph graph;
+    private final AtomicInteger readers;
+    private volatile long step;
+    private volatile StepMetrics metrics;
+
+    /**
+     * Creates the view of a buffer of an engine, as being written.
+     * @param graph the buffer
+     */
+    GraphSnapshot(Graph graph){
+        this.graph = graph;
+        this.readers = new AtomicInteger(WRITING);
+        this.step = -1;
+        this.metrics = null;
+    }
+
+    /**
+     * Returns the buffer viewed.
+     * @return the graph
+     */
+    Graph graph(){
+        return this.graph;
+    }
+
+    /**
+     * Publishes the buffer once written, and lets the readers hold it.
+     * @param step the index of the step of the graph
+     * @param metrics the metrics of the step, or null
+     */
+    void publish(long step, StepMetrics metrics){
+        this.step = step;
+        this.metrics = metrics;
+        this.readers.set(0);
+    }
+
+    /**
+     * Takes the buffer back to write it, if no reader holds it.
+     * @return true if the buffer can be written.
+     */
+    boolean reclaim(){
+        return this.readers.compareAndSet(0, WRITING);
+    }
+
+    /**
+     * Holds the snapshot, unless the engine writes its buffer.
+     * @return true if the snapshot is held.
+     */
+    boolean tryHold(){
+        while(true){
+            int n = this.readers.get();
+            if(n == WRITING){return false;}
+            if(this.readers.compareAndSet(n, n+1)){return true;}
+        }
+    }
+
+    /**
+     * Releases the snapshot. The engine may write its buffer again once no reader holds it.
+     */
+    public void release(){
+        this.readers.decrementAndGet();
+    }
+
+    /**
+     * Returns the index of the step of the graph.
+     * @return the index of the step, 0 for the initial graph
+     */
+    public long getStep(){
+        return this.step;
+    }
+
+    /**
+     * Returns the metrics of the step of the graph, if it was measured.
+     * @return the metrics, or null
+     */
+    public StepMetrics getMetrics(){
+        return this.metrics;
+    }
+
+    /**
+     * Returns a bound on the ids of the vertices: all the ids in use are lower than it.
+     * @return the bound
+     */
+    public int vertexCapacity(){
+        return this.graph.vertexCapacity();
+    }
+
+    /**
+     * Tells if an id is the id of a vertex.
+     * @param v an id
+     * @return true if v is in use
+     */
+    public boolean isVertex(int v){
+        return this.graph.isVertex(v);
+    }
+
+    /**
+     * Returns the number of vertices.
+     * @return the number of vertices
+     */
+    public int vertexCount(){
+        return this.graph.vertexCount();
+    }
+
+    /**
+     * Returns the number of edges.
+     * @return the number of edges
+     */
+    public int edgeCount(){
+        return this.graph.edgeCount();
+    }
+
+    /**
+     * Returns the id of a vertex.
+     * @param name the name of the vertex
+     * @return the id, -1 if there is no such vertex
+     */
+    public int idOf(String name){
+        return this.graph.idOf(name);
+    }
+
+    /**
+     * Returns the name of a vertex.
+     * @param v the id of the vertex
+     * @return the name, null if the id is not in use
+     */
+    public String nameOf(int v){
+        return this.graph.nameOf(v);
+    }
+
+    /**
+     * Returns the state of a vertex.
+     * @param v the id of the vertex
+     * @return the state
+     */
+    public int stateOf(int v){
+        return this.graph.stateOf(v);
+    }
+
+    /**
+     * Returns the number of ports in use of a vertex.
+     * @param v the id of the vertex
+     * @return the degree
+     */
+    public int degreeOf(int v){
+        return this.graph.degreeOf(v);
+    }
+
+    /**
+     * Returns a bound on the ports in use of a vertex.
+     * @param v the id of the vertex
+     * @return the bound
+     */
+    public int portBound(int v){
+        return this.graph.portBound(v);
+    }
+
+    /**
+     * Returns the vertex plugged on a port.
+     * @param v the id of a vertex
+     * @param p a port
+     * @return the id of the opposite vertex, FREE if the port is not in use
+     */
+    public int oppositeVertex(int v, int p){
+        return this.graph.oppositeVertex(v, p);
+    }
+
+    /**
+     * Returns the port plugged on a port.
+     * @param v the id of a vertex
+     * @param p a port in use
+     * @return the opposite port
+     */
+    public int oppositePort(int v, int p){
+        return this.graph.oppositePort(v, p);
+    }
+
+    /**
+     * Writes the graph in a file in the JSON format.
+     * @param filename the name of the file
+     * @throws IOException if the file can not be written
+     */
+    public void exportAsJSON(String filename) throws IOException{
+        this.graph.exportAsJSON(filename);
+    }
+
+    /**
+     * Writes the graph in a file as the JSON of the visualizer, optionally gzipped.
+     * @param filename the name of the file
+     * @param gzip true to gzip the file
+     * @throws IOException if the file can not be written
+     */
+    public void exportAsJSON(String filename, boolean gzip) throws IOException{
+        this.graph.exportAsJSON(filename, gzip);
+    }
+
+    /**
+     * Writes the graph in a file as a binary snapshot.
+     * @param filename the name of the file
+     * @throws IOException if the file can not be written
+     */
+    public void exportAsBinary(String filename) throws IOException{
+        this.graph.exportAsBinary(filename);
+    }
+}
@@ -0,0 +1,362 @@
+package pcgd.graphs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes graphs in the JSON format of the visualizer (a list of nodes and a list of links), optionally gzipped. The text
+ * is written byte by byte into a buffer, written to the file through a FileChannel each time it is full : no string is
+ * made for the vertices and edges. The buffer is kept from one export to the next, so an exporter writing many graphs
+ * allocates almost nothing; it must only be used by one thread at a time.
+ */
+public class JSONExporter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] BEGIN = ascii("{\n\t\"nodes\":[\n");
+    private static final byte[] FIRST = ascii("\t\t");
+    private static final byte[] NEXT = ascii(",\n\t\t");
+    private static final byte[] NO_NODES = ascii("\t],\n\n\t\"links\":[\n");
+    private static final byte[] NODES_END = ascii("\n\t],\n\n\t\"links\":[\n");
+    private static final byte[] NO_LINKS = ascii("\t]\n}");
+    private static final byte[] LINKS_END = ascii("\n\t]\n}");
+    private static final byte[] NAME = ascii("{ \"name\":\"");
+    private static final byte[] STATE = ascii("\",\"state\":");
+    private static final byte[] SOURCE = ascii("{\"source\":\"");
+    private static final byte[] TARGET = ascii("\",\"target\":\"");
+    private static final byte[] PORT_IN = ascii("\",\"portIn\":");
+    private static final byte[] PORT_OUT = ascii(",\"portOut\":");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    //The bytes are put directly in the array of the buffer, up to position
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private int position;
+    private final byte[] digits;
+    //Where the buffer is written during an export : the gzip stream if any, else the channel
+    private FileChannel channel;
+    private OutputStream gzip;
+    //During an export given node by node : whether the links were started, and whether nothing was written in the list
+    private boolean links;
+    private boolean first;
+
+    /**
+     * Creates an exporter and its buffer.
+     */
+    public JSONExporter(){
+        this.bytes = new byte[BUFFER_SIZE];
+        this.buffer = ByteBuffer.wrap(this.bytes);
+        this.position = 0;
+        this.digits = new byte[11];
+        this.channel = null;
+        this.gzip = null;
+    }
+
+    /**
+     * Writes a graph into a file.
+     * @param g the graph
+     * @param filename the name of the file
+     * @throws IOException in case of I/O accident.
+     */
+    public void export(Graph g, String filename) throws IOException{
+        this.export(g, filename, false);
+    }
+
+    /**
+     * Writes a graph into a file, optionally gzipped.
+     * @param g the graph
+     * @param filename the name of the file
+     * @param gzip true to gzip the file
+     * @throws IOException in case of I/O accident.
+     * @throws RuntimeException if the graph is a subgraph containing semi edges.
+     */
+    public void export(Graph g, String filename, boolean gzip) throws IOException{
+        g.checkExport();
+        try(FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            this.channel = ch;
+            this.gzip = gzip ? new GZIPOutputStream(Channels.newOutputStream(ch), BUFFER_SIZE) : null;
+            this.position = 0;
+            this.write(g);
+            this.flush();
+            if(this.gzip != null){
+                this.gzip.close();
+            }
+        }finally{
+            this.channel = null;
+            this.gzip = null;
+        }
+    }
+
+    /**
+     * Writes the graph of a snapshot into a file, optionally gzipped.
+     * @param s a snapshot, held by the caller
+     * @param filename the name of the file
+     * @param gzip true to gzip the file
+     * @throws IOException in case of I/O accident.
+     */
+    public void export(GraphSnapshot s, String filename, boolean gzip) throws IOException{
+        this.export(s.graph(), filename, gzip);
+    }
+
+    /**
+     * Starts writing a graph given node by node, into a file, optionally gzipped : all the nodes are given by node, then
+     * all the links by link, and the file is finished by end. Used when the graph is not held by one Graph, as with the
+     * shards of a sharded graph.
+     * @param filename the name of the file
+     * @param gzip true to gzip the file
+     * @throws IOException in case of I/O accident.
+     */
+    public void begin(String filename, boolean gzip) throws IOException{
+        FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.channel = ch;
+        try{
+            this.gzip = gzip ? new GZIPOutputStream(Channels.newOutputStream(ch), BUFFER_SIZE) : null;
+            this.position = 0;
+            this.links = false;
+            this.first = true;
+            this.put(BEGIN);
+        }catch(IOException e){
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a node, after begin and before the first link.
+     * @param name the name of the vertex
+     * @param state the state of the vertex
+     * @throws IOException in case of I/O accident.
+     */
+    public void node(String name, int state) throws IOException{
+        if(this.links){
+            throw new IllegalStateException("Node "+name+" given after the links.");
+        }
+        this.put(this.first ? FIRST : NEXT);
+        this.put(NAME);
+        this.putName(name);
+        this.put(STATE);
+        this.putInt(state);
+        this.putByte('}');
+        this.first = false;
+    }
+
+    /**
+     * Writes a link, after all the nodes. Each edge must be given once.
+     * @param source the name of the first end
+     * @param portIn the port of the first end
+     * @param target the name of the second end
+     * @param portOut the port of the second end
+     * @throws IOException in case of I/O accident.
+     */
+    public void link(String source, int portIn, String target, int portOut) throws IOException{
+        this.startLinks();
+        this.put(this.first ? FIRST : NEXT);
+        this.put(SOURCE);
+        this.putName(source);
+        this.put(TARGET);
+        this.putName(target);
+        this.put(PORT_IN);
+        this.putInt(portIn);
+        this.put(PORT_OUT);
+        this.putInt(portOut);
+        this.putByte('}');
+        this.first = false;
+    }
+
+    /**
+     * Finishes the file started by begin, and closes it.
+     * @throws IOException in case of I/O accident.
+     */
+    public void end() throws IOException{
+        try{
+            this.startLinks();
+            this.put(this.first ? NO_LINKS : LINKS_END);
+            this.flush();
+            if(this.gzip != null){
+                this.gzip.close();
+            }
+        }finally{
+            this.close();
+        }
+    }
+
+    /**
+     * Closes the file started by begin, without finishing it. Does nothing if there is no such file, as after end.
+     */
+    public void close(){
+        try{
+            if(this.channel != null){
+                this.channel.close();
+            }
+        }catch(IOException e){
+            //The file is left as it is
+        }finally{
+            this.channel = null;
+            this.gzip = null;
+        }
+    }
+
+    private void startLinks() throws IOException{
+        if(!this.links){
+            this.put(this.first ? NO_NODES : NODES_END);
+            this.links = true;
+            this.first = true;
+        }
+    }
+
+    /**
+     * Writes the JSON text of a graph into the buffer, flushing it when full.
+     * @param g the graph
+     * @throws IOException in case of I/O accident.
+     */
+    private void write(Graph g) throws IOException{
+        int capacity = g.vertexCapacity();
+        this.put(BEGIN);
+        boolean first = true;
+        for(int v = 0; v < capacity; v++){
+            if(!g.isVertex(v)){continue;}
+            this.put(first ? FIRST : NEXT);
+            this.put(NAME);
+            this.putName(g.nameOf(v));
+            this.put(STATE);
+            this.putInt(g.states[v]);
+            this.putByte('}');
+            first = false;
+        }
+        this.put(first ? NO_NODES : NODES_END);
+        first = true;
+        for(int v = 0; v < capacity; v++){
+            if(!g.isVertex(v)){continue;}
+            int[] t = g.ports[v];
+            for(int p = 0; 2*p < t.length; p++){
+                int u = t[2*p];
+                int q = t[2*p+1];
+                if(u > v || (u == v && q > p)){//Each edge is written once, from its lowest end
+                    this.put(first ? FIRST : NEXT);
+                    this.put(SOURCE);
+                    this.putName(g.nameOf(v));
+                    this.put(TARGET);
+                    this.putName(g.nameOf(u));
+                    this.put(PORT_IN);
+                    this.putInt(p);
+                    this.put(PORT_OUT);
+                    this.putInt(q);
+                    this.putByte('}');
+                    first = false;
+                }
+            }
+        }
+        this.put(first ? NO_LINKS : LINKS_END);
+    }
+
+    private void put(byte[] b) throws IOException{
+        if(BUFFER_SIZE - this.position < b.length){this.flush();}
+        System.arraycopy(b, 0, this.bytes, this.position, b.length);
+        this.position += b.length;
+    }
+
+    private void putByte(char c) throws IOException{
+        if(this.position == BUFFER_SIZE){this.flush();}
+        this.bytes[this.position++] = (byte) c;
+    }
+
+    /**
+     * Writes an int in decimal.
+     * @param value the int
+     * @throws IOException in case of I/O accident.
+     */
+    private void putInt(int value) throws IOException{
+        if(BUFFER_SIZE - this.position < this.digits.length){this.flush();}
+        if(value < 0){
+            this.bytes[this.position++] = '-';
+        }
+        //The digits are made from the negative value, which also holds Integer.MIN_VALUE
+        int n = value < 0 ? value : -value;
+        int i = this.digits.length;
+        do{
+            this.digits[--i] = (byte) ('0' - n % 10);
+            n /= 10;
+        }while(n != 0);
+        System.arraycopy(this.digits, i, this.bytes, this.position, this.digits.length - i);
+        this.position += this.digits.length - i;
+    }
+
+    /**
+     * Writes a name as a JSON string, without the quotes, in UTF-8. The quotes, the backslashes and the control
+     * characters are escaped.
+     * @param name the name
+     * @throws IOException in case of I/O accident.
+     */
+    private void putName(String name) throws IOException{
+        int length = name.length();
+        byte[] b = this.bytes;
+        for(int i = 0; i < length; i++){
+            //6 bytes are enough for any character
+            if(BUFFER_SIZE - this.position < 6){this.flush();}
+            int k = this.position;
+            char c = name.charAt(i);
+            if(c < 0x80){
+                if(c == '"' || c == '\\'){
+                    b[k++] = '\\';
+                    b[k++] = (byte) c;
+                }else if(c < 0x20){
+                    b[k++] = '\\';
+                    b[k++] = 'u';
+                    b[k++] = '0';
+                    b[k++] = '0';
+                    b[k++] = HEX[c >> 4];
+                    b[k++] = HEX[c & 0xF];
+                }else{
+                    b[k++] = (byte) c;
+                }
+            }else if(c < 0x800){
+                b[k++] = (byte) (0xC0 | (c >> 6));
+                b[k++] = (byte) (0x80 | (c & 0x3F));
+            }else if(Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(name.charAt(i+1))){
+                int cp = Character.toCodePoint(c, name.charAt(++i));
+                b[k++] = (byte) (0xF0 | (cp >> 18));
+                b[k++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                b[k++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                b[k++] = (byte) (0x80 | (cp & 0x3F));
+            }else if(Character.isSurrogate(c)){
+                //Lone surrogate, replaced as the encoder of the strings does
+                b[k++] = '?';
+            }else{
+                b[k++] = (byte) (0xE0 | (c >> 12));
+                b[k++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[k++] = (byte) (0x80 | (c & 0x3F));
+            }
+            this.position = k;
+        }
+    }
+
+    /**
+     * Writes the content of the buffer into the file, and empties it.
+     * @throws IOException in case of I/O accident.
+     */
+    private void flush() throws IOException{
+        if(this.gzip != null){
+            this.gzip.write(this.bytes, 0, this.position);
+        }else{
+            this.buffer.clear();
+            this.buffer.limit(this.position);
+            while(this.buffer.hasRemaining()){
+                this.channel.write(this.buffer);
+            }
+        }
+        this.position = 0;
+    }
+
+    private static byte[] ascii(String s){
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
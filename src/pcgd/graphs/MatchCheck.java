@@ -0,0 +1,67 @@
+package pcgd.graphs;
+
+import pcgd.dynamics.CyclicPermutation;
+import pcgd.dynamics.PCGD;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the incremental matching follows findMatches : the graph of a file is run with the incremental matching,
+ * and before each cycle is applied, the matches kept by the index must be the matches found from scratch, in the same
+ * order.
+ */
+public class MatchCheck {
+
+    public static void main(String[] args) throws IOException, ParseException{
+        if(args.length != 3){
+            System.out.println("3 Arguments Expected :\n" +
+                    " - name of the file containing the input graph,\n" +
+                    " - name of the file containing the PCGD description,\n" +
+                    " - number of steps to run.");
+            return;
+        }
+        Graph g = Parser.parseGraph(args[0]);
+        PCGD p = Parser.parsePCGD(args[1]);
+        int steps = Integer.parseInt(args[2]);
+        g.setIncrementalMatching(true);
+        int failed = -1;
+        String where = "";
+        long total = 0;
+        for(int i = 1; i <= steps && failed == -1; i++){
+            for(int c = 0; c < p.size() && failed == -1; c++){
+                CyclicPermutation cycle = p.get(c);
+                List<List<int[]>> founds = g.matchAll(cycle);
+                for(int k = 0; k < cycle.size() && failed == -1; k++){
+                    List<int[]> expected = g.findMatches(cycle.getPlan(k));
+                    total += expected.size();
+                    if(!same(founds.get(k), expected)){
+                        failed = i;
+                        where = ", cycle "+c+", part "+k+" : "+founds.get(k).size()+" matches instead of "+expected.size();
+                    }
+                }
+                g.replaceAll(cycle, founds);
+            }
+        }
+        System.out.println(args[0]+" : "+(failed == -1 ? "same matches, "+total+" in "+steps+" steps" :
+                "different matches at step "+failed+where));
+        if(failed != -1){System.exit(1);}
+    }
+
+    /**
+     * Tests if two lists of matches are the same, in the same order.
+     * @param found the matches of the index
+     * @param expected the matches found from scratch
+     * @return true if the lists are equal
+     */
+    private static boolean same(List<int[]> found, List<int[]> expected){
+        if(found.size() != expected.size()){return false;}
+        for(int i = 0; i < found.size(); i++){
+            if(!Arrays.equals(found.get(i), expected.get(i))){return false;}
+        }
+        return true;
+    }
+}
@@ -0,0 +1,222 @@
+package pcgd.graphs;
+
+import pcgd.dynamics.CyclicPermutation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the matches of the parts of cyclic permutations in a graph up to date between the steps of a simulation.
+ * The first time the matches of a cycle are asked, they are computed from scratch. Then the index tracks the vertices
+ * changed in the graph, and only tests again the anchors that are within the radius of the pattern from a changed vertex:
+ * a match appears or disappears only if it contains a changed vertex, and all the vertices of a match are at a distance
+ * of at most the radius of the pattern from its anchor.
+ * The anchor of a part is taken in the rarest state when its matches are first computed, and then kept.
+ */
+public class MatchIndex {
+
+    private final Graph graph;
+    private final ChangeSet changes;
+    private final Map<CyclicPermutation, Part[]> cycles;
+    private final List<Part> parts;
+    private int maxRadius;
+    //BFS buffers, indexed by vertex id
+    private int[] distance;
+    private int[] visited;
+    private int epoch;
+    private int[] queue;
+
+    /**
+     * The live matches of one pattern, by anchor in the graph, and sorted by the vertex bound to the first vertex of the
+     * pattern.
+     */
+    private static class Part {
+        final PatternPlan plan;
+        final int anchor;
+        final int key;
+        final int radius;
+        final Map<Integer, int[]> byAnchor;
+        final TreeMap<Integer, int[]> matches;
+        //Number of anchors on which a match was attempted, since the part was added
+        long tried;
+        //The binding of the next attempt, reused until a match is found
+        int[] binding;
+
+        Part(PatternPlan plan){
+            this.plan = plan;
+            this.anchor = plan.anchor();
+            this.key = plan.key();
+            this.radius = plan.radius();
+            this.byAnchor = new HashMap<>();
+            this.matches = new TreeMap<>();
+            this.tried = 0;
+            this.binding = Graph.newBinding(plan.getPattern());
+        }
+
+        void put(int[] match){
+            this.byAnchor.put(match[this.anchor], match);
+            this.matches.put(match[this.key], match);
+        }
+
+        void remove(int v){
+            int[] match = this.byAnchor.remove(v);
+            //The key vertex may already hold a newer match, found on another anchor
+            if(match != null){this.matches.remove(match[this.key], match);}
+        }
+    }
+
+    /**
+     * Creates an index of the matches in a graph and starts tracking its changes.
+     * @param graph the graph
+     */
+    public MatchIndex(Graph graph){
+        this.graph = graph;
+        this.changes = new ChangeSet();
+        this.cycles = new IdentityHashMap<>();
+        this.parts = new ArrayList<>();
+        this.maxRadius = 0;
+        this.distance = new int[0];
+        this.visited = new int[0];
+        this.epoch = 0;
+        this.queue = new int[0];
+        graph.track(this.changes);
+    }
+
+    /**
+     * Stops tracking the changes of the graph. The index must not be used anymore.
+     */
+    public void close(){
+        this.graph.untrack(this.changes);
+    }
+
+    /**
+     * Returns the current matches of the k-th part of a cycle, in the order of their anchors. Equivalent to
+     * graph.findMatches(cycle.getPlan(k)).
+     * @param cycle a cyclic permutation
+     * @param k the index of a part of the cycle
+     * @return the list of the matches, match[o] being the id in the graph of the vertex o of the pattern.
+     */
+    public List<int[]> matches(CyclicPermutation cycle, int k){
+        this.update();
+        Part[] cycleParts = this.cycles.get(cycle);
+        if(cycleParts == null){
+            cycleParts = new Part[cycle.size()];
+            for(int i = 0; i < cycleParts.length; i++){
+                cycleParts[i] = new Part(cycle.getPlan(i).anchoredFor(this.graph));
+                this.scan(cycleParts[i]);
+                this.parts.add(cycleParts[i]);
+                this.maxRadius = Math.max(this.maxRadius, cycleParts[i].radius);
+            }
+            this.cycles.put(cycle, cycleParts);
+        }
+        return new ArrayList<>(cycleParts[k].matches.values());
+    }
+
+    /**
+     * Returns the number of anchors on which the matching of the k-th part of a cycle was attempted, since the matches
+     * of the cycle were first asked.
+     * @param cycle a cyclic permutation
+     * @param k the index of a part of the cycle
+     * @return the number of anchors tried, 0 if the matches of the cycle were never asked
+     */
+    public long anchorsTried(CyclicPermutation cycle, int k){
+        Part[] cycleParts = this.cycles.get(cycle);
+        return cycleParts == null ? 0 : cycleParts[k].tried;
+    }
+
+    /**
+     * Finds all the matches of a part from scratch.
+     * @param part the part
+     */
+    private void scan(Part part){
+        if(part.anchor != -1){
+            part.tried += this.graph.stateCount(part.plan.anchorState());
+        }
+        for(int[] match : this.graph.findMatches(part.plan)){
+            part.put(match);
+        }
+    }
+
+    /**
+     * Tests if there is a match of a part anchored on a vertex, and records it.
+     * @param part the part
+     * @param v the id of a vertex, in use or not
+     */
+    private void test(Part part, int v){
+        if(!this.graph.isVertex(v)){return;}
+        part.tried++;
+        if(part.plan.match(this.graph, v, part.binding)){
+            part.put(part.binding);
+            part.binding = Graph.newBinding(part.plan.getPattern());
+        }else{
+            Arrays.fill(part.binding, Graph.UNBOUND);
+        }
+    }
+
+    /**
+     * Updates the matches of all the parts around the vertices changed since the last update.
+     */
+    private void update(){
+        if(this.changes.size() == 0){return;}
+        int n = this.ball();
+        for(Part part : this.parts){
+            if(part.anchor == -1){continue;}
+            //All the old matches around the changes are removed before any new one is recorded, as a new match may
+            //have the same key vertex as an old match on an anchor tested later
+            for(int i = 0; i < n; i++){
+                int v = this.queue[i];
+                if(this.distance[v] <= part.radius){part.remove(v);}
+            }
+            for(int i = 0; i < n; i++){
+                int v = this.queue[i];
+                if(this.distance[v] <= part.radius){this.test(part, v);}
+            }
+        }
+        this.changes.clear();
+    }
+
+    /**
+     * Puts in the queue all the vertices at distance at most maxRadius of the changed vertices (removed ones included),
+     * with their distance.
+     * @return the number of vertices in the queue
+     */
+    private int ball(){
+        int capacity = this.graph.vertexCapacity();
+        for(int i = 0; i < this.changes.size(); i++){
+            capacity = Math.max(capacity, this.changes.get(i)+1);
+        }
+        if(this.visited.length < capacity){
+            this.visited = Arrays.copyOf(this.visited, capacity);
+            this.distance = Arrays.copyOf(this.distance, capacity);
+            this.queue = Arrays.copyOf(this.queue, capacity);
+        }
+        this.epoch++;
+        int n = 0;
+        for(int i = 0; i < this.changes.size(); i++){
+            int v = this.changes.get(i);
+            if(this.visited[v] != this.epoch){
+                this.visited[v] = this.epoch;
+                this.distance[v] = 0;
+                this.queue[n++] = v;
+            }
+        }
+        for(int head = 0; head < n; head++){
+            int v = this.queue[head];
+            if(this.distance[v] == this.maxRadius || !this.graph.isVertex(v)){continue;}
+            for(int p = 0; p < this.graph.portBound(v); p++){
+                int u = this.graph.oppositeVertex(v, p);
+                if(u >= 0 && this.visited[u] != this.epoch){
+                    this.visited[u] = this.epoch;
+                    this.distance[u] = this.distance[v]+1;
+                    this.queue[n++] = u;
+                }
+            }
+        }
+        return n;
+    }
+}
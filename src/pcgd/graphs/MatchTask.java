@@ -0,0 +1,53 @@
+package pcgd.graphs;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Searches the matches of a pattern anchored on a range of candidate vertices of a graph, splitting the range in two halves
+ * that are searched in parallel while it is larger than a threshold. The matches are returned in the order of their
+ * anchors, as by a sequential search. The graph must not be modified while the task runs.
+ */
+@SuppressWarnings("serial")
+class MatchTask extends RecursiveTask<List<int[]>> {
+
+    /**
+     * The number of anchors under which a range is searched sequentially.
+     */
+    static final int THRESHOLD = 2048;
+
+    private final Graph graph;
+    private final PatternPlan plan;
+    private final int[] candidates;
+    private final int from;
+    private final int to;
+
+    /**
+     * Creates a task searching the matches anchored on the candidates of index in [from, to[.
+     * @param graph the graph where we search
+     * @param plan the compiled pattern we search
+     * @param candidates the ids of the vertices the anchor can be bound to, in increasing order
+     * @param from the index of the first candidate of the range
+     * @param to the end of the range (excluded)
+     */
+    MatchTask(Graph graph, PatternPlan plan, int[] candidates, int from, int to){
+        this.graph = graph;
+        this.plan = plan;
+        this.candidates = candidates;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected List<int[]> compute(){
+        if(to - from <= THRESHOLD){
+            return graph.findMatches(plan, candidates, from, to);
+        }
+        int middle = (from + to) >>> 1;
+        MatchTask right = new MatchTask(graph, plan, candidates, middle, to);
+        right.fork();
+        List<int[]> finds = new MatchTask(graph, plan, candidates, from, middle).compute();
+        finds.addAll(right.join());
+        return finds;
+    }
+}
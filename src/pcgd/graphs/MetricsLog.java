@@ -0,0 +1,59 @@
+package pcgd.graphs;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes the metrics of each step into a file, as one JSON object per line (see StepMetrics.toJSONString). Each line is
+ * flushed once written, so that the file can be read while the simulation runs.
+ * It follows the steps as a StepListener, after the listener measuring the export if any. A failed write does not stop
+ * the simulation : the log stops writing, and close gives the error back.
+ */
+public class MetricsLog implements StepListener, Closeable {
+
+    private final BufferedWriter out;
+    private IOException failure;
+
+    /**
+     * Opens the file of the metrics.
+     * @param filename the name of the file
+     * @param append true to write after the lines already in the file, as when a simulation is resumed
+     * @throws IOException in case of I/O accident.
+     */
+    public MetricsLog(String filename, boolean append) throws IOException{
+        this.out = new BufferedWriter(new FileWriter(filename, append));
+        this.failure = null;
+    }
+
+    /**
+     * Writes the line of a step, if the step is measured.
+     * @param step the index of the step
+     * @param graph the graph of the step, not used
+     * @param metrics the metrics of the step, or null
+     */
+    @Override
+    public synchronized void afterStep(long step, Graph graph, StepMetrics metrics){
+        if(metrics == null || this.failure != null){return;}
+        try{
+            this.out.write(metrics.toJSONString());
+            this.out.newLine();
+            this.out.flush();
+        }catch(IOException e){
+            this.failure = e;
+        }
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException in case of I/O accident, on this call or on the write of a step.
+     */
+    @Override
+    public synchronized void close() throws IOException{
+        this.out.close();
+        if(this.failure != null){
+            throw this.failure;
+        }
+    }
+}
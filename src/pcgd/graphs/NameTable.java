@@ -0,0 +1,280 @@
+package pcgd.graphs;
+
+import java.util.Arrays;
+
+/**
+ * Interns the vertex names of a graph into dense int ids, and gives back the name of an id.
+ * Ids of removed names are reused by the next added names, so that the ids stay dense.
+ * The lookup is an open addressing hash table of ids (linear probing), no object is allocated per name.
+ */
+public class NameTable {
+
+    private static final int EMPTY = -1;
+
+    private String[] names;
+    private int[] slots;
+    private int mask;
+    private int capacity;
+    private int size;
+    private int[] freeIds;
+    private int freeCount;
+
+    /**
+     * Creates an empty name table.
+     */
+    public NameTable(){
+        this.names = new String[16];
+        this.slots = new int[32];
+        Arrays.fill(this.slots, EMPTY);
+        this.mask = this.slots.length - 1;
+        this.capacity = 0;
+        this.size = 0;
+        this.freeIds = new int[16];
+        this.freeCount = 0;
+    }
+
+    /**
+     * Creates a copy of a name table, with the same ids.
+     * @param other the table to copy
+     */
+    public NameTable(NameTable other){
+        this.names = other.names.clone();
+        this.slots = other.slots.clone();
+        this.mask = other.mask;
+        this.capacity = other.capacity;
+        this.size = other.size;
+        this.freeIds = other.freeIds.clone();
+        this.freeCount = other.freeCount;
+    }
+
+    /**
+     * Returns the id of a name.
+     * @param name a name
+     * @return the id of the name, -1 if the name is not in the table.
+     */
+    public int id(String name){
+        for(int i = spread(name.hashCode()) & mask; ; i = (i+1) & mask){
+            int id = slots[i];
+            if(id == EMPTY){return -1;}
+            if(names[id].equals(name)){return id;}
+        }
+    }
+
+    /**
+     * Returns the id of a name given as a range of characters, without making a string of it.
+     * @param chars an array of characters
+     * @param from the index of the first character of the name
+     * @param to the index after the last character of the name
+     * @return the id of the name, -1 if the name is not in the table.
+     */
+    public int id(char[] chars, int from, int to){
+        //Same hash as String.hashCode
+        int h = 0;
+        for(int k = from; k < to; k++){
+            h = 31*h + chars[k];
+        }
+        for(int i = spread(h) & mask; ; i = (i+1) & mask){
+            int id = slots[i];
+            if(id == EMPTY){return -1;}
+            if(equals(names[id], chars, from, to)){return id;}
+        }
+    }
+
+    private static boolean equals(String name, char[] chars, int from, int to){
+        if(name.length() != to-from){return false;}
+        for(int k = from; k < to; k++){
+            if(name.charAt(k-from) != chars[k]){return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Returns the name of an id.
+     * @param id an id
+     * @return the name, or null if the id is not in use.
+     */
+    public String name(int id){
+        return id >= 0 && id < capacity ? names[id] : null;
+    }
+
+    /**
+     * Adds a name to the table. The name must not be in the table already.
+     * @param name the new name
+     * @return the id given to the name
+     */
+    public int add(String name){
+        int id;
+        if(freeCount > 0){
+            id = freeIds[--freeCount];
+        }else{
+            id = capacity++;
+            if(id == names.length){
+                names = Arrays.copyOf(names, 2*names.length);
+            }
+        }
+        names[id] = name;
+        size++;
+        if(2*size > slots.length){
+            rehash(2*slots.length);
+        }else{
+            insert(id);
+        }
+        return id;
+    }
+
+    /**
+     * Removes the name of the given id from the table, the id will be reused.
+     * @param id an id in use
+     */
+    public void remove(int id){
+        unslot(id);
+        names[id] = null;
+        size--;
+        if(freeCount == freeIds.length){
+            freeIds = Arrays.copyOf(freeIds, 2*freeIds.length);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Sets the name of an id, or removes it if the name is null, without changing the ids that will be reused.
+     * Used with copyFreeIds to make this table equal to an other one.
+     * The name may still be given to an other id, as when a name moves from an id to an other, until that id is set or
+     * removed in turn; lookups of the name then give either id.
+     * @param id an id
+     * @param name the new name of the id; or null
+     * @return false if the name is given to an other id too, true otherwise
+     */
+    public boolean set(int id, String name){
+        if(id < capacity && names[id] != null){
+            unslot(id);
+            names[id] = null;
+            size--;
+        }
+        if(name == null){return true;}
+        //The probe for a free slot passes every slot where the name could already be, they are checked on the way
+        boolean unique = true;
+        int i = spread(name.hashCode()) & mask;
+        while(slots[i] != EMPTY){
+            if(unique && names[slots[i]].equals(name)){unique = false;}
+            i = (i+1) & mask;
+        }
+        if(id >= names.length){
+            names = Arrays.copyOf(names, Math.max(2*names.length, id+1));
+        }
+        capacity = Math.max(capacity, id+1);
+        names[id] = name;
+        size++;
+        if(2*size > slots.length){
+            rehash(2*slots.length);
+        }else{
+            slots[i] = id;
+        }
+        return unique;
+    }
+
+    /**
+     * Gives to this table the same bound on ids and the same ids to reuse as an other one.
+     * @param other a name table
+     */
+    public void copyFreeIds(NameTable other){
+        if(other.capacity > names.length){
+            names = Arrays.copyOf(names, other.capacity);
+        }
+        capacity = other.capacity;
+        freeIds = Arrays.copyOf(other.freeIds, other.freeIds.length);
+        freeCount = other.freeCount;
+    }
+
+    /**
+     * Returns the ids that will be reused, the next one given being the last of the array.
+     * @return a copy of the ids to reuse
+     */
+    public int[] freeIds(){
+        return Arrays.copyOf(freeIds, freeCount);
+    }
+
+    /**
+     * Gives to this table a bound on ids and the ids to reuse, as returned by capacity and freeIds. Used with set to
+     * rebuild a table with the same ids.
+     * @param capacity the bound on the ids
+     * @param ids the ids to reuse, the next one given being the last of the array
+     */
+    public void setFreeIds(int capacity, int[] ids){
+        if(capacity > names.length){
+            names = Arrays.copyOf(names, capacity);
+        }
+        this.capacity = capacity;
+        freeIds = Arrays.copyOf(ids, Math.max(16, ids.length));
+        freeCount = ids.length;
+    }
+
+    /**
+     * Returns the number of names in the table.
+     * @return the number of names in the table
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Returns a bound on the ids : all ids in use are lower than it.
+     * @return the number of ids that have been given, including the free ones.
+     */
+    public int capacity(){
+        return capacity;
+    }
+
+    /**
+     * Removes an id from the hash table. Moves back the following entries of the cluster that would not be found anymore.
+     * @param id an id in use
+     */
+    private void unslot(int id){
+        int i = spread(names[id].hashCode()) & mask;
+        while(slots[i] != id){
+            i = (i+1) & mask;
+        }
+        int j = i;
+        while(true){
+            j = (j+1) & mask;
+            if(slots[j] == EMPTY){break;}
+            int k = spread(names[slots[j]].hashCode()) & mask;
+            if((j > i && (k <= i || k > j)) || (j < i && k <= i && k > j)){
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = EMPTY;
+    }
+
+    private void insert(int id){
+        int i = spread(names[id].hashCode()) & mask;
+        while(slots[i] != EMPTY){
+            i = (i+1) & mask;
+        }
+        slots[i] = id;
+    }
+
+    private void rehash(int length){
+        slots = new int[length];
+        Arrays.fill(slots, EMPTY);
+        mask = length - 1;
+        for(int id = 0; id < capacity; id++){
+            if(names[id] != null){insert(id);}
+        }
+    }
+
+    /**
+     * Mixes all the bits of a hash code into the low bits used by the table. The names of a graph are often alike
+     * (v1, v2, ..., c1_a, c2_a, ...) and their hash codes only differ by a few bits, which would make long clusters.
+     * @param h a hash code
+     * @return the mixed hash code
+     */
+    private static int spread(int h){
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,248 @@
+package pcgd.graphs;
+
+import java.util.Arrays;
+
+/**
+ * A pattern compiled once into a plan to match it in a graph, from an anchor. The vertices of the pattern are bound in
+ * the order of a breadth first traversal from the anchor : each vertex is reached from an already bound vertex through
+ * a fixed port, then its state and degree are compared to the expected ones, and its ports leading to vertices bound
+ * before it are checked. Matching runs without recursion and without allocation.
+ * A match of the plan is the same as a match of twoVerticesConsistent on the anchor.
+ * The plan of a part also holds one plan for each state of its vertices, anchored on the vertex of greatest degree in
+ * this state, so that the anchor can be taken in the state the rarest in the graph.
+ */
+public class PatternPlan {
+
+    private final Subgraph pattern;
+    /**
+     * The first vertex of the pattern. Whatever the anchor, a match is identified by the vertex bound to it.
+     */
+    private final int key;
+    /**
+     * The plans of the same pattern anchored on other vertices, this one included.
+     */
+    private PatternPlan[] alternatives;
+    /**
+     * The greatest distance from the anchor to a vertex of the pattern.
+     */
+    private final int radius;
+    /**
+     * The ids in the pattern of the vertices in the order they are bound. order[0] is the anchor.
+     */
+    private final int[] order;
+    /**
+     * For each vertex but the anchor, the index in order of the vertex it is reached from, the port of this vertex, and
+     * the port of the vertex reached.
+     */
+    private final int[] parent;
+    private final int[] parentPort;
+    private final int[] port;
+    /**
+     * The expected state and degree of each vertex.
+     */
+    private final int[] states;
+    private final int[] degrees;
+    /**
+     * The checks made once a vertex is bound, as {port, index in order of the opposite vertex, opposite port} triples,
+     * the opposite vertex being -1 for a semi edge (the port must only be in use). The checks of the vertex order[k] are
+     * from checkStart[k] to checkStart[k+1].
+     */
+    private final int[] checks;
+    private final int[] checkStart;
+
+    /**
+     * Compiles a pattern, anchored on its first vertex, and the plans anchored on the vertices of greatest degree in each
+     * state. The anchors are only taken among the vertices connected to the first one.
+     * @param pattern the pattern
+     */
+    public PatternPlan(Subgraph pattern){
+        this(pattern, pattern.firstVertex());
+        int n = this.order.length;
+        PatternPlan[] alternatives = new PatternPlan[n];
+        int a = 0;
+        for(int k = 0; k < n; k++){
+            //Best vertex of the state of order[k], if this state is new
+            int best = -1;
+            boolean seen = false;
+            for(int j = 0; j < n; j++){
+                if(this.states[j] != this.states[k]){continue;}
+                if(j < k){
+                    seen = true;
+                    break;
+                }
+                if(best == -1 || this.degrees[j] > this.degrees[best] || (this.degrees[j] == this.degrees[best] && this.order[j] < this.order[best])){
+                    best = j;
+                }
+            }
+            if(seen){continue;}
+            alternatives[a++] = best == 0 ? this : new PatternPlan(pattern, this.order[best]);
+        }
+        this.alternatives = Arrays.copyOf(alternatives, a);
+    }
+
+    /**
+     * Compiles a pattern anchored on one of its vertices.
+     * @param pattern the pattern
+     * @param anchor the id of the anchor, -1 if the pattern is empty
+     */
+    private PatternPlan(Subgraph pattern, int anchor){
+        this.pattern = pattern;
+        this.key = pattern.firstVertex();
+        this.alternatives = new PatternPlan[]{this};
+        int capacity = pattern.vertexCapacity();
+        int[] index = new int[capacity];
+        Arrays.fill(index, -1);
+        int[] order = new int[capacity];
+        int[] depth = new int[capacity];
+        this.parent = new int[capacity];
+        this.parentPort = new int[capacity];
+        this.port = new int[capacity];
+        int n = 0;
+        int radius = 0;
+        if(anchor != -1){
+            index[anchor] = n;
+            order[n++] = anchor;
+        }
+        for(int k = 0; k < n; k++){
+            int o = order[k];
+            radius = Math.max(radius, depth[k]);
+            for(int p = 0; p < pattern.portBound(o); p++){
+                int u = pattern.oppositeVertex(o, p);
+                if(u >= 0 && index[u] == -1){
+                    index[u] = n;
+                    order[n] = u;
+                    depth[n] = depth[k]+1;
+                    this.parent[n] = k;
+                    this.parentPort[n] = p;
+                    this.port[n] = pattern.oppositePort(o, p);
+                    n++;
+                }
+            }
+        }
+        this.radius = radius;
+        this.order = Arrays.copyOf(order, n);
+        this.states = new int[n];
+        this.degrees = new int[n];
+        this.checkStart = new int[n+1];
+        int[] checks = new int[0];
+        int c = 0;
+        for(int k = 0; k < n; k++){
+            int o = this.order[k];
+            this.states[k] = pattern.stateOf(o);
+            this.degrees[k] = pattern.degreeOf(o);
+            this.checkStart[k] = c;
+            for(int p = 0; p < pattern.portBound(o); p++){
+                int u = pattern.oppositeVertex(o, p);
+                if(u == Graph.FREE){continue;}
+                int j = u == Graph.SEMI ? -1 : index[u];
+                int q = u == Graph.SEMI ? Graph.FREE : pattern.oppositePort(o, p);
+                //The edges to vertices bound later are checked from their side, the edge reaching the vertex is checked
+                //when binding it
+                if(j > k || (k > 0 && j == this.parent[k] && p == this.port[k])){continue;}
+                if(c == checks.length){
+                    checks = Arrays.copyOf(checks, checks.length+24);
+                }
+                checks[c++] = p;
+                checks[c++] = j;
+                checks[c++] = q;
+            }
+        }
+        this.checkStart[n] = c;
+        this.checks = Arrays.copyOf(checks, c);
+    }
+
+    /**
+     * Returns the pattern.
+     * @return the pattern
+     */
+    public Subgraph getPattern(){
+        return this.pattern;
+    }
+
+    /**
+     * Returns the id in the pattern of the anchor.
+     * @return the id of the anchor, -1 if the pattern is empty
+     */
+    public int anchor(){
+        return this.order.length > 0 ? this.order[0] : -1;
+    }
+
+    /**
+     * Returns the id in the pattern of the first vertex : the matches are sorted by the vertex bound to it.
+     * @return the id of the first vertex, -1 if the pattern is empty
+     */
+    public int key(){
+        return this.key;
+    }
+
+    /**
+     * Returns the state of the anchor.
+     * @return the state of the anchor
+     */
+    public int anchorState(){
+        return this.states[0];
+    }
+
+    /**
+     * Returns the plan of the pattern anchored on the vertex of the state with the fewest vertices in a graph.
+     * @param g a graph
+     * @return the plan, this one if the pattern is empty
+     */
+    public PatternPlan anchoredFor(Graph g){
+        PatternPlan best = this;
+        int count = -1;
+        for(PatternPlan plan : this.alternatives){
+            int c = g.stateCount(plan.anchorState());
+            if(count == -1 || c < count){
+                best = plan;
+                count = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the greatest distance from the anchor to a vertex of the pattern : all the vertices of a match are at most
+     * at this distance of the vertex the anchor is bound to.
+     * @return the radius
+     */
+    public int radius(){
+        return this.radius;
+    }
+
+    /**
+     * Tests if the pattern matches a graph with its anchor on a vertex.
+     * @param g the graph, without semi edges
+     * @param v the id of a vertex of the graph
+     * @param binding an array of the size of the pattern, filled with UNBOUND. On success, binding[o] is the vertex of
+     *                the graph the vertex o of the pattern is bound to. On failure, it has to be filled with UNBOUND again.
+     * @return true if there is a match.
+     */
+    boolean match(Graph g, int v, int[] binding){
+        int n = this.order.length;
+        for(int k = 0; k < n; k++){
+            int h;
+            if(k == 0){
+                h = v;
+            }else{
+                int[] t = g.ports[binding[this.order[this.parent[k]]]];
+                int pp = 2*this.parentPort[k];
+                if(pp >= t.length || t[pp] < 0 || t[pp+1] != this.port[k]){return false;}
+                h = t[pp];
+            }
+            if(g.states[h] != this.states[k] || g.degrees[h] != this.degrees[k]){return false;}
+            for(int j = 0; j < k; j++){
+                if(binding[this.order[j]] == h){return false;}
+            }
+            binding[this.order[k]] = h;
+            int[] t = g.ports[h];
+            for(int c = this.checkStart[k]; c < this.checkStart[k+1]; c += 3){
+                int p = 2*this.checks[c];
+                if(p >= t.length || t[p] == Graph.FREE){return false;}
+                int j = this.checks[c+1];
+                if(j != -1 && (t[p] != binding[this.order[j]] || t[p+1] != this.checks[c+2])){return false;}
+            }
+        }
+        return true;
+    }
+}
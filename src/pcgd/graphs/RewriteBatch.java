@@ -0,0 +1,254 @@
+package pcgd.graphs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies the replacements of many disjoint matches at once, in parallel. This is the case of the matches of the parts of
+ * a cycle, as the parts of a cyclic permutation can not overlap non-trivially.
+ * The batch runs in three phases :
+ *  - sequentially, each match claims its vertices, reads where its semi edges are plugged, and gets ids and fresh names
+ *    for its new vertices, in the order of the matches. No name is ever given twice and the fresh names are the same as
+ *    with a sequential replacement.
+ *  - in parallel, each match rewrites the port tables of its vertices. An edge plugged on a semi edge of an other match is
+ *    plugged to the image of this semi edge, and each side of it is written by its own match. An edge plugged on a vertex
+ *    outside of all the matches is written by the match, no other match uses the same port of this vertex.
+ *  - sequentially, the kept vertices take their new states, the removed vertices give back their names, and the changes
+ *    are reported to the graph.
+ */
+class RewriteBatch {
+
+    /**
+     * The number of matches under which a range of matches is rewritten sequentially.
+     */
+    static final int THRESHOLD = 64;
+
+    private final Graph graph;
+    private final List<RewritePlan> plans;
+    private final List<int[]> matches;
+    //For each match, the ids in the graph of the vertices of the image, and where its semi edges are plugged
+    private int[][] imageIds;
+    private int[][] plugs;
+    //For each vertex id of the graph claimed by a match, the index of the match and the id of the vertex in the pattern
+    private int[] owner;
+    private int[] ownerVertex;
+
+    /**
+     * Creates an empty batch of replacements on a graph. The batch can be used again once it has been run.
+     * @param graph the graph
+     */
+    RewriteBatch(Graph graph){
+        this.graph = graph;
+        this.plans = new ArrayList<>();
+        this.matches = new ArrayList<>();
+        this.owner = new int[0];
+        this.ownerVertex = new int[0];
+    }
+
+    /**
+     * Adds a replacement to the batch.
+     * @param plan the replacement
+     * @param match the match of the pattern of the replacement, match[o] being the id in the graph of the vertex o of
+     *              the pattern
+     */
+    void add(RewritePlan plan, int[] match){
+        this.plans.add(plan);
+        this.matches.add(match);
+    }
+
+    /**
+     * Applies all the replacements of the batch.
+     * @param pool the pool where the matches are rewritten in parallel
+     * @return true if the replacements were applied; false if nothing was done, because two matches overlap.
+     */
+    boolean run(ForkJoinPool pool){
+        int n = this.matches.size();
+        try{
+            if(!this.claim()){return false;}
+            this.imageIds = new int[n][];
+            this.plugs = new int[n][];
+            for(int m = 0; m < n; m++){
+                this.prepare(m);
+            }
+            pool.invoke(new RewriteTask(0, n));
+            for(int m = 0; m < n; m++){
+                this.finish(m);
+            }
+            return true;
+        }finally{
+            this.clear();
+        }
+    }
+
+    /**
+     * First phase, claims the vertices of all the matches.
+     * @return false if a vertex is in two matches.
+     */
+    private boolean claim(){
+        int capacity = this.graph.vertexCapacity();
+        if(this.owner.length < capacity){
+            int old = this.owner.length;
+            this.owner = Arrays.copyOf(this.owner, capacity);
+            this.ownerVertex = Arrays.copyOf(this.ownerVertex, capacity);
+            Arrays.fill(this.owner, old, capacity, -1);
+        }
+        for(int m = 0; m < this.matches.size(); m++){
+            int[] match = this.matches.get(m);
+            for(int o : this.plans.get(m).patternVertices){
+                if(this.owner[match[o]] != -1){return false;}
+                this.owner[match[o]] = m;
+                this.ownerVertex[match[o]] = o;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the claimed vertices and empties the batch.
+     */
+    private void clear(){
+        for(int m = 0; m < this.matches.size(); m++){
+            int[] match = this.matches.get(m);
+            for(int o : this.plans.get(m).patternVertices){
+                if(this.owner[match[o]] == m){this.owner[match[o]] = -1;}
+            }
+        }
+        this.plans.clear();
+        this.matches.clear();
+        this.imageIds = null;
+        this.plugs = null;
+    }
+
+    /**
+     * First phase, reads where the semi edges of a match are plugged and creates its new vertices.
+     * @param m the index of the match
+     */
+    private void prepare(int m){
+        RewritePlan plan = this.plans.get(m);
+        int[] match = this.matches.get(m);
+        int[] plug = new int[plan.semiEdges.length/2];
+        for(int s = 0; s < plan.semiEdges.length; s += 4){
+            int h = match[plan.semiEdges[s]];
+            int p = plan.semiEdges[s+1];
+            plug[s/2] = this.graph.oppositeVertex(h, p);
+            plug[s/2+1] = plug[s/2] >= 0 ? this.graph.oppositePort(h, p) : Graph.FREE;
+        }
+        this.plugs[m] = plug;
+        int[] ids = new int[plan.image.vertexCapacity()];
+        for(int i : plan.imageVertices){
+            int o = plan.kept[i];
+            ids[i] = o != -1 ? match[o] : this.graph.newVertex(this.graph.getFreshName(), plan.image.states[i]);
+        }
+        this.imageIds[m] = ids;
+    }
+
+    /**
+     * Second phase, rewrites the port tables of the vertices of a match. Only writes the vertices of the match, and the
+     * ports plugged on its semi edges of the vertices outside of all the matches.
+     * @param m the index of the match
+     */
+    private void rewrite(int m){
+        RewritePlan plan = this.plans.get(m);
+        int[] match = this.matches.get(m);
+        int[] ids = this.imageIds[m];
+        int[] plug = this.plugs[m];
+        Graph g = this.graph;
+        //Empty the kept vertices
+        for(int i : plan.imageVertices){
+            int o = plan.kept[i];
+            if(o != -1){
+                Arrays.fill(g.ports[ids[i]], Graph.FREE);
+                g.degrees[ids[i]] = 0;
+            }
+        }
+        //Add the edges of the image
+        int[] e = plan.edges;
+        for(int k = 0; k < e.length; k += 4){
+            g.writePort(ids[e[k]], e[k+1], ids[e[k+2]], e[k+3]);
+            g.writePort(ids[e[k+2]], e[k+3], ids[e[k]], e[k+1]);
+        }
+        //Plug the images of the semi edges
+        int[] s = plan.semiEdges;
+        for(int k = 0; k < s.length; k += 4){
+            int x = plug[k/2];
+            int q = plug[k/2+1];
+            if(x < 0){continue;}
+            int v = ids[s[k+2]];
+            int ap = s[k+3];
+            int m2 = this.owner[x];
+            if(m2 != -1){
+                //Plugged on a semi edge of a match (maybe this one), we plug to its image
+                RewritePlan plan2 = this.plans.get(m2);
+                int k2 = plan2.semiEdgeIndex(this.ownerVertex[x], q);
+                g.writePort(v, ap, this.imageIds[m2][plan2.semiEdges[k2+2]], plan2.semiEdges[k2+3]);
+            }else{
+                g.writePort(v, ap, x, q);
+                g.ports[x][2*q] = v;
+                g.ports[x][2*q+1] = ap;
+            }
+        }
+        //Empty the removed vertices
+        for(int o : plan.patternVertices){
+            if(plan.removed[o]){
+                g.ports[match[o]] = null;
+            }
+        }
+    }
+
+    /**
+     * Third phase, sets the states of the kept vertices of a match, removes its removed vertices and reports its changes
+     * to the graph.
+     * @param m the index of the match
+     */
+    private void finish(int m){
+        RewritePlan plan = this.plans.get(m);
+        int[] match = this.matches.get(m);
+        for(int o : plan.patternVertices){
+            if(plan.removed[o]){
+                this.graph.deleteVertex(match[o]);
+            }
+            this.graph.touch(match[o]);
+        }
+        for(int i : plan.imageVertices){
+            if(plan.kept[i] != -1){
+                this.graph.setState(this.imageIds[m][i], plan.image.states[i]);
+            }
+            this.graph.touch(this.imageIds[m][i]);
+        }
+        int[] plug = this.plugs[m];
+        for(int k = 0; k < plug.length; k += 2){
+            if(plug[k] >= 0){this.graph.touch(plug[k]);}
+        }
+        this.graph.edgeCount += plan.edgeDelta;
+    }
+
+    /**
+     * Rewrites a range of matches, splitting it in two halves rewritten in parallel while it is larger than a threshold.
+     */
+    @SuppressWarnings("serial")
+    private class RewriteTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+
+        RewriteTask(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from <= THRESHOLD){
+                for(int m = from; m < to; m++){
+                    rewrite(m);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RewriteTask(from, middle), new RewriteTask(middle, to));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package pcgd.graphs;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The replacement of a pattern by its image, with an attachment map, translated once into the ids of the pattern and of
+ * the image, so that it can be applied to many matches without looking up names.
+ */
+public class RewritePlan {
+
+    final Subgraph pattern;
+    final Subgraph image;
+    /**
+     * The ids of the vertices of the pattern.
+     */
+    final int[] patternVertices;
+    /**
+     * For each vertex of the pattern, true if it is not in the image and must be removed.
+     */
+    final boolean[] removed;
+    /**
+     * The ids of the vertices of the image.
+     */
+    final int[] imageVertices;
+    /**
+     * For each vertex id of the image, the id of the vertex of the pattern of the same name; -1 for a new vertex.
+     */
+    final int[] kept;
+    /**
+     * The number of new vertices of the image.
+     */
+    final int freshCount;
+    /**
+     * The edges of the image, each once, as {vertex, port, vertex, port} quadruples of ids of the image.
+     */
+    final int[] edges;
+    /**
+     * The semi edges of the pattern and their images by the attachment map, as {pattern vertex, port, image vertex, port}
+     * quadruples.
+     */
+    final int[] semiEdges;
+    /**
+     * The difference between the number of edges of the image and of the pattern.
+     */
+    final int edgeDelta;
+
+    /**
+     * Translates a replacement.
+     * @param pattern the pattern to remove
+     * @param image the image inserted in place of the pattern
+     * @param attachment the attachment map from the semi edges of the pattern to the semi edges of the image
+     */
+    public RewritePlan(Subgraph pattern, Subgraph image, Map<SemiEdge, SemiEdge> attachment){
+        this.pattern = pattern;
+        this.image = image;
+        int n = 0;
+        this.patternVertices = new int[pattern.vertexCount()];
+        this.removed = new boolean[pattern.vertexCapacity()];
+        int[] semiEdges = new int[0];
+        int s = 0;
+        for(int o = 0; o < pattern.vertexCapacity(); o++){
+            if(!pattern.isVertex(o)){continue;}
+            this.patternVertices[n++] = o;
+            this.removed[o] = image.idOf(pattern.nameOf(o)) == -1;
+            for(int p = 0; p < pattern.portBound(o); p++){
+                if(pattern.oppositeVertex(o, p) != Graph.SEMI){continue;}
+                SemiEdge alpha = attachment.get(new SemiEdge(pattern.nameOf(o), p));
+                if(4*s == semiEdges.length){
+                    semiEdges = Arrays.copyOf(semiEdges, 4*s+16);
+                }
+                semiEdges[4*s] = o;
+                semiEdges[4*s+1] = p;
+                semiEdges[4*s+2] = image.idOf(alpha.getName());
+                semiEdges[4*s+3] = alpha.getPort();
+                s++;
+            }
+        }
+        this.semiEdges = Arrays.copyOf(semiEdges, 4*s);
+        //
+        n = 0;
+        int fresh = 0;
+        this.imageVertices = new int[image.vertexCount()];
+        this.kept = new int[image.vertexCapacity()];
+        int[] edges = new int[4*image.edgeCount()];
+        int e = 0;
+        for(int i = 0; i < image.vertexCapacity(); i++){
+            if(!image.isVertex(i)){continue;}
+            this.imageVertices[n++] = i;
+            this.kept[i] = pattern.idOf(image.nameOf(i));
+            if(this.kept[i] == -1){fresh++;}
+            for(int p = 0; p < image.portBound(i); p++){
+                int j = image.oppositeVertex(i, p);
+                int q = j >= 0 ? image.oppositePort(i, p) : Graph.FREE;
+                if(j > i || (j == i && q > p)){
+                    edges[e++] = i;
+                    edges[e++] = p;
+                    edges[e++] = j;
+                    edges[e++] = q;
+                }
+            }
+        }
+        this.freshCount = fresh;
+        this.edges = edges;
+        this.edgeDelta = image.edgeCount() - pattern.edgeCount();
+    }
+
+    /**
+     * Returns the index of a semi edge of the pattern in semiEdges.
+     * @param o the id of a vertex of the pattern
+     * @param p a port
+     * @return the index of the quadruple of the semi edge (o, p), -1 if there is no such semi edge
+     */
+    int semiEdgeIndex(int o, int p){
+        for(int s = 0; s < semiEdges.length; s += 4){
+            if(semiEdges[s] == o && semiEdges[s+1] == p){return s;}
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,286 @@
+package pcgd.graphs;
+
+import pcgd.dynamics.PCGD;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the steps of a PCGD on a graph, and tells the StepListeners what happens during each step. Exporting the steps,
+ * measuring them, checking invariants or deciding when to stop are done by listeners, so that a run only pays for the
+ * ones it uses : without listeners, a step is just Graph.apply.
+ * The simulation works on the graph given, which it modifies. A listener may stop it, the step being computed is
+ * finished first.
+ */
+public class Simulation {
+
+    private final Graph graph;
+    private final PCGD pcgd;
+    private final List<StepListener> listeners;
+    private final List<AsyncListener> asyncListeners;
+    private boolean measured;
+    private volatile boolean stopped;
+    private long step;
+    private final StepListener cycles;
+
+    /**
+     * Creates a simulation of a PCGD from a graph, at step 0.
+     * @param graph the graph, modified by the steps
+     * @param pcgd the dynamics
+     */
+    public Simulation(Graph graph, PCGD pcgd){
+        this(graph, pcgd, 0);
+    }
+
+    /**
+     * Creates a simulation of a PCGD from the graph of a given step, to resume a run.
+     * @param graph the graph, modified by the steps
+     * @param pcgd the dynamics
+     * @param firstStep the index of the step of the graph, 0 or more
+     */
+    public Simulation(Graph graph, PCGD pcgd, long firstStep){
+        if(firstStep < 0){
+            throw new IllegalArgumentException("Negative step.");
+        }
+        this.graph = graph;
+        this.pcgd = pcgd;
+        this.listeners = new ArrayList<>();
+        this.asyncListeners = new ArrayList<>();
+        this.cycles = new CycleEvents();
+        this.measured = false;
+        this.stopped = false;
+        this.step = firstStep;
+    }
+
+    /**
+     * Adds a listener, called on the thread running the simulation. The listeners are called in the order they are
+     * added.
+     * @param listener the listener
+     */
+    public void addListener(StepListener listener){
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Adds a listener called on an executor, so that it does not slow the steps down. Its calls are made one at a time
+     * and in order, but without the graph. If it throws an exception, it is not called anymore and awaitListeners
+     * gives the exception back.
+     * @param listener the listener
+     * @param executor the executor running the calls
+     */
+    public void addListener(StepListener listener, Executor executor){
+        AsyncListener async = new AsyncListener(listener, executor);
+        this.listeners.add(async);
+        this.asyncListeners.add(async);
+    }
+
+    /**
+     * Sets whether the steps are measured, their metrics being given to the listeners after each step.
+     * @param measured true to measure the steps
+     */
+    public void setMeasured(boolean measured){
+        this.measured = measured;
+    }
+
+    /**
+     * Returns the graph of the simulation.
+     * @return the graph, as of the last step computed
+     */
+    public Graph getGraph(){
+        return this.graph;
+    }
+
+    /**
+     * Returns the index of the last step computed.
+     * @return the index of the step, the first step before any step is computed
+     */
+    public long getStep(){
+        return this.step;
+    }
+
+    /**
+     * Stops the simulation after the step being computed, if any. May be called from any thread.
+     */
+    public void stop(){
+        this.stopped = true;
+    }
+
+    /**
+     * Tells if the simulation was stopped.
+     * @return true if stop was called
+     */
+    public boolean isStopped(){
+        return this.stopped;
+    }
+
+    /**
+     * Computes steps until a given step, or until the simulation is stopped.
+     * @param lastStep the index of the last step to compute
+     * @return the index of the last step computed
+     */
+    public long run(long lastStep){
+        while(!this.stopped && this.step < lastStep){
+            this.step();
+        }
+        return this.step;
+    }
+
+    /**
+     * Computes the next step, even if the simulation was stopped.
+     * @return the index of the new step
+     */
+    public long step(){
+        long next = this.step+1;
+        StepMetrics metrics = this.measured ? new StepMetrics(next) : null;
+        for(StepListener l : this.listeners){
+            l.beforeStep(next, this.graph);
+        }
+        this.graph.apply(this.pcgd, metrics, this.listeners.isEmpty() ? null : this.cycles, next);
+        this.step = next;
+        for(StepListener l : this.listeners){
+            l.afterStep(next, this.graph, metrics);
+        }
+        return next;
+    }
+
+    /**
+     * Waits for the listeners on executors to have handled all the events of the steps computed.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws IllegalStateException if one of these listeners failed
+     */
+    public void awaitListeners() throws InterruptedException{
+        for(AsyncListener async : this.asyncListeners){
+            async.await();
+        }
+    }
+
+    /**
+     * Gives the events of the cycles, sent by Graph.apply, to all the listeners.
+     */
+    private class CycleEvents implements StepListener {
+
+        @Override
+        public void afterMatch(long step, int cycle, int[] matches){
+            for(StepListener l : Simulation.this.listeners){
+                l.afterMatch(step, cycle, matches);
+            }
+        }
+
+        @Override
+        public void afterReplace(long step, int cycle){
+            for(StepListener l : Simulation.this.listeners){
+                l.afterReplace(step, cycle);
+            }
+        }
+    }
+
+    /**
+     * A listener whose calls are made on an executor, one at a time and in order.
+     */
+    private static class AsyncListener implements StepListener {
+
+        private final StepListener listener;
+        private final Executor executor;
+        private final ArrayDeque<Runnable> calls;
+        //True while a task of the executor makes the calls
+        private boolean running;
+        private RuntimeException failure;
+
+        AsyncListener(StepListener listener, Executor executor){
+            this.listener = listener;
+            this.executor = executor;
+            this.calls = new ArrayDeque<>();
+            this.running = false;
+            this.failure = null;
+        }
+
+        @Override
+        public void beforeStep(long step, Graph graph){
+            this.submit(() -> this.listener.beforeStep(step, null));
+        }
+
+        @Override
+        public void afterMatch(long step, int cycle, int[] matches){
+            int[] copy = matches.clone();
+            this.submit(() -> this.listener.afterMatch(step, cycle, copy));
+        }
+
+        @Override
+        public void afterReplace(long step, int cycle){
+            this.submit(() -> this.listener.afterReplace(step, cycle));
+        }
+
+        @Override
+        public void afterStep(long step, Graph graph, StepMetrics metrics){
+            this.submit(() -> this.listener.afterStep(step, null, metrics));
+        }
+
+        /**
+         * Queues a call, and starts a task making the calls if there is none.
+         * @param call the call
+         */
+        private void submit(Runnable call){
+            synchronized(this){
+                if(this.failure != null){return;}
+                this.calls.add(call);
+                if(this.running){return;}
+                this.running = true;
+            }
+            try{
+                this.executor.execute(this::drain);
+            }catch(RejectedExecutionException e){
+                synchronized(this){
+                    this.calls.clear();
+                    this.running = false;
+                    this.notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Makes the calls queued, on the executor.
+         */
+        private void drain(){
+            while(true){
+                Runnable call;
+                synchronized(this){
+                    call = this.calls.poll();
+                    if(call == null){
+                        this.running = false;
+                        this.notifyAll();
+                        return;
+                    }
+                }
+                try{
+                    call.run();
+                }catch(RuntimeException e){
+                    synchronized(this){
+                        this.failure = e;
+                        this.calls.clear();
+                        this.running = false;
+                        this.notifyAll();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Waits for the calls queued to be made.
+         * @throws InterruptedException if the thread is interrupted while waiting
+         * @throws IllegalStateException if the listener failed
+         */
+        synchronized void await() throws InterruptedException{
+            while(this.running){
+                this.wait();
+            }
+            if(this.failure != null){
+                throw new IllegalStateException("Step listener failed : "+this.failure.getMessage(), this.failure);
+            }
+        }
+    }
+}
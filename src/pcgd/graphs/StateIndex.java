@@ -0,0 +1,103 @@
+package pcgd.graphs;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The sets of the vertices of a graph in each state. Adding, removing or moving a vertex is done in constant time : each
+ * set is an array of ids, and we keep the position of each vertex in the array of its state.
+ */
+class StateIndex {
+
+    /**
+     * The vertices in one state, in no particular order.
+     */
+    private static class Bucket {
+        int[] ids = new int[4];
+        int size = 0;
+    }
+
+    private final Map<Integer, Bucket> buckets;
+    private int[] position;
+
+    /**
+     * Creates an empty index.
+     */
+    StateIndex(){
+        this.buckets = new HashMap<>();
+        this.position = new int[16];
+    }
+
+    /**
+     * Creates a copy of an index.
+     * @param other the index to copy
+     */
+    StateIndex(StateIndex other){
+        this.buckets = new HashMap<>();
+        for(Map.Entry<Integer, Bucket> e : other.buckets.entrySet()){
+            Bucket b = new Bucket();
+            b.ids = e.getValue().ids.clone();
+            b.size = e.getValue().size;
+            this.buckets.put(e.getKey(), b);
+        }
+        this.position = other.position.clone();
+    }
+
+    /**
+     * Adds a vertex to the set of a state. The vertex must not be in a set.
+     * @param v the id of the vertex
+     * @param state the state of the vertex
+     */
+    void add(int v, int state){
+        Bucket b = this.buckets.get(state);
+        if(b == null){
+            b = new Bucket();
+            this.buckets.put(state, b);
+        }
+        if(b.size == b.ids.length){
+            b.ids = Arrays.copyOf(b.ids, 2*b.ids.length);
+        }
+        if(v >= this.position.length){
+            this.position = Arrays.copyOf(this.position, Math.max(2*this.position.length, v+1));
+        }
+        this.position[v] = b.size;
+        b.ids[b.size++] = v;
+    }
+
+    /**
+     * Removes a vertex from the set of its state.
+     * @param v the id of the vertex
+     * @param state the state of the vertex
+     */
+    void remove(int v, int state){
+        Bucket b = this.buckets.get(state);
+        int i = this.position[v];
+        int last = b.ids[--b.size];
+        b.ids[i] = last;
+        this.position[last] = i;
+    }
+
+    /**
+     * Returns the number of vertices in a state.
+     * @param state a state
+     * @return the number of vertices
+     */
+    int count(int state){
+        Bucket b = this.buckets.get(state);
+        return b == null ? 0 : b.size;
+    }
+
+    /**
+     * Returns the vertices in a state, in increasing order of ids.
+     * @param state a state
+     * @return a new array of the ids of the vertices
+     */
+    int[] sortedMembers(int state){
+        Bucket b = this.buckets.get(state);
+        if(b == null){return new int[0];}
+        int[] ids = Arrays.copyOf(b.ids, b.size);
+        Arrays.sort(ids);
+        return ids;
+    }
+}
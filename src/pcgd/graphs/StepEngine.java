@@ -0,0 +1,146 @@
+package pcgd.graphs;
+
+import pcgd.dynamics.PCGD;
+
+/**
+ * Runs the steps of a PCGD on a graph, and publishes the graph of each step for readers on other threads. The steps are
+ * computed in a working graph, which keeps its index of the matches from one step to the next. The graph of the last
+ * step is published in a front buffer; the back buffer holds the graph of the step before, so it is brought up to date
+ * by copying only the vertices changed by the last two steps, then the buffers are swapped. Readers get the graph of the
+ * last step as a snapshot, without locking and without being disturbed by the step being computed.
+ * A step that fails leaves the snapshot unchanged, and the working graph is rolled back to it.
+ */
+public class StepEngine {
+
+    private final PCGD pcgd;
+    private final Graph work;
+    private GraphSnapshot front;
+    private GraphSnapshot back;
+    //The vertices changed by the last step, and by the step being computed
+    private ChangeSet lastChanges;
+    private ChangeSet workChanges;
+    private volatile GraphSnapshot current;
+    private long step;
+
+    /**
+     * Creates an engine running a PCGD from an initial graph. The engine works on copies : the initial graph is not
+     * modified. The settings of the matching and of the rewriting of the initial graph are used for the steps.
+     * @param initial the graph of step 0
+     * @param pcgd the dynamics
+     */
+    public StepEngine(Graph initial, PCGD pcgd){
+        this(initial, pcgd, 0);
+    }
+
+    /**
+     * Creates an engine running a PCGD from the graph of a given step, to resume a run. The engine works on copies : the
+     * graph is not modified. The settings of the matching and of the rewriting of the graph are used for the steps.
+     * @param initial the graph of the first step
+     * @param pcgd the dynamics
+     * @param firstStep the index of the first step, 0 or more
+     */
+    public StepEngine(Graph initial, PCGD pcgd, long firstStep){
+        if(firstStep < 0){
+            throw new IllegalArgumentException("Negative step.");
+        }
+        this.pcgd = pcgd;
+        this.step = firstStep;
+        this.work = initial.copy();
+        this.lastChanges = new ChangeSet();
+        this.workChanges = new ChangeSet();
+        this.work.track(this.workChanges);
+        this.front = new GraphSnapshot(this.buffer());
+        this.back = null;
+        this.front.publish(firstStep, null);
+        this.current = this.front;
+    }
+
+    /**
+     * Holds the snapshot of the graph of the last step. It must be released once read, so that its buffer can be used
+     * again. Never blocks.
+     * @return the snapshot
+     */
+    public GraphSnapshot acquire(){
+        while(true){
+            GraphSnapshot s = this.current;
+            if(s.tryHold()){return s;}
+        }
+    }
+
+    /**
+     * Returns the index of the last step computed.
+     * @return the index of the step, the first step before any step is computed
+     */
+    public synchronized long getStep(){
+        return this.step;
+    }
+
+    /**
+     * Computes the next step and publishes it. If the step fails, the graph of the last step stays published and the
+     * next call computes the same step again.
+     * @return the index of the new step
+     */
+    public synchronized long step(){
+        return this.step(null);
+    }
+
+    /**
+     * Computes the next step, measures it, and publishes it with its metrics. If the step fails, the graph of the last
+     * step stays published and the next call computes the same step again.
+     * @param metrics where to record the measures of the step, or null
+     * @return the index of the new step
+     */
+    public synchronized long step(StepMetrics metrics){
+        this.workChanges.clear();
+        try{
+            this.work.apply(this.pcgd, metrics);
+        }catch(RuntimeException e){
+            //Roll the working graph back to the last step, it only differs on the vertices changed by the failed step
+            this.work.syncFrom(this.front.graph(), this.workChanges);
+            this.workChanges.clear();
+            throw e;
+        }
+        this.step++;
+        GraphSnapshot s = this.prepareBack();
+        this.back = this.front;
+        this.front = s;
+        //The changes of this step become the last changes, and the working graph fills the other set
+        ChangeSet c = this.lastChanges;
+        this.lastChanges = this.workChanges;
+        this.workChanges = c;
+        this.work.untrack(this.lastChanges);
+        this.work.track(this.workChanges);
+        s.publish(this.step, metrics);
+        this.current = s;
+        return this.step;
+    }
+
+    /**
+     * Makes the back buffer equal to the working graph. It holds the graph of the step before the last one, so only the
+     * vertices changed by the last step and by the new one are copied. If a reader still holds the back buffer, a new
+     * one is used.
+     * @return the snapshot of the back buffer, being written
+     */
+    private GraphSnapshot prepareBack(){
+        if(this.back != null && this.back.reclaim()){
+            //The last changes are not needed after, they are merged with the new ones to copy each vertex once
+            for(int i = 0; i < this.workChanges.size(); i++){
+                this.lastChanges.add(this.workChanges.get(i));
+            }
+            this.back.graph().syncFrom(this.work, this.lastChanges);
+            return this.back;
+        }
+        return new GraphSnapshot(this.buffer());
+    }
+
+    /**
+     * Returns a copy of the working graph, to be published. The buffers are only read, they do not need an index of the
+     * matches.
+     * @return the copy
+     */
+    private Graph buffer(){
+        Graph g = this.work.copy();
+        g.setIncrementalMatching(false);
+        return g;
+    }
+}
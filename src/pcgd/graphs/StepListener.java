@@ -0,0 +1,42 @@
+package pcgd.graphs;
+
+/**
+ * Follows the steps of a Simulation. Each method does nothing by default, so that a listener only implements the
+ * events it needs. A step applies the cycles of the PCGD one after the other : the matches of all the parts of a cycle
+ * are found, then replaced.
+ * The listeners added to a simulation without an executor are called on the thread running it, and may read the graph;
+ * the ones added with an executor are called later, in the order of the events, and are not given the graph, which may
+ * have changed since.
+ */
+public interface StepListener {
+
+    /**
+     * Called before a step is computed.
+     * @param step the index of the step about to be computed
+     * @param graph the graph of the step before, or null for a listener on an executor
+     */
+    default void beforeStep(long step, Graph graph){}
+
+    /**
+     * Called once the matches of the parts of a cycle are found, before they are replaced.
+     * @param step the index of the step being computed
+     * @param cycle the index of the cycle in the PCGD
+     * @param matches the number of matches of each part of the cycle
+     */
+    default void afterMatch(long step, int cycle, int[] matches){}
+
+    /**
+     * Called once the matches of the parts of a cycle are replaced.
+     * @param step the index of the step being computed
+     * @param cycle the index of the cycle in the PCGD
+     */
+    default void afterReplace(long step, int cycle){}
+
+    /**
+     * Called once a step is computed.
+     * @param step the index of the step
+     * @param graph the graph of the step, or null for a listener on an executor
+     * @param metrics the metrics of the step if the simulation measures the steps, or null
+     */
+    default void afterStep(long step, Graph graph, StepMetrics metrics){}
+}
@@ -0,0 +1,267 @@
+package pcgd.graphs;
+
+import pcgd.dynamics.PCGD;
+
+/**
+ * What was measured during one step of a simulation : for each part of each cycle of the PCGD, the number of anchors
+ * tried and of matches found; the time spent finding the matches, replacing them and exporting the graph; the number
+ * of fresh vertices created; and the size of the graph after the step.
+ * It is filled by Graph.apply(PCGD, StepMetrics), except for the time of the export which is given by the caller, then
+ * given to the StepListeners.
+ * The anchors tried are the vertices on which the matching of a pattern was attempted : with the incremental matching,
+ * only the ones around the vertices changed since the last search.
+ */
+public class StepMetrics {
+
+    private final long step;
+    private long[][] anchorsTried;
+    private long[][] matchesFound;
+    private long matchNanos;
+    private long replaceNanos;
+    private long exportNanos;
+    private int freshVertices;
+    private int vertexCount;
+    private int edgeCount;
+    //Values at the beginning of the step, to measure the step only
+    private int freshStart;
+    private long[][] indexStart;
+
+    /**
+     * Creates the metrics of a step, empty.
+     * @param step the index of the step
+     */
+    public StepMetrics(long step){
+        this.step = step;
+        this.anchorsTried = new long[0][];
+        this.matchesFound = new long[0][];
+        this.matchNanos = 0;
+        this.replaceNanos = 0;
+        this.exportNanos = -1;
+        this.freshVertices = 0;
+        this.vertexCount = 0;
+        this.edgeCount = 0;
+    }
+
+    /**
+     * Prepares the metrics before a PCGD is applied on a graph.
+     * @param g the graph
+     * @param pcgd the PCGD
+     */
+    void begin(Graph g, PCGD pcgd){
+        int n = pcgd.size();
+        this.anchorsTried = new long[n][];
+        this.matchesFound = new long[n][];
+        this.indexStart = g.matchIndex != null ? new long[n][] : null;
+        for(int c = 0; c < n; c++){
+            int parts = pcgd.get(c).size();
+            this.anchorsTried[c] = new long[parts];
+            this.matchesFound[c] = new long[parts];
+            if(this.indexStart != null){
+                this.indexStart[c] = new long[parts];
+                for(int k = 0; k < parts; k++){
+                    this.indexStart[c][k] = g.matchIndex.anchorsTried(pcgd.get(c), k);
+                }
+            }
+        }
+        this.freshStart = g.freshNumber;
+    }
+
+    /**
+     * Records the matches of a part. Without an index of the matches, the search tried all the vertices in the state of
+     * the anchor.
+     * @param g the graph
+     * @param pcgd the PCGD
+     * @param c the index of the cycle
+     * @param k the index of the part
+     * @param matches the number of matches found
+     */
+    void matched(Graph g, PCGD pcgd, int c, int k, int matches){
+        this.matchesFound[c][k] += matches;
+        if(this.indexStart == null){
+            PatternPlan anchored = pcgd.get(c).getPlan(k).anchoredFor(g);
+            if(anchored.anchor() != -1){
+                this.anchorsTried[c][k] += g.stateCount(anchored.anchorState());
+            }
+        }
+    }
+
+    /**
+     * Adds the time spent finding matches and replacing them.
+     * @param match the time spent finding the matches, in nanoseconds
+     * @param replace the time spent replacing them, in nanoseconds
+     */
+    void addTimes(long match, long replace){
+        this.matchNanos += match;
+        this.replaceNanos += replace;
+    }
+
+    /**
+     * Completes the metrics once the PCGD is applied.
+     * @param g the graph
+     * @param pcgd the PCGD
+     */
+    void end(Graph g, PCGD pcgd){
+        if(this.indexStart != null && g.matchIndex != null){
+            //The index counts the anchors it tests, for all the parts at once
+            for(int c = 0; c < this.anchorsTried.length; c++){
+                for(int k = 0; k < this.anchorsTried[c].length; k++){
+                    this.anchorsTried[c][k] = g.matchIndex.anchorsTried(pcgd.get(c), k) - this.indexStart[c][k];
+                }
+            }
+        }
+        this.indexStart = null;
+        this.freshVertices = g.freshNumber - this.freshStart;
+        this.vertexCount = g.vertexCount();
+        this.edgeCount = g.edgeCount();
+    }
+
+    /**
+     * Sets the time spent exporting the graph of the step.
+     * @param nanos the time, in nanoseconds
+     */
+    public void setExportNanos(long nanos){
+        this.exportNanos = nanos;
+    }
+
+    /**
+     * Returns the index of the step.
+     * @return the index of the step
+     */
+    public long getStep(){
+        return this.step;
+    }
+
+    /**
+     * Returns the number of cycles of the PCGD applied.
+     * @return the number of cycles
+     */
+    public int cycleCount(){
+        return this.anchorsTried.length;
+    }
+
+    /**
+     * Returns the number of parts of a cycle.
+     * @param c the index of the cycle
+     * @return the number of parts
+     */
+    public int partCount(int c){
+        return this.anchorsTried[c].length;
+    }
+
+    /**
+     * Returns the number of anchors tried for a part.
+     * @param c the index of the cycle
+     * @param k the index of the part
+     * @return the number of vertices on which the matching of the part was attempted
+     */
+    public long getAnchorsTried(int c, int k){
+        return this.anchorsTried[c][k];
+    }
+
+    /**
+     * Returns the number of matches found for a part.
+     * @param c the index of the cycle
+     * @param k the index of the part
+     * @return the number of matches, which were all replaced
+     */
+    public long getMatchesFound(int c, int k){
+        return this.matchesFound[c][k];
+    }
+
+    /**
+     * Returns the number of anchors tried for all the parts.
+     * @return the sum of the anchors tried
+     */
+    public long totalAnchorsTried(){
+        long total = 0;
+        for(long[] t : this.anchorsTried){
+            for(long n : t){total += n;}
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of matches found for all the parts.
+     * @return the sum of the matches found
+     */
+    public long totalMatchesFound(){
+        long total = 0;
+        for(long[] t : this.matchesFound){
+            for(long n : t){total += n;}
+        }
+        return total;
+    }
+
+    /**
+     * Returns the time spent finding the matches.
+     * @return the time, in nanoseconds
+     */
+    public long getMatchNanos(){
+        return this.matchNanos;
+    }
+
+    /**
+     * Returns the time spent replacing the matches.
+     * @return the time, in nanoseconds
+     */
+    public long getReplaceNanos(){
+        return this.replaceNanos;
+    }
+
+    /**
+     * Returns the time spent exporting the graph.
+     * @return the time, in nanoseconds, -1 if the graph was not exported
+     */
+    public long getExportNanos(){
+        return this.exportNanos;
+    }
+
+    /**
+     * Returns the number of fresh vertices created by the step.
+     * @return the number of fresh vertices
+     */
+    public int getFreshVertices(){
+        return this.freshVertices;
+    }
+
+    /**
+     * Returns the number of vertices after the step.
+     * @return the number of vertices
+     */
+    public int getVertexCount(){
+        return this.vertexCount;
+    }
+
+    /**
+     * Returns the number of edges after the step.
+     * @return the number of edges
+     */
+    public int getEdgeCount(){
+        return this.edgeCount;
+    }
+
+    /**
+     * Returns the metrics as a JSON object on one line.
+     * @return the JSON string
+     */
+    public String toJSONString(){
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"step\":").append(this.step)
+                .append(",\"vertices\":").append(this.vertexCount)
+                .append(",\"edges\":").append(this.edgeCount)
+                .append(",\"freshVertices\":").append(this.freshVertices)
+                .append(",\"matchNanos\":").append(this.matchNanos)
+                .append(",\"replaceNanos\":").append(this.replaceNanos)
+                .append(",\"exportNanos\":").append(this.exportNanos)
+                .append(",\"cycles\":[");
+        for(int c = 0; c < this.anchorsTried.length; c++){
+            sb.append(c == 0 ? "[" : ",[");
+            for(int k = 0; k < this.anchorsTried[c].length; k++){
+                sb.append(k == 0 ? "" : ",").append("{\"anchorsTried\":").append(this.anchorsTried[c][k])
+                        .append(",\"matchesFound\":").append(this.matchesFound[c][k]).append("}");
+            }
+            sb.append("]");
+        }
+        return sb.append("]}").toString();
+    }
+}
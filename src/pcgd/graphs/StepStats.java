@@ -0,0 +1,145 @@
+package pcgd.graphs;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Keeps the metrics of the last step and the totals of all the steps, and shows them through JMX once registered, so
+ * that a running simulation can be watched with a JMX console.
+ */
+public class StepStats implements StepStatsMBean, StepListener {
+
+    /**
+     * The name under which the stats are registered.
+     */
+    public static final String NAME = "pcgd:type=StepStats";
+
+    private StepMetrics last;
+    private long steps;
+    private long totalAnchorsTried;
+    private long totalMatchesFound;
+    private long totalFreshVertices;
+    private long totalMatchNanos;
+    private long totalReplaceNanos;
+    private long totalExportNanos;
+
+    /**
+     * Creates the stats, with no step measured.
+     */
+    public StepStats(){
+        this.last = null;
+        this.steps = 0;
+    }
+
+    /**
+     * Registers the stats in the platform MBean server, under NAME.
+     * @throws JMException if the stats can not be registered, for example if other stats already are.
+     */
+    public void register() throws JMException{
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(NAME));
+    }
+
+    /**
+     * Unregisters the stats from the platform MBean server.
+     * @throws JMException if the stats are not registered.
+     */
+    public void unregister() throws JMException{
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(NAME));
+    }
+
+    @Override
+    public synchronized void afterStep(long step, Graph graph, StepMetrics metrics){
+        if(metrics == null){return;}
+        this.last = metrics;
+        this.steps++;
+        this.totalAnchorsTried += metrics.totalAnchorsTried();
+        this.totalMatchesFound += metrics.totalMatchesFound();
+        this.totalFreshVertices += metrics.getFreshVertices();
+        this.totalMatchNanos += metrics.getMatchNanos();
+        this.totalReplaceNanos += metrics.getReplaceNanos();
+        this.totalExportNanos += Math.max(0, metrics.getExportNanos());
+    }
+
+    @Override
+    public synchronized long getStepsMeasured(){
+        return this.steps;
+    }
+
+    @Override
+    public synchronized long getLastStep(){
+        return this.last == null ? -1 : this.last.getStep();
+    }
+
+    @Override
+    public synchronized int getVertexCount(){
+        return this.last == null ? 0 : this.last.getVertexCount();
+    }
+
+    @Override
+    public synchronized int getEdgeCount(){
+        return this.last == null ? 0 : this.last.getEdgeCount();
+    }
+
+    @Override
+    public synchronized long getLastAnchorsTried(){
+        return this.last == null ? 0 : this.last.totalAnchorsTried();
+    }
+
+    @Override
+    public synchronized long getLastMatchesFound(){
+        return this.last == null ? 0 : this.last.totalMatchesFound();
+    }
+
+    @Override
+    public synchronized long getLastFreshVertices(){
+        return this.last == null ? 0 : this.last.getFreshVertices();
+    }
+
+    @Override
+    public synchronized long getLastMatchNanos(){
+        return this.last == null ? 0 : this.last.getMatchNanos();
+    }
+
+    @Override
+    public synchronized long getLastReplaceNanos(){
+        return this.last == null ? 0 : this.last.getReplaceNanos();
+    }
+
+    @Override
+    public synchronized long getLastExportNanos(){
+        return this.last == null ? 0 : this.last.getExportNanos();
+    }
+
+    @Override
+    public synchronized long getTotalAnchorsTried(){
+        return this.totalAnchorsTried;
+    }
+
+    @Override
+    public synchronized long getTotalMatchesFound(){
+        return this.totalMatchesFound;
+    }
+
+    @Override
+    public synchronized long getTotalFreshVertices(){
+        return this.totalFreshVertices;
+    }
+
+    @Override
+    public synchronized long getTotalMatchNanos(){
+        return this.totalMatchNanos;
+    }
+
+    @Override
+    public synchronized long getTotalReplaceNanos(){
+        return this.totalReplaceNanos;
+    }
+
+    @Override
+    public synchronized long getTotalExportNanos(){
+        return this.totalExportNanos;
+    }
+}
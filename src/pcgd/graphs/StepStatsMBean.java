@@ -0,0 +1,40 @@
+package pcgd.graphs;
+
+/**
+ * The attributes of StepStats, seen through JMX. The times are in nanoseconds; "last" is the last step measured, and
+ * "total" all the steps measured since the start.
+ */
+public interface StepStatsMBean {
+
+    long getStepsMeasured();
+
+    long getLastStep();
+
+    int getVertexCount();
+
+    int getEdgeCount();
+
+    long getLastAnchorsTried();
+
+    long getLastMatchesFound();
+
+    long getLastFreshVertices();
+
+    long getLastMatchNanos();
+
+    long getLastReplaceNanos();
+
+    long getLastExportNanos();
+
+    long getTotalAnchorsTried();
+
+    long getTotalMatchesFound();
+
+    long getTotalFreshVertices();
+
+    long getTotalMatchNanos();
+
+    long getTotalReplaceNanos();
+
+    long getTotalExportNanos();
+}
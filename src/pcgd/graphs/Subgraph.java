@@ -1,7 +1,7 @@
 package pcgd.graphs;
 
+import pcgd.dynamics.IntRenaming;
 import pcgd.dynamics.PCGDException;
-import pcgd.dynamics.Renaming;
 import pcgd.graphs.Exceptions.EdgePortException;
 import pcgd.graphs.Exceptions.VertexNameException;
 
@@ -13,11 +13,140 @@ import java.util.*;
  */
 public class Subgraph extends Graph{
 
-    protected Map<String, SemiEdge> semiEdges;
+    /**
+     * The semi edges are stored in the port tables of the graph, with SEMI as opposite vertex.
+     */
+    protected int semiEdgeCount;
+    /**
+     * Once frozen, the subgraph can not be modified anymore, and the following are computed once for all : the border
+     * flags of the vertices by id, the semi edges, and the index of the vertices by state and degree.
+     */
+    private boolean frozen;
+    private boolean[] border;
+    private Collection<SemiEdge> semiEdges;
+    private BorderIndex borderIndex;
 
     public Subgraph (){
         super();
-        this.semiEdges = new HashMap<>();
+        this.semiEdgeCount = 0;
+        this.frozen = false;
+    }
+
+    /**
+     * Makes the subgraph read-only, and computes what is asked about it while the PCGD is checked and applied. Patterns
+     * are frozen when they are added to a CyclicPermutation. Does nothing if the subgraph is already frozen.
+     */
+    public void freeze(){
+        if(this.frozen){return;}
+        int capacity = this.vertexCapacity();
+        this.border = new boolean[capacity];
+        for(int v = 0; v < capacity; v++){
+            this.border[v] = this.isVertex(v) && this.hasSemiEdge(v);
+        }
+        this.semiEdges = Collections.unmodifiableCollection(this.getSemiEdges());
+        this.frozen = true;
+        //Built last, as it asks which vertices are border vertices
+        this.borderIndex = new BorderIndex(this);
+    }
+
+    /**
+     * Tells if the subgraph is frozen.
+     * @return true if freeze was called
+     */
+    public boolean isFrozen(){
+        return this.frozen;
+    }
+
+    /**
+     * Returns the index of the vertices of the subgraph by state and degree.
+     * @return the index computed when the subgraph was frozen, or a new one if it is not frozen
+     */
+    public BorderIndex borderIndex(){
+        return this.frozen ? this.borderIndex : new BorderIndex(this);
+    }
+
+    /**
+     * Throws an exception if the subgraph is frozen. Called by all the modifications of the subgraph.
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    private void checkNotFrozen(){
+        if(this.frozen){
+            throw new IllegalStateException("The subgraph is frozen, it can not be modified.");
+        }
+    }
+
+    /**
+     * Same as Graph.newVertex, refused if the subgraph is frozen.
+     * @param name the name of the vertex, not already used
+     * @param state the state
+     * @return the id of the vertex
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    @Override
+    protected int newVertex(String name, int state){
+        this.checkNotFrozen();
+        return super.newVertex(name, state);
+    }
+
+    /**
+     * Same as Graph.deleteVertex, refused if the subgraph is frozen.
+     * @param v the id of the vertex
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    @Override
+    protected void deleteVertex(int v){
+        this.checkNotFrozen();
+        super.deleteVertex(v);
+    }
+
+    /**
+     * Same as Graph.setState, refused if the subgraph is frozen.
+     * @param v the id of the vertex
+     * @param state the state
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    @Override
+    protected void setState(int v, int state){
+        this.checkNotFrozen();
+        super.setState(v, state);
+    }
+
+    /**
+     * Same as Graph.writePort, refused if the subgraph is frozen.
+     * @param v the id of the vertex
+     * @param p the port of the vertex
+     * @param u the opposite vertex
+     * @param q the opposite port
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    @Override
+    protected void writePort(int v, int p, int u, int q){
+        this.checkNotFrozen();
+        super.writePort(v, p, u, q);
+    }
+
+    /**
+     * Same as Graph.clearPort, refused if the subgraph is frozen.
+     * @param v the id of the vertex
+     * @param p the port of the vertex
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    @Override
+    protected void clearPort(int v, int p){
+        this.checkNotFrozen();
+        super.clearPort(v, p);
+    }
+
+    /**
+     * Same as Graph.syncFrom, refused if the subgraph is frozen.
+     * @param other a graph
+     * @param changed the ids of the vertices that may differ between the two graphs
+     * @throws IllegalStateException if the subgraph is frozen
+     */
+    @Override
+    public void syncFrom(Graph other, ChangeSet changed){
+        this.checkNotFrozen();
+        super.syncFrom(other, changed);
     }
 
     /**
@@ -27,29 +156,24 @@ public class Subgraph extends Graph{
      * @throws EdgePortException if the port is already used by an edge or semi edge
      */
     public void addSemiEdge(SemiEdge s) throws VertexNameException, EdgePortException {
-        if(! this.vertices.containsKey(s.getName())){
+        int v = this.idOf(s.getName());
+        if(v == -1){
             //The vertex from wich the semi edge goes is not in the graph !
             throw new VertexNameException("Trying to add semi-edge "+s+". Vertex \""+s.getName()+"\" not in the graph.");
         }
-        if( this.semiEdges.containsKey(s.toString())){
+        if(s.getPort() < 0){
+            throw new EdgePortException("Trying to add semi-edge "+s+". Port "+s.getPort()+" is negative.");
+        }
+        if(this.oppositeVertex(v, s.getPort()) == SEMI){
             throw new EdgePortException("Trying to add semi-edge "+s+". It is already in the graph.");
         }
-        for(String str : this.edges.keySet()){
-            Edge e = this.edges.get(str);
-            if(e.getName1().equals(s.getName())){
-                //Semi Edge and Edge comming out of the same vertex, do they have the same port ?
-                if(e.getPort1() == s.getPort()){
-                    throw new EdgePortException("Trying to add semi-edge "+s+". Port "+s.getPort()+" of \""+s.getName()+"\" already in use in "+e);
-                }
-            }else if(e.getName2().equals(s.getName())){
-                //Semi Edge and Edge comming out of the same vertex, do they have the same port ?
-                if(e.getPort2() == s.getPort()){
-                    throw new EdgePortException("Trying to add semi-edge "+s+". Port "+s.getPort()+" of \""+s.getName()+"\" already in use in "+e);
-                }
-            }
-
+        Edge e = this.edgeAt(v, s.getPort());
+        if(e != null){
+            //Semi Edge and Edge comming out of the same vertex with the same port
+            throw new EdgePortException("Trying to add semi-edge "+s+". Port "+s.getPort()+" of \""+s.getName()+"\" already in use in "+e);
         }
-        this.semiEdges.put(s.toString(), s);
+        this.setPort(v, s.getPort(), SEMI, FREE);
+        this.semiEdgeCount++;
     }
 
     /**
@@ -71,48 +195,41 @@ public class Subgraph extends Graph{
      */
     @Override
     public void addEdge(Edge e) throws VertexNameException, EdgePortException{
-        if(!this.vertices.containsKey(e.getName1())){
+        int v1 = this.idOf(e.getName1());
+        int v2 = this.idOf(e.getName2());
+        if(v1 == -1){
             throw new VertexNameException("Trying to add edge "+e+". Vertex \""+e.getName1()+"\" not in the graph.");
         }
-        if(!this.vertices.containsKey(e.getName2())){
+        if(v2 == -1){
             throw new VertexNameException("Trying to add edge "+e+". Vertex \""+e.getName2()+"\" not in the graph.");
         }
-        if(e.getName1().equals(e.getName2())){
+        if(v1 == v2){
             throw new VertexNameException("Trying to add edge between \""+e.getName1()+"\" and itself. This is forbidden");
         }
-        for(String s : edges.keySet()){
-            Edge c = edges.get(s);
-            if(c.getName1().equals(e.getName1())){
-                if(c.getPort1() == e.getPort1()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort1()+" of \""+c.getName1()+"\" already in use in "+c);
-                }
-            }else if(c.getName1().equals(e.getName2())){
-                if(c.getPort1() == e.getPort2()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort1()+" of \""+c.getName1()+"\" already in use in "+c);
-                }
-            }else if(c.getName2().equals(e.getName1())){
-                if(c.getPort2() == e.getPort1()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort2()+" of \""+c.getName2()+"\" already in use in "+c);
-                }
-            }else if(c.getName2().equals(e.getName2())){
-                if(c.getPort2() == e.getPort2()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+c.getPort2()+" of \""+c.getName2()+"\" already in use in "+c);
-                }
-            }
+        this.checkPortFree(e, v1, e.getPort1());
+        this.checkPortFree(e, v2, e.getPort2());
+        this.link(v1, e.getPort1(), v2, e.getPort2());
+    }
+
+    /**
+     * Part of addEdge, throws an exception if the given port of the given vertex is already used by an edge or a semi edge.
+     * @param e the edge we are trying to add
+     * @param v the id of one of the ends of e
+     * @param port the port used by e on this end
+     * @throws EdgePortException if the port is already in use, or is negative
+     */
+    @Override
+    protected void checkPortFree(Edge e, int v, int port) throws EdgePortException{
+        if(port < 0){
+            throw new EdgePortException("Trying to add edge "+e+". Port "+port+" is negative.");
         }
-        for(String key : semiEdges.keySet()){
-            SemiEdge s = semiEdges.get(key);
-            if(e.getName1().equals(s.getName())){
-                if(e.getPort1() == s.getPort()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+e.getPort1()+" of \""+e.getName1()+"\" already in use in "+s);
-                }
-            }else if(e.getName2().equals(s.getName())){
-                if(e.getPort2() == s.getPort()){
-                    throw new EdgePortException("Trying to add edge "+e+". Port "+e.getPort2()+" of \""+e.getName2()+"\" already in use in "+s);
-                }
-            }
+        int u = this.oppositeVertex(v, port);
+        if(u == SEMI){
+            throw new EdgePortException("Trying to add edge "+e+". Port "+port+" of \""+this.nameOf(v)+"\" already in use in "+new SemiEdge(this.nameOf(v), port));
+        }
+        if(u != FREE){
+            throw new EdgePortException("Trying to add edge "+e+". Port "+port+" of \""+this.nameOf(v)+"\" already in use in "+this.edgeAt(v, port));
         }
-        this.edges.put(e.toString(), e);
     }
 
     /**
@@ -131,25 +248,34 @@ public class Subgraph extends Graph{
 
     /**
      * Get the list of the semi edges of the subgraph.
-     * @return a Collection of the semi edges of the subgraph
+     * @return a Collection of the semi edges of the subgraph, read-only if the subgraph is frozen
      */
     public Collection<SemiEdge> getSemiEdges(){
-        return this.semiEdges.values();
+        if(this.frozen){return this.semiEdges;}
+        List<SemiEdge> semiEdges = new ArrayList<>(this.semiEdgeCount);
+        int capacity = this.vertexCapacity();
+        for(int v = 0; v < capacity; v++){
+            if(!this.isVertex(v)){continue;}
+            for(int p = 0; p < this.portBound(v); p++){
+                if(this.oppositeVertex(v, p) == SEMI){
+                    semiEdges.add(new SemiEdge(this.nameOf(v), p));
+                }
+            }
+        }
+        return semiEdges;
     }
 
     /**
-     * Writes a JSON description, compatible with the visualizer, into the file of given name.
-     * This method can only be used of the subgraphs DOES NOT CONTAIN ANY SEMI EDGE, as the visualizer can not treat semi edges.
-     * @param filename the name of the file where to output JSON
-     * @throws IOException in case of I/O accident.
+     * Checks that the subgraph can be written as JSON or as a binary snapshot.
+     * A subgraph can only be exported if it DOES NOT CONTAIN ANY SEMI EDGE, as the visualizer can not treat semi edges,
+     * and a snapshot is read back as a graph.
      * @throws RuntimeException if the subgraph contains semi edges.
      */
     @Override
-    public void exportAsJSON (String filename) throws IOException{
-        if(! this.semiEdges.isEmpty()){
+    void checkExport(){
+        if(this.semiEdgeCount != 0){
             throw new RuntimeException("Subgraph still contains semi-edges, impossible to export");
         }
-        super.exportAsJSON(filename);
     }
 
     /**
@@ -158,7 +284,8 @@ public class Subgraph extends Graph{
      * @return true if s belongs to this; false otherwise.
      */
     public boolean containsSemiEdge(SemiEdge s){
-        return this.semiEdges.containsKey(s.toString());
+        int v = this.idOf(s.getName());
+        return v != -1 && s.getPort() >= 0 && this.oppositeVertex(v, s.getPort()) == SEMI;
     }
 
     /**
@@ -167,7 +294,8 @@ public class Subgraph extends Graph{
      * @return true if e belongs to this; false otherwise.
      */
     public boolean containsEdge(Edge e){
-        return this.edges.containsKey(e.toString()) || this.edges.containsKey(new Edge(e.getName2(), e.getPort2(), e.getName1(), e.getPort1()).toString());
+        SemiEdge far = this.oppositeOf(e.getName1(), e.getPort1());
+        return far != null && far.getName().equals(e.getName2()) && far.getPort() == e.getPort2();
     }
 
     /**
@@ -176,15 +304,7 @@ public class Subgraph extends Graph{
      * @return The edge containing s if it is found; null otherwise.
      */
     public Edge containsEdgeforSemiEdge (SemiEdge s){
-        for(Edge e : this.edges.values()){
-            if((    e.getName1().equals(s.getName()) && e.getPort1() == s.getPort())
-                    ||
-                    (e.getName2().equals(s.getName()) && e.getPort2() == s.getPort())
-                    ){
-                return e;
-            }
-        }
-        return null;
+        return this.edgeAt(s.getName(), s.getPort());
     }
 
     /**
@@ -193,14 +313,10 @@ public class Subgraph extends Graph{
      * @return the semi-edge if it is found; null otherwise.
      */
     public SemiEdge containsSemiEdgeforEdge (Edge e){
-        for(SemiEdge s : this.semiEdges.values()){
-            if((    e.getName1().equals(s.getName()) && e.getPort1() == s.getPort())
-                    ||
-                    (e.getName2().equals(s.getName()) && e.getPort2() == s.getPort())
-                    ){
-                return s;
-            }
-        }
+        SemiEdge s = new SemiEdge(e.getName1(), e.getPort1());
+        if(this.containsSemiEdge(s)){return s;}
+        s = new SemiEdge(e.getName2(), e.getPort2());
+        if(this.containsSemiEdge(s)){return s;}
         return null;
     }
 
@@ -211,85 +327,56 @@ public class Subgraph extends Graph{
      * @return true if there is a vertex with the given name in the subgraph and this vertex holds at least one semi edge.
      */
     public boolean isBorder(String vertexName){
-        for(SemiEdge s : this.semiEdges.values()){
-            if(s.getName().equals(vertexName)){return true;}
-        }
-        return false;
+        int v = this.idOf(vertexName);
+        return v != -1 && this.isBorder(v);
     }
 
     /**
-     * Returns the degree (number of edges and semi-edges comming out of it) of the vertex of given name in this graph
-     * @param vertexName the name of the vertex
-     * @return the degree of the vertex.
+     * Same as isBorder(String) with the id of the vertex.
+     * @param v the id of a vertex
+     * @return true if this vertex holds at least one semi edge.
      */
-    @Override
-    public int degreeOfVertex(String vertexName){
-        int degree = 0;
-        for(SemiEdge s : this.semiEdges.values()){
-            if(s.getName().equals(vertexName)){degree++;}
+    protected boolean isBorder(int v){
+        if(this.frozen){return v < this.border.length && this.border[v];}
+        return this.hasSemiEdge(v);
+    }
+
+    /**
+     * Part of isBorder, looks for a semi edge in the ports of a vertex.
+     * @param v the id of a vertex
+     * @return true if this vertex holds at least one semi edge.
+     */
+    private boolean hasSemiEdge(int v){
+        for(int p = 0; p < this.portBound(v); p++){
+            if(this.oppositeVertex(v, p) == SEMI){return true;}
         }
-        return super.degreeOfVertex(vertexName) + degree;
+        return false;
     }
 
     /**
      * Tests if this subgraph has a border vertex v such that it is consistent with any vertex of the other graph.
      * Note that the test is only made one way, to declare that two subgraphs are non overlaping, this method must be
-     * called twice, inverting this and other.
+     * called twice, inverting this and other. To check many subgraphs against each other, or to get all the overlaps,
+     * use BorderIndex, which frozen subgraphs keep.
      * @param other an other subgraph
      * @return A PCGDException containing the names of the overlaping vertices; null if there is no overlap possible.
      */
     public PCGDException bordersOverlapOn(Subgraph other){
-        for(Vertex localV : this.vertices.values()){
-            if(this.isBorder(localV.getName())){
-                for(Vertex otherV : other.vertices.values()){
-                    Renaming r = new Renaming();
-                    if(twoVerticesConsistent(localV, otherV, other, r) && !r.isTrivial()){
-                        return new PCGDException("\""+localV.getName()+"\" and \""+otherV.getName()+"\"");
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    protected boolean TVC_semiEdgesIncompatibility(Vertex localVertex, Subgraph other, Renaming rename){
-        //Test Local's SemiEdges
-        for(SemiEdge localSemi : this.semiEdges.values()){
-            if(localSemi.getName().equals(localVertex.getName())) { //localSemi is comming out of localVertex
-                SemiEdge otherSemi = rename.apply(localSemi);
-                if(!(other.containsSemiEdge(otherSemi) || other.containsEdgeforSemiEdge(otherSemi) != null)){
-                    //localSemi is unmatched in other, neither as a semiEdge nor a full edge.
-                    return true;
-                }
-            }//else nothing to do
-        }
-        return false;
+        List<String> overlaps = this.borderIndex().overlapsOn(other.borderIndex(), 1);
+        return overlaps.isEmpty() ? null : new PCGDException(overlaps.get(0));
     }
 
     /**
-     * This method tries to calculate a renaming R such that R(this) is superposable with a subgraph other; starting by two
-     * given vertices which are the first 'gluing point' candidate. if they are consistent (they do not disagree on states and connectivity),
-     * we continue recursively by following the edges to an other pair of point we try to glue. We modify the renaming as we test.
-     * At the end we return a boolean to say if this was a success or not. if it was not, do not consider the renaming.
-     * @param localVertex a vertex of this that we try to match with otherVertex
-     * @param otherVertex a vertex of other that we try to match with localVertex
-     * @param other a subgraph
-     * @param rename a renaming that we calculate.
-     * @return true if this and other are consistent and localVertex and otherVertex coincides; false otherwise.
+     * Part of bordersOverlapOn, test if a binding is trivial, which means it glues vertices of the same names.
+     * @param other the subgraph the binding goes to
+     * @param binding the inverse of the renaming
+     * @return true if every bound vertex of other is glued to the vertex of the same name in this.
      */
-    @Override
-    protected boolean twoVerticesConsistent(Vertex localVertex, Vertex otherVertex, Subgraph other, Renaming rename){
-        //Test if we already tested this case
-        if(TVC_alreadyTested(localVertex, otherVertex, rename)){return true;}
-        //Test if the vertices are in the same state
-        if(TVC_differentStates(localVertex, otherVertex)){return false;}
-        //Test if the vertices have the same degree
-        if(TVC_differentDegrees(localVertex, otherVertex, other)){return false;}
-        //Test if we can bind the names of the two vertices
-        if(TVC_cantBind(localVertex, otherVertex, rename)){return false;}
-        //Test Local's SemiEdges
-        if(TVC_semiEdgesIncompatibility(localVertex, other, rename)){return false;}
-        //Test localVertex's Edges and recur
-        return TVC_edgesAndRecur(localVertex, other, rename);
+    protected boolean isTrivial(Subgraph other, IntRenaming binding){
+        for(int i = 0; i < binding.size(); i++){
+            int o = binding.antecedentAt(i);
+            if(!this.nameOf(binding.get(o)).equals(other.nameOf(o))){return false;}
+        }
+        return true;
     }
 }
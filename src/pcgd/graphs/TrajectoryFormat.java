@@ -0,0 +1,143 @@
+package pcgd.graphs;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The frames of a trajectory file. A trajectory starts with the magic bytes "PCGT" and the version, followed by one
+ * frame per step : a type byte (KEYFRAME or DELTA), the length of the frame in bytes, and the frame. A keyframe is a
+ * binary snapshot of the graph (see BinaryGraphFormat). A delta holds only what changed since the previous step : the
+ * fresh number, the number of edges, the bound on the ids, the ids to reuse (as the length of the prefix kept from the
+ * previous step followed by the new ids), and the vertices changed by the step, each one as its id followed by 0 if it
+ * was removed, or by 1, its name, its state, its number of ports and, for each port, 0 if it is free or 1 + the opposite
+ * vertex followed by the opposite port.
+ */
+class TrajectoryFormat {
+
+    static final byte[] MAGIC = {'P', 'C', 'G', 'T'};
+    static final int VERSION = 1;
+    static final int KEYFRAME = 0;
+    static final int DELTA = 1;
+
+    private TrajectoryFormat(){}
+
+    /**
+     * Writes the changes of a graph since the previous step.
+     * @param g the graph
+     * @param changed the vertices changed since the previous step
+     * @param previousFree the ids to reuse at the previous step
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    static void writeDelta(Graph g, ChangeSet changed, int[] previousFree, BinaryOutput out) throws IOException{
+        int[] free = g.names.freeIds();
+        int kept = 0;
+        while(kept < free.length && kept < previousFree.length && free[kept] == previousFree[kept]){
+            kept++;
+        }
+        out.writeVarInt(g.freshNumber);
+        out.writeVarInt(g.edgeCount);
+        out.writeVarInt(g.vertexCapacity());
+        out.writeVarInt(kept);
+        out.writeVarInt(free.length - kept);
+        for(int i = kept; i < free.length; i++){
+            out.writeVarInt(free[i]);
+        }
+        out.writeVarInt(changed.size());
+        for(int i = 0; i < changed.size(); i++){
+            int v = changed.get(i);
+            out.writeVarInt(v);
+            if(!g.isVertex(v)){
+                out.writeVarInt(0);
+                continue;
+            }
+            int[] t = g.ports[v];
+            out.writeVarInt(1);
+            out.writeString(g.nameOf(v));
+            out.writeSignedVarInt(g.states[v]);
+            out.writeVarInt(t.length/2);
+            for(int p = 0; 2*p < t.length; p++){
+                if(t[2*p] == Graph.FREE){
+                    out.writeVarInt(0);
+                }else{
+                    out.writeVarInt(t[2*p]+1);
+                    out.writeVarInt(t[2*p+1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies to a graph the changes of a step.
+     * @param g the graph at the previous step, changed into the graph at the step
+     * @param in the input, at the start of a delta
+     * @throws IOException if the input fails or does not hold a delta
+     */
+    static void readDelta(Graph g, BinaryInput in) throws IOException{
+        int freshNumber = in.readVarInt();
+        int edgeCount = in.readVarInt();
+        int capacity = in.readVarInt();
+        int kept = in.readVarInt();
+        int added = in.readVarInt();
+        int[] previousFree = g.names.freeIds();
+        if(capacity < 0 || kept < 0 || kept > previousFree.length || added < 0 || added > capacity){
+            throw corrupted();
+        }
+        int[] free = Arrays.copyOf(previousFree, kept + added);
+        for(int i = kept; i < free.length; i++){
+            free[i] = in.readVarInt();
+            if(free[i] < 0 || free[i] >= capacity){throw corrupted();}
+        }
+        int n = in.readVarInt();
+        if(n < 0 || n > capacity){throw corrupted();}
+        int[] ids = new int[n];
+        String[] names = new String[n];
+        int[] states = new int[n];
+        int[][] ports = new int[n][];
+        for(int i = 0; i < n; i++){
+            ids[i] = in.readVarInt();
+            if(ids[i] < 0 || ids[i] >= capacity){throw corrupted();}
+            if(in.readVarInt() == 0){continue;}
+            names[i] = in.readString();
+            states[i] = in.readSignedVarInt();
+            int portBound = in.readVarInt();
+            if(portBound < 0 || portBound > Integer.MAX_VALUE/2){throw corrupted();}
+            int[] t = portBound == 0 ? Graph.NO_PORTS : new int[2*portBound];
+            for(int p = 0; p < portBound; p++){
+                int u = in.readVarInt()-1;
+                t[2*p] = u;
+                t[2*p+1] = u == Graph.FREE ? Graph.FREE : in.readVarInt();
+            }
+            ports[i] = t;
+        }
+        //The old names are all removed before the new ones are set, as a name may move from an id to an other
+        for(int v : ids){
+            if(g.isVertex(v)){
+                g.stateIndex.remove(v, g.states[v]);
+                g.names.set(v, null);
+                g.ports[v] = null;
+            }
+        }
+        g.ensureCapacity(capacity);
+        for(int i = 0; i < n; i++){
+            int v = ids[i];
+            if(names[i] == null || g.isVertex(v)){continue;}
+            if(!g.names.set(v, names[i])){throw corrupted();}
+            g.states[v] = states[i];
+            g.stateIndex.add(v, states[i]);
+            int degree = 0;
+            for(int p = 0; 2*p < ports[i].length; p++){
+                if(ports[i][2*p] != Graph.FREE){degree++;}
+            }
+            g.degrees[v] = degree;
+            g.ports[v] = ports[i];
+        }
+        g.names.setFreeIds(capacity, free);
+        g.freshNumber = freshNumber;
+        g.edgeCount = edgeCount;
+    }
+
+    private static IOException corrupted(){
+        return new IOException("Corrupted trajectory");
+    }
+}
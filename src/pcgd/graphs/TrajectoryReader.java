@@ -0,0 +1,165 @@
+package pcgd.graphs;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Reads the steps of a trajectory file written by a TrajectoryWriter, in any order. The frames are found when the file
+ * is opened, from their lengths, without being read. A step is rebuilt from the keyframe before it, replaying the deltas
+ * in between; the last step read is kept, so that reading the steps in order only replays each delta once.
+ * A file whose last frame was not fully written (if the writer was stopped) can be read up to the frame before.
+ */
+public class TrajectoryReader implements Closeable {
+
+    private final RandomAccessFile file;
+    //The position, length and type of the frame of each step
+    private long[] offsets;
+    private int[] lengths;
+    private int[] types;
+    private int stepCount;
+    private Graph cached;
+    private int cachedStep;
+
+    /**
+     * Opens a trajectory file and finds its frames.
+     * @param filename the name of the file
+     * @throws IOException in case of I/O accident, or if the file is not a trajectory.
+     */
+    public TrajectoryReader(String filename) throws IOException{
+        this.file = new RandomAccessFile(filename, "r");
+        this.offsets = new long[16];
+        this.lengths = new int[16];
+        this.types = new int[16];
+        this.stepCount = 0;
+        this.cached = null;
+        this.cachedStep = -1;
+        try{
+            this.index();
+        }catch(IOException e){
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of steps in the file.
+     * @return the number of steps, the last one being stepCount()-1
+     */
+    public int stepCount(){
+        return this.stepCount;
+    }
+
+    /**
+     * Rebuilds the graph at a step. It has the same ids, and gives the same next ids and fresh names, as the graph
+     * written.
+     * @param step a step, from 0 to stepCount()-1
+     * @return the graph at the step, with the default settings of the matching and of the rewriting
+     * @throws IOException in case of I/O accident, or if the file is corrupted.
+     */
+    public Graph graphAt(int step) throws IOException{
+        if(step < 0 || step >= this.stepCount){
+            throw new IllegalArgumentException("No step "+step+" in the trajectory, it has "+this.stepCount+" steps.");
+        }
+        int keyframe = step;
+        while(this.types[keyframe] != TrajectoryFormat.KEYFRAME){
+            keyframe--;
+        }
+        if(this.cached == null || this.cachedStep > step || this.cachedStep < keyframe){
+            this.cached = BinaryGraphFormat.read(this.frame(keyframe));
+            this.cachedStep = keyframe;
+        }
+        while(this.cachedStep < step){
+            this.cachedStep++;
+            try{
+                TrajectoryFormat.readDelta(this.cached, this.frame(this.cachedStep));
+            }catch(IOException e){
+                this.cached = null;
+                throw e;
+            }
+        }
+        return this.cached.copy();
+    }
+
+    @Override
+    public void close() throws IOException{
+        this.file.close();
+    }
+
+    /**
+     * Reads the header of the file and the position of each frame.
+     * @throws IOException in case of I/O accident, or if the file is not a trajectory.
+     */
+    private void index() throws IOException{
+        byte[] magic = new byte[TrajectoryFormat.MAGIC.length];
+        if(this.file.read(magic) != magic.length || !Arrays.equals(magic, TrajectoryFormat.MAGIC)){
+            throw new IOException("Not a trajectory file");
+        }
+        int version = (int) this.readVarInt();
+        if(version != TrajectoryFormat.VERSION){
+            throw new IOException("Unsupported version "+version+" of trajectory file");
+        }
+        long size = this.file.length();
+        while(this.file.getFilePointer() < size){
+            long type, length;
+            try{
+                type = this.readVarInt();
+                length = this.readVarInt();
+            }catch(EOFException e){
+                break;
+            }
+            long offset = this.file.getFilePointer();
+            if(length > Integer.MAX_VALUE){
+                throw new IOException("Corrupted trajectory");
+            }
+            if(offset + length > size){break;}
+            if(type != TrajectoryFormat.KEYFRAME && type != TrajectoryFormat.DELTA){
+                throw new IOException("Corrupted trajectory");
+            }
+            if(this.stepCount == 0 && type != TrajectoryFormat.KEYFRAME){
+                throw new IOException("Corrupted trajectory");
+            }
+            if(this.stepCount == this.offsets.length){
+                this.offsets = Arrays.copyOf(this.offsets, 2*this.stepCount);
+                this.lengths = Arrays.copyOf(this.lengths, 2*this.stepCount);
+                this.types = Arrays.copyOf(this.types, 2*this.stepCount);
+            }
+            this.offsets[this.stepCount] = offset;
+            this.lengths[this.stepCount] = (int) length;
+            this.types[this.stepCount] = (int) type;
+            this.stepCount++;
+            this.file.seek(offset + length);
+        }
+    }
+
+    /**
+     * Reads the frame of a step.
+     * @param step a step
+     * @return an input on the frame
+     * @throws IOException in case of I/O accident.
+     */
+    private BinaryInput frame(int step) throws IOException{
+        byte[] bytes = new byte[this.lengths[step]];
+        this.file.seek(this.offsets[step]);
+        this.file.readFully(bytes);
+        return new BinaryInput(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Reads a variable length integer of up to 32 bits at the current position of the file.
+     * @return the integer, non negative
+     * @throws IOException in case of I/O accident, or if the integer is malformed.
+     */
+    private long readVarInt() throws IOException{
+        long value = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            byte b = this.file.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0){return value;}
+        }
+        throw new IOException("Corrupted trajectory");
+    }
+}
@@ -0,0 +1,110 @@
+package pcgd.graphs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the successive steps of a graph into a trajectory file : a full snapshot of the graph every few steps (the
+ * keyframes), and for the other steps only the vertices changed since the previous step. The file is read back by a
+ * TrajectoryReader. See TrajectoryFormat for the format.
+ */
+public class TrajectoryWriter implements Closeable {
+
+    private final Graph graph;
+    private final int keyframeInterval;
+    private final OutputStream file;
+    private final BinaryOutput out;
+    //The frame being written, before its length is known
+    private final ByteArrayOutputStream frame;
+    private final BinaryOutput frameOut;
+    private final ChangeSet changes;
+    private int[] previousFree;
+    private int step;
+
+    /**
+     * Creates a trajectory file and writes the graph as its step 0. From then, the writer records the changes of the
+     * graph until it is closed.
+     * @param graph the graph
+     * @param filename the name of the file
+     * @param keyframeInterval the number of steps from a keyframe to the next one, positive. Reading a step replays
+     *                         the deltas from the keyframe before it.
+     * @throws IOException in case of I/O accident.
+     */
+    public TrajectoryWriter(Graph graph, String filename, int keyframeInterval) throws IOException{
+        if(keyframeInterval <= 0){
+            throw new IllegalArgumentException("Keyframe interval must be positive.");
+        }
+        this.graph = graph;
+        this.keyframeInterval = keyframeInterval;
+        this.file = new FileOutputStream(filename);
+        this.out = new BinaryOutput(this.file);
+        this.frame = new ByteArrayOutputStream();
+        this.frameOut = new BinaryOutput(this.frame);
+        this.changes = new ChangeSet();
+        this.step = 0;
+        try{
+            this.out.writeBytes(TrajectoryFormat.MAGIC);
+            this.out.writeVarInt(TrajectoryFormat.VERSION);
+            this.writeFrame(TrajectoryFormat.KEYFRAME);
+        }catch(IOException e){
+            this.file.close();
+            throw e;
+        }
+        this.graph.track(this.changes);
+    }
+
+    /**
+     * Writes the graph as the next step, as a keyframe or as the changes since the previous step.
+     * @throws IOException in case of I/O accident.
+     */
+    public void writeStep() throws IOException{
+        this.step++;
+        this.writeFrame(this.step % this.keyframeInterval == 0 ? TrajectoryFormat.KEYFRAME : TrajectoryFormat.DELTA);
+    }
+
+    /**
+     * Returns the number of the last step written.
+     * @return the step, 0 for the graph given to the constructor
+     */
+    public int getStep(){
+        return this.step;
+    }
+
+    /**
+     * Stops recording the changes of the graph, and closes the file.
+     * @throws IOException in case of I/O accident.
+     */
+    @Override
+    public void close() throws IOException{
+        this.graph.untrack(this.changes);
+        try{
+            this.out.flush();
+        }finally{
+            this.file.close();
+        }
+    }
+
+    /**
+     * Writes a frame : its type, its length, and the frame.
+     * @param type KEYFRAME or DELTA
+     * @throws IOException in case of I/O accident.
+     */
+    private void writeFrame(int type) throws IOException{
+        this.frame.reset();
+        if(type == TrajectoryFormat.KEYFRAME){
+            BinaryGraphFormat.write(this.graph, this.frameOut);
+        }else{
+            TrajectoryFormat.writeDelta(this.graph, this.changes, this.previousFree, this.frameOut);
+        }
+        this.frameOut.flush();
+        this.out.writeVarInt(type);
+        this.out.writeVarInt(this.frame.size());
+        this.out.flush();
+        this.frame.writeTo(this.file);
+        this.changes.clear();
+        this.previousFree = this.graph.names.freeIds();
+    }
+}
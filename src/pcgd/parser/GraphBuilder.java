@@ -0,0 +1,211 @@
+package pcgd.parser;
+
+import pcgd.graphs.Edge;
+import pcgd.graphs.Exceptions.EdgePortException;
+import pcgd.graphs.Exceptions.VertexNameException;
+import pcgd.graphs.Graph;
+import pcgd.graphs.SemiEdge;
+import pcgd.graphs.Subgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a graph or a subgraph from all its vertices and edges at once, and reports all the errors together.
+ * The vertices are added as they are given. The edges and the semi edges are kept, with the ids of their ends when
+ * they are already known, and are only checked and added by build, in the order they were given. So an edge may be
+ * given before its vertices, and an error does not stop the build : all of them are reported in one ParseException,
+ * with their line numbers.
+ */
+public class GraphBuilder {
+
+    private static final int EDGE = 0;
+    private static final int SEMI_EDGE = 1;
+    //Size of a record in items : kind, line, vertex, port, vertex, port
+    private static final int RECORD = 6;
+
+    private final Graph graph;
+    private int[] items;
+    private int count;
+    //The names of the ends not yet known when the item was given, by index of the vertex field in items
+    private final Map<Integer, String> pendingNames;
+    private final List<Integer> errorLines;
+    private final List<String> errors;
+
+    /**
+     * Starts building the vertices and edges of a graph. Semi edges can only be given if it is a subgraph.
+     * @param graph an empty graph or subgraph
+     */
+    public GraphBuilder(Graph graph){
+        this.graph = graph;
+        this.items = new int[16*RECORD];
+        this.count = 0;
+        this.pendingNames = new HashMap<>();
+        this.errorLines = new ArrayList<>();
+        this.errors = new ArrayList<>();
+    }
+
+    /**
+     * Adds a vertex.
+     * @param name the name of the vertex
+     * @param state the state of the vertex
+     * @param line the line where the vertex is defined
+     */
+    public void vertex(String name, int state, int line){
+        try{
+            this.graph.addVertex(name, state);
+        }catch(VertexNameException e){
+            this.error(line, e.getMessage());
+        }
+    }
+
+    /**
+     * Adds an edge whose names are given as ranges of characters, without making strings of them if the vertices are
+     * already known.
+     * @param chars an array of characters
+     * @param from1 the index of the first character of the name of the first end
+     * @param to1 the index after the last character of the name of the first end
+     * @param port1 the port of the first end
+     * @param from2 the index of the first character of the name of the second end
+     * @param to2 the index after the last character of the name of the second end
+     * @param port2 the port of the second end
+     * @param line the line where the edge is defined
+     */
+    public void edge(char[] chars, int from1, int to1, int port1, int from2, int to2, int port2, int line){
+        int i = this.record(EDGE, line);
+        this.end(i+2, chars, from1, to1, port1);
+        this.end(i+4, chars, from2, to2, port2);
+    }
+
+    /**
+     * Adds an edge.
+     * @param e the edge
+     * @param line the line where the edge is defined
+     */
+    public void edge(Edge e, int line){
+        int i = this.record(EDGE, line);
+        this.end(i+2, e.getName1(), e.getPort1());
+        this.end(i+4, e.getName2(), e.getPort2());
+    }
+
+    /**
+     * Adds a semi edge, the graph being a subgraph.
+     * @param s the semi edge
+     * @param line the line where the semi edge is defined
+     */
+    public void semiEdge(SemiEdge s, int line){
+        int i = this.record(SEMI_EDGE, line);
+        this.end(i+2, s.getName(), s.getPort());
+    }
+
+    /**
+     * Checks and adds all the edges and semi edges, in the order they were given.
+     * @return the graph
+     * @throws ParseException with all the errors of the vertices, edges and semi edges, by line.
+     */
+    public Graph build() throws ParseException{
+        for(int i = 0; i < this.count; i += RECORD){
+            int line = this.items[i+1];
+            try{
+                if(this.items[i] == EDGE){
+                    this.addEdge(i);
+                }else{
+                    ((Subgraph) this.graph).addSemiEdge(this.name(i+2), this.items[i+3]);
+                }
+            }catch(VertexNameException | EdgePortException e){
+                this.error(line, e.getMessage());
+            }
+        }
+        if(!this.errors.isEmpty()){
+            throw new ParseException(this.report());
+        }
+        return this.graph;
+    }
+
+    /**
+     * Adds an edge of items.
+     * @param i the index of the record of the edge
+     * @throws VertexNameException if a vertex is not in the graph
+     * @throws EdgePortException if a port is already in use
+     */
+    private void addEdge(int i) throws VertexNameException, EdgePortException{
+        int v1 = this.id(i+2);
+        int v2 = this.id(i+4);
+        if(v1 == -1 || v2 == -1){
+            //Let the graph give the error
+            this.graph.addEdge(new Edge(this.name(i+2), this.items[i+3], this.name(i+4), this.items[i+5]));
+            return;
+        }
+        this.graph.addEdge(v1, this.items[i+3], v2, this.items[i+5]);
+    }
+
+    private int record(int kind, int line){
+        if(this.count + RECORD > this.items.length){
+            this.items = Arrays.copyOf(this.items, 2*this.items.length);
+        }
+        int i = this.count;
+        this.items[i] = kind;
+        this.items[i+1] = line;
+        this.count += RECORD;
+        return i;
+    }
+
+    private void end(int field, char[] chars, int from, int to, int port){
+        int v = this.graph.idOf(chars, from, to);
+        this.items[field] = v;
+        this.items[field+1] = port;
+        if(v == -1){
+            this.pendingNames.put(field, new String(chars, from, to-from));
+        }
+    }
+
+    private void end(int field, String name, int port){
+        int v = this.graph.idOf(name);
+        this.items[field] = v;
+        this.items[field+1] = port;
+        if(v == -1){
+            this.pendingNames.put(field, name);
+        }
+    }
+
+    /**
+     * Returns the id of an end of an item, looking up its name if it was not known when the item was given.
+     * @param field the index of the vertex field
+     * @return the id, -1 if the vertex is not in the graph
+     */
+    private int id(int field){
+        int v = this.items[field];
+        return v != -1 ? v : this.graph.idOf(this.pendingNames.get(field));
+    }
+
+    private String name(int field){
+        int v = this.items[field];
+        return v != -1 ? this.graph.nameOf(v) : this.pendingNames.get(field);
+    }
+
+    private void error(int line, String message){
+        this.errorLines.add(line);
+        this.errors.add(message);
+    }
+
+    /**
+     * Writes all the errors, one per line, in the order of their lines.
+     * @return the message
+     */
+    private String report(){
+        Integer[] order = new Integer[this.errors.size()];
+        for(int k = 0; k < order.length; k++){
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(this.errorLines.get(a), this.errorLines.get(b)));
+        StringBuilder sb = new StringBuilder();
+        for(int k : order){
+            if(sb.length() > 0){sb.append('\n');}
+            sb.append("Error at line ").append(this.errorLines.get(k)).append(" : ").append(this.errors.get(k));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package pcgd.parser;
+
+/**
+ * Receives the vertices and the edges of a graph one by one, as Parser.readGraph(GraphHandler) reads them, without the
+ * graph being built. They are given in the order of the file, so an edge may be given before its vertices; nothing is
+ * checked but the syntax of the lines.
+ */
+public interface GraphHandler {
+
+    /**
+     * Receives a vertex.
+     * @param name the name of the vertex
+     * @param state the state of the vertex
+     * @param line the line where the vertex is defined
+     */
+    void vertex(String name, int state, int line);
+
+    /**
+     * Receives an edge.
+     * @param name1 the name of the first end
+     * @param port1 the port of the first end
+     * @param name2 the name of the second end
+     * @param port2 the port of the second end
+     * @param line the line where the edge is defined
+     */
+    void edge(String name1, int port1, String name2, int port2, int line);
+}
@@ -1,8 +1,8 @@
 package pcgd.parser;
 
-import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,8 +12,6 @@ import pcgd.dynamics.CyclicPermutation;
 import pcgd.dynamics.PCGD;
 import pcgd.dynamics.PCGDException;
 import pcgd.graphs.*;
-import pcgd.graphs.Exceptions.EdgePortException;
-import pcgd.graphs.Exceptions.VertexNameException;
 //import dynamics.*;
 
 public class Parser {
@@ -33,234 +31,300 @@ public class Parser {
     private static final String MAP_BEGIN = "map:";
     private static final String MAP_END= ":endmap";
 
-    private static final String COMMENT_MARK = "//";
-    private static int iline;
+    //The tokenizer of the file being parsed, the only state of a parse
+    private final Tokenizer tk;
 
-    private static String removeWhites(String str){
-        return str.replaceAll("\\s","");
-    }
-    private static String ignoreComments(String str){ int index = str.indexOf(COMMENT_MARK); return (index!=-1?str.substring(0,index):str);}
-    private static String nextNonEmpty(BufferedReader br)throws IOException, ParseException{
-        String line;
-        do {
-            line = ignoreComments(removeWhites(br.readLine()));
-            iline++;
-            if(line==null){throw new ParseException("Unexpected end of the file");}
-        }while(line.equals(""));
-        return line;
+    /**
+     * Creates a parser reading one graph, subgraph or dynamic from a reader. A parser holds the state of one parse, so
+     * that several files can be parsed at the same time by several parsers, on different threads.
+     * @param reader the reader, positioned at the start of the definition. It is not closed by the parser.
+     */
+    public Parser(Reader reader){
+        this.tk = new Tokenizer(reader);
     }
 
-    private static void testExpected(String line, String expected) throws ParseException {
-        if (!line.equals(expected)) {
-            throw new ParseException("Expected \"" + expected + "\" not found at line "+iline+".");
+    private void testExpected(String expected) throws ParseException {
+        if (!this.tk.is(expected)) {
+            throw new ParseException("Expected \"" + expected + "\" not found at line "+this.tk.lineNumber()+".");
         }
     }
 
     public static Graph parseGraph(String filename) throws IOException, ParseException{
-        Graph g;
-        iline = 0;
-        try(BufferedReader br = new BufferedReader(new FileReader(filename))){
-            String line = nextNonEmpty(br);
-            testExpected(line, GRAPH_BEGIN);
-            g = parseGraph0(br);
+        try(Reader r = new FileReader(filename)){
+            return new Parser(r).readGraph();
+        }
+    }
+
+    /**
+     * Reads the graph of a file line by line, giving its vertices and edges to a handler instead of building it.
+     * @param filename the name of the file
+     * @param h the handler
+     * @throws IOException if the file can not be read
+     * @throws ParseException if a line is malformed
+     */
+    public static void parseGraph(String filename, GraphHandler h) throws IOException, ParseException{
+        try(Reader r = new FileReader(filename)){
+            new Parser(r).readGraph(h);
         }
-        return g;
     }
 
     public static Subgraph parseSubgraph(String filename) throws IOException, ParseException {
-        Subgraph g;
-        iline = 0;
-        try(BufferedReader br = new BufferedReader(new FileReader(filename))){
-            String line = nextNonEmpty(br);
-            testExpected(line, SUBGRAPH_BEGIN);
-            g=parseSubgraph0(br);
+        try(Reader r = new FileReader(filename)){
+            return new Parser(r).readSubgraph();
         }
-        return g;
     }
 
     public static PCGD parsePCGD(String filename)throws IOException, ParseException{
-        PCGD p;
-        iline = 0;
-        try(BufferedReader br = new BufferedReader(new FileReader(filename))){
-            String line = nextNonEmpty(br);
-            testExpected(line, DYNAMIC_BEGIN);
-            p = parsePCGD0(br);
+        try(Reader r = new FileReader(filename)){
+            return new Parser(r).readPCGD();
         }
-        return p;
     }
 
-    private static Graph parseGraph0 (BufferedReader br) throws IOException, ParseException {
-        Graph g = new Graph();
-        String line;
-        line= nextNonEmpty(br);
-        while(! line.equals(GRAPH_END)){
-            if(line.startsWith("v:")) {
-                try {
-                    g.addVertex(parseVertex(line.substring(2)));
-                } catch (VertexNameException vne) {
-                    throw new ParseException("Error at line "+iline+" : "+vne.getMessage());
-                }
-            }else if(line.startsWith("e:")){
-                try {
-                    g.addEdge(parseEdge(line.substring(2)));
-                }catch (EdgePortException | VertexNameException e){
-                    throw new ParseException("Error at line "+iline+" : "+e.getMessage());
-                }
+    /**
+     * Reads a graph, from graph: to :endgraph.
+     * @return the graph
+     * @throws IOException if the reader fails
+     * @throws ParseException if the definition is malformed or invalid
+     */
+    public Graph readGraph() throws IOException, ParseException{
+        this.tk.next();
+        this.testExpected(GRAPH_BEGIN);
+        return this.parseGraph0();
+    }
+
+    /**
+     * Reads a graph, from graph: to :endgraph, giving its vertices and edges to a handler in the order they are read.
+     * Only the syntax is checked : the names and the ports are the business of the handler.
+     * @param h the handler
+     * @throws IOException if the reader fails
+     * @throws ParseException if a line is malformed
+     */
+    public void readGraph(GraphHandler h) throws IOException, ParseException{
+        this.tk.next();
+        this.testExpected(GRAPH_BEGIN);
+        this.tk.next();
+        while(! this.tk.is(GRAPH_END)){
+            if(this.tk.startsWith("v:")) {
+                Vertex v = this.parseVertex();
+                h.vertex(v.getName(), v.getState(), this.tk.lineNumber());
+            }else if(this.tk.startsWith("e:")){
+                Edge e = this.parseEdge();
+                h.edge(e.getName1(), e.getPort1(), e.getName2(), e.getPort2(), this.tk.lineNumber());
+            }else{
+                throw new ParseException("Unexpected graph line at line "+this.tk.lineNumber()+".");
+            }
+            this.tk.next();
+        }
+    }
+
+    /**
+     * Reads a subgraph, from subgraph: to :endsubgraph.
+     * @return the subgraph
+     * @throws IOException if the reader fails
+     * @throws ParseException if the definition is malformed or invalid
+     */
+    public Subgraph readSubgraph() throws IOException, ParseException{
+        this.tk.next();
+        this.testExpected(SUBGRAPH_BEGIN);
+        return this.parseSubgraph0();
+    }
+
+    /**
+     * Reads a dynamic, from dynamic: to :enddynamic.
+     * @return the PCGD
+     * @throws IOException if the reader fails
+     * @throws ParseException if the definition is malformed or invalid
+     */
+    public PCGD readPCGD() throws IOException, ParseException{
+        this.tk.next();
+        this.testExpected(DYNAMIC_BEGIN);
+        return this.parsePCGD0();
+    }
+
+    private Graph parseGraph0() throws IOException, ParseException {
+        GraphBuilder b = new GraphBuilder(new Graph());
+        this.tk.next();
+        while(! this.tk.is(GRAPH_END)){
+            if(this.tk.startsWith("v:")) {
+                Vertex v = this.parseVertex();
+                b.vertex(v.getName(), v.getState(), this.tk.lineNumber());
+            }else if(this.tk.startsWith("e:")){
+                this.readEdge(b);
             }else{
-                throw new ParseException("Unexpected graph line at line "+iline+".");
+                throw new ParseException("Unexpected graph line at line "+this.tk.lineNumber()+".");
             }
-            line = nextNonEmpty(br);
+            this.tk.next();
         }
-        return g;
+        return b.build();
     }
 
-    private static Subgraph parseSubgraph0 (BufferedReader br) throws IOException, ParseException {
-        Subgraph g = new Subgraph();
-        String line;
-        line = nextNonEmpty(br);
-        while(! line.equals(SUBGRAPH_END)){
-            if(line.startsWith("v:")){
-                try{
-                    g.addVertex(parseVertex(line.substring(2)));
-                }catch (VertexNameException vne){
-                    throw new ParseException("Error at line "+iline+" : "+vne.getMessage());
-                }
-            }else if (line.startsWith("e:")){
-                try{
-                    g.addEdge(parseEdge(line.substring(2)));
-                }catch (VertexNameException | EdgePortException e){
-                    throw new ParseException("Error at line "+iline+" : "+e.getMessage());
-                }
-            }else if (line.startsWith("s:")){
-                try{
-                    g.addSemiEdge(parseSemiEdge(line.substring(2)));
-                }catch (VertexNameException | EdgePortException e){
-                    throw new ParseException("Error at line "+iline+" : "+e.getMessage());
-                }
+    private Subgraph parseSubgraph0() throws IOException, ParseException {
+        GraphBuilder b = new GraphBuilder(new Subgraph());
+        this.tk.next();
+        while(! this.tk.is(SUBGRAPH_END)){
+            if(this.tk.startsWith("v:")){
+                Vertex v = this.parseVertex();
+                b.vertex(v.getName(), v.getState(), this.tk.lineNumber());
+            }else if (this.tk.startsWith("e:")){
+                b.edge(this.parseEdge(), this.tk.lineNumber());
+            }else if (this.tk.startsWith("s:")){
+                b.semiEdge(this.parseSemiEdge(), this.tk.lineNumber());
             }else{
-                throw new ParseException("Unexpected graph line at line "+iline+".");
+                throw new ParseException("Unexpected graph line at line "+this.tk.lineNumber()+".");
             }
-            line = nextNonEmpty(br);
+            this.tk.next();
         }
-        return g;
+        return (Subgraph) b.build();
     }
 
-    private static PCGD parsePCGD0(BufferedReader br) throws IOException, ParseException{
+    private PCGD parsePCGD0() throws IOException, ParseException{
         PCGD p = new PCGD();
-        String line;
-        line = nextNonEmpty(br);
-        while(! line.equals(DYNAMIC_END)){
-            int startLine = iline;
-            testExpected(line, CYCLE_BEGIN);
-            CyclicPermutation cycle = parseCyclicPermutation0(br);
+        this.tk.next();
+        while(! this.tk.is(DYNAMIC_END)){
+            int startLine = this.tk.lineNumber();
+            this.testExpected(CYCLE_BEGIN);
+            CyclicPermutation cycle = this.parseCyclicPermutation0();
             try {
                 p.addPermutation(cycle);
             }catch(PCGDException pe){
                 throw new ParseException("Error at line "+startLine+" : "+pe.getMessage());
             }
-            line = nextNonEmpty(br);
+            this.tk.next();
         }
         return p;
     }
 
-    private static CyclicPermutation parseCyclicPermutation0(BufferedReader br) throws IOException, ParseException{
+    private CyclicPermutation parseCyclicPermutation0() throws IOException, ParseException{
         CyclicPermutation p = new CyclicPermutation();
-        String line = nextNonEmpty(br);
-        testExpected(line, PARTS_BEGIN);
+        this.tk.next();
+        this.testExpected(PARTS_BEGIN);
         //
-        line = nextNonEmpty(br);
-        while(! line.equals(PARTS_END)){
-            testExpected(line, SUBGRAPH_BEGIN);
-            int sgrBegin = iline;
-            Subgraph sgr = parseSubgraph0(br);
+        this.tk.next();
+        while(! this.tk.is(PARTS_END)){
+            this.testExpected(SUBGRAPH_BEGIN);
+            int sgrBegin = this.tk.lineNumber();
+            Subgraph sgr = this.parseSubgraph0();
             try{
                 p.addPart(sgr);
             }catch(PCGDException pe){
                 throw new ParseException("Error at line "+sgrBegin+" : "+pe.getMessage());
             }
-            line = nextNonEmpty(br);
+            this.tk.next();
         }
         //
-        line = nextNonEmpty(br);
-        testExpected(line, ATTACHMENT_BEGIN);
+        this.tk.next();
+        this.testExpected(ATTACHMENT_BEGIN);
         //
-        line = nextNonEmpty(br);
-        while(! line.equals(ATTACHMENT_END)){
-            testExpected(line,MAP_BEGIN);
-            int attBegin = iline;
-            Map<SemiEdge, SemiEdge> attachment = parseAttachementMap0(br);
+        this.tk.next();
+        while(! this.tk.is(ATTACHMENT_END)){
+            this.testExpected(MAP_BEGIN);
+            int attBegin = this.tk.lineNumber();
+            Map<SemiEdge, SemiEdge> attachment = this.parseAttachementMap0();
             try{
                 p.addAttachment(attachment);
             }catch(PCGDException pe){
                 throw new ParseException("Error at line "+attBegin+" : "+pe.getMessage());
             }
-            line = nextNonEmpty(br);
+            this.tk.next();
         }
         //
-        line = nextNonEmpty(br);
-        testExpected(line, CYCLE_END);
+        this.tk.next();
+        this.testExpected(CYCLE_END);
         return p;
     }
 
-    private static Map<SemiEdge, SemiEdge> parseAttachementMap0 (BufferedReader br) throws IOException, ParseException{
+    private Map<SemiEdge, SemiEdge> parseAttachementMap0() throws IOException, ParseException{
         Map<SemiEdge, SemiEdge> m = new HashMap<>();
-        String line = nextNonEmpty(br);
-        while(! line.equals(MAP_END)){
-            Pair<SemiEdge> rel = parseAttachementRel(line);
+        this.tk.next();
+        while(! this.tk.is(MAP_END)){
+            Pair<SemiEdge> rel = this.parseAttachementRel();
             SemiEdge oldValue = m.put(rel.getFirst(), rel.getSecond());
             if(oldValue != null){
-                throw new ParseException("Error at line "+iline+" : "+oldValue+" image already defined.");
+                throw new ParseException("Error at line "+this.tk.lineNumber()+" : "+oldValue+" image already defined.");
             }
-            line = nextNonEmpty(br);
+            this.tk.next();
         }
         return m;
     }
 
-    private static Vertex parseVertex(String str) throws ParseException{
-        //X(0)
+    private Vertex parseVertex() throws ParseException{
+        //v:X(0)
         try{
-            String name =str.substring(0,str.indexOf('('));
-            int state = Integer.parseInt(str.substring(str.indexOf('(')+1,str.indexOf(')')));
+            int open = this.tk.indexOf('(', 2);
+            String name = this.tk.string(2, open);
+            int state = this.tk.parseInt(open+1, this.tk.indexOf(')', 2));
             return new Vertex(name, state);
-        }catch (Exception e){
-            throw new ParseException("Line "+iline+" of graph definition malformed.");
+        }catch (ParseException e){
+            throw new ParseException("Line "+this.tk.lineNumber()+" of graph definition malformed.");
         }
     }
 
-    private static Edge parseEdge(String str)throws ParseException{
-        //a:0,b:1
+    /**
+     * Reads an edge of a graph and gives it to a builder. The names are read in place, without making strings of them.
+     * @param b the builder, the tokenizer being on a line e:a:0,b:1
+     * @throws ParseException if the line is malformed
+     */
+    private void readEdge(GraphBuilder b) throws ParseException{
+        int colon1, comma, colon2, port1, port2;
         try{
-            String srcName = str.substring(0,str.indexOf(':'));
-            int srcPort = Integer.parseInt(str.substring(str.indexOf(':')+1,str.indexOf(',')));
-            String dstName = str.substring(str.indexOf(',')+1, str.lastIndexOf(':'));
-            int dstPort = Integer.parseInt(str.substring(str.lastIndexOf(':')+1,str.length()));
+            colon1 = this.tk.indexOf(':', 2);
+            comma = this.tk.indexOf(',', 2);
+            colon2 = this.tk.lastIndexOf(':');
+            port1 = this.tk.parseInt(colon1+1, comma);
+            port2 = this.tk.parseInt(colon2+1, this.tk.length());
+            if(colon1 < 2 || colon2 < comma){
+                throw new ParseException("");
+            }
+        }catch (ParseException e){
+            throw new ParseException("Line "+this.tk.lineNumber()+" of graph definition malformed.");
+        }
+        b.edge(this.tk.chars(), 2, colon1, port1, comma+1, colon2, port2, this.tk.lineNumber());
+    }
+
+    private Edge parseEdge()throws ParseException{
+        //e:a:0,b:1
+        try{
+            int colon1 = this.tk.indexOf(':', 2);
+            int comma = this.tk.indexOf(',', 2);
+            int colon2 = this.tk.lastIndexOf(':');
+            if(colon1 < 2 || colon2 < comma){
+                throw new ParseException("");
+            }
+            String srcName = this.tk.string(2, colon1);
+            int srcPort = this.tk.parseInt(colon1+1, comma);
+            String dstName = this.tk.string(comma+1, colon2);
+            int dstPort = this.tk.parseInt(colon2+1, this.tk.length());
             return new Edge(srcName,srcPort,dstName,dstPort);
-        }catch (Exception e){
-            throw new ParseException("Line "+iline+" of graph definition malformed.");
+        }catch (ParseException e){
+            throw new ParseException("Line "+this.tk.lineNumber()+" of graph definition malformed.");
         }
     }
 
-    private static SemiEdge parseSemiEdge(String str)throws ParseException{
-        //a:0
+    private SemiEdge parseSemiEdge()throws ParseException{
+        //s:a:0
         try{
-            String name = str.substring(0, str.indexOf(":"));
-            int port = Integer.parseInt(str.substring(str.indexOf(":")+1, str.length()));
+            int colon = this.tk.indexOf(':', 2);
+            String name = this.tk.string(2, colon);
+            int port = this.tk.parseInt(colon+1, this.tk.length());
             return new SemiEdge(name, port);
-        }catch (Exception e){
-            throw new ParseException("Line "+iline+" of graph definition malformed.");
+        }catch (ParseException e){
+            throw new ParseException("Line "+this.tk.lineNumber()+" of graph definition malformed.");
         }
     }
 
-    private static Pair<SemiEdge> parseAttachementRel (String str)throws ParseException{
+    private Pair<SemiEdge> parseAttachementRel()throws ParseException{
         //(a:0)(b:1)
         try {
-            String n1 = str.substring(1, str.indexOf(":"));
-            int p1 = Integer.parseInt(str.substring(str.indexOf(":") + 1, str.indexOf(")")));
-            String n2 = str.substring(str.lastIndexOf("(") + 1, str.lastIndexOf(":"));
-            int p2 = Integer.parseInt(str.substring(str.lastIndexOf(":") + 1, str.lastIndexOf(")")));
+            int colon1 = this.tk.indexOf(':', 0);
+            int colon2 = this.tk.lastIndexOf(':');
+            int open2 = this.tk.lastIndexOf('(');
+            String n1 = this.tk.string(1, colon1);
+            int p1 = this.tk.parseInt(colon1 + 1, this.tk.indexOf(')', 0));
+            String n2 = this.tk.string(open2 + 1, colon2);
+            int p2 = this.tk.parseInt(colon2 + 1, this.tk.lastIndexOf(')'));
             return new Pair<>(new SemiEdge(n1, p1), new SemiEdge(n2, p2));
-        }catch (Exception e){
-            throw new ParseException("Line "+iline+" of attachment definition malformed.");
+        }catch (ParseException e){
+            throw new ParseException("Line "+this.tk.lineNumber()+" of attachment definition malformed.");
         }
     }
 }
@@ -0,0 +1,226 @@
+package pcgd.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads a file line by line for the parser, without any regular expression and without allocating a string per line.
+ * The white spaces of a line are dropped and the comments removed as the characters are read; the current line is
+ * kept in a reusable buffer, and its fields are read in place by index.
+ */
+class Tokenizer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final char[] buffer;
+    private int position;
+    private int limit;
+    //The current line, without white spaces nor comment
+    private char[] line;
+    private int length;
+    private int lineNumber;
+    //True if the last line ended with '\r', so that a following '\n' does not end an other line
+    private boolean afterCR;
+
+    /**
+     * Creates a tokenizer reading a reader from its start.
+     * @param reader the reader
+     */
+    Tokenizer(Reader reader){
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.position = 0;
+        this.limit = 0;
+        this.line = new char[256];
+        this.length = 0;
+        this.lineNumber = 0;
+        this.afterCR = false;
+    }
+
+    /**
+     * Moves to the next line which is not empty once the white spaces and the comments are removed.
+     * @throws IOException if the reader fails
+     * @throws ParseException if the end of the file is reached
+     */
+    void next() throws IOException, ParseException{
+        do{
+            if(!this.readLine()){
+                throw new ParseException("Unexpected end of the file");
+            }
+        }while(this.length == 0);
+    }
+
+    /**
+     * Reads the next line into the line buffer.
+     * @return false if the end of the file was reached before any character.
+     * @throws IOException if the reader fails
+     */
+    private boolean readLine() throws IOException{
+        this.length = 0;
+        boolean comment = false;
+        boolean any = false;
+        while(true){
+            if(this.position == this.limit){
+                this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+                this.position = 0;
+                if(this.limit <= 0){
+                    this.limit = 0;
+                    if(any){this.lineNumber++;}
+                    return any;
+                }
+            }
+            char c = this.buffer[this.position++];
+            if(c == '\n' && this.afterCR){
+                this.afterCR = false;
+                continue;
+            }
+            this.afterCR = c == '\r';
+            if(c == '\n' || c == '\r'){
+                this.lineNumber++;
+                return true;
+            }
+            any = true;
+            if(comment || isWhite(c)){continue;}
+            if(c == '/' && this.length > 0 && this.line[this.length-1] == '/'){
+                //Start of a comment, the rest of the line is ignored
+                this.length--;
+                comment = true;
+                continue;
+            }
+            if(this.length == this.line.length){
+                this.line = Arrays.copyOf(this.line, 2*this.line.length);
+            }
+            this.line[this.length++] = c;
+        }
+    }
+
+    /**
+     * Returns the number of the current line in the file, starting from 1.
+     * @return the number of the line
+     */
+    int lineNumber(){
+        return this.lineNumber;
+    }
+
+    /**
+     * Returns the characters of the current line. Only the first length() characters are the line.
+     * @return the line buffer
+     */
+    char[] chars(){
+        return this.line;
+    }
+
+    /**
+     * Returns the length of the current line.
+     * @return the number of characters of the line
+     */
+    int length(){
+        return this.length;
+    }
+
+    /**
+     * Tests if the current line is a given keyword.
+     * @param keyword a keyword
+     * @return true if the line is equal to the keyword
+     */
+    boolean is(String keyword){
+        return this.length == keyword.length() && this.startsWith(keyword);
+    }
+
+    /**
+     * Tests if the current line starts with a given prefix.
+     * @param prefix a prefix
+     * @return true if the line starts with the prefix
+     */
+    boolean startsWith(String prefix){
+        if(this.length < prefix.length()){return false;}
+        for(int i = 0; i < prefix.length(); i++){
+            if(this.line[i] != prefix.charAt(i)){return false;}
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a character in the current line, after a given index.
+     * @param c a character
+     * @param from the index where the search starts
+     * @return the index, -1 if the character is not found
+     */
+    int indexOf(char c, int from){
+        for(int i = from; i < this.length; i++){
+            if(this.line[i] == c){return i;}
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last occurrence of a character in the current line.
+     * @param c a character
+     * @return the index, -1 if the character is not found
+     */
+    int lastIndexOf(char c){
+        for(int i = this.length-1; i >= 0; i--){
+            if(this.line[i] == c){return i;}
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a part of the current line as a string.
+     * @param from the index of the first character
+     * @param to the index after the last character
+     * @return the string
+     * @throws ParseException if the range is not in the line
+     */
+    String string(int from, int to) throws ParseException{
+        this.checkRange(from, to);
+        return new String(this.line, from, to-from);
+    }
+
+    /**
+     * Reads an int written in decimal in a part of the current line, with an optional sign, as Integer.parseInt.
+     * @param from the index of the first character
+     * @param to the index after the last character
+     * @return the int
+     * @throws ParseException if the range is not in the line or is not an int
+     */
+    int parseInt(int from, int to) throws ParseException{
+        this.checkRange(from, to);
+        boolean negative = false;
+        int i = from;
+        if(i < to && (this.line[i] == '-' || this.line[i] == '+')){
+            negative = this.line[i] == '-';
+            i++;
+        }
+        if(i == to){throw this.malformed();}
+        long value = 0;
+        while(i < to){
+            int d = this.line[i++] - '0';
+            if(d < 0 || d > 9){throw this.malformed();}
+            value = 10*value + d;
+            if(value > (long) Integer.MAX_VALUE + 1){throw this.malformed();}
+        }
+        if(negative){value = -value;}
+        if(value > Integer.MAX_VALUE){throw this.malformed();}
+        return (int) value;
+    }
+
+    /**
+     * Tests if a character is a white space, as \s in a regular expression.
+     * @param c a character
+     * @return true for a white space
+     */
+    private static boolean isWhite(char c){
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\f';
+    }
+
+    private void checkRange(int from, int to) throws ParseException{
+        if(from < 0 || to > this.length || from > to){throw this.malformed();}
+    }
+
+    private ParseException malformed(){
+        return new ParseException("Line "+this.lineNumber+" malformed.");
+    }
+}
@@ -0,0 +1,131 @@
+package pcgd.sharding;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A transport between shards running on threads of the same process. The messages are left in a shared table, and the
+ * shards wait for each other on it.
+ */
+public class InProcessTransport implements Transport {
+
+    /**
+     * What the transports of the shards share : messages[from][to] is the message of the last round from shard
+     * from to shard to. The shards wait on it until all of them have arrived, each time they all arrive a new
+     * generation starts.
+     */
+    private static class Exchange {
+        final byte[][][] messages;
+        int arrived;
+        long generation;
+        boolean closed;
+
+        Exchange(int size){
+            this.messages = new byte[size][][];
+            this.arrived = 0;
+            this.generation = 0;
+            this.closed = false;
+        }
+    }
+
+    private final Exchange exchange;
+    private final int index;
+
+    private InProcessTransport(Exchange exchange, int index){
+        this.exchange = exchange;
+        this.index = index;
+    }
+
+    /**
+     * Creates the transports of a number of shards, each to be used by the thread running one shard.
+     * @param size the number of shards
+     * @return the transport of each shard, by index
+     */
+    public static List<Transport> create(int size){
+        if(size <= 0){
+            throw new IllegalArgumentException("Number of shards must be positive.");
+        }
+        Exchange exchange = new Exchange(size);
+        List<Transport> transports = new ArrayList<>();
+        for(int i = 0; i < size; i++){
+            transports.add(new InProcessTransport(exchange, i));
+        }
+        return transports;
+    }
+
+    @Override
+    public int index(){
+        return this.index;
+    }
+
+    @Override
+    public int size(){
+        return this.exchange.messages.length;
+    }
+
+    @Override
+    public byte[][] exchange(byte[][] messages) throws IOException{
+        int size = this.size();
+        if(messages.length != size){
+            throw new IllegalArgumentException(messages.length+" messages for "+size+" shards.");
+        }
+        synchronized(this.exchange){
+            this.exchange.messages[this.index] = messages;
+        }
+        //Once all the shards have left their messages, each takes its own
+        this.await();
+        byte[][] received = new byte[size][];
+        synchronized(this.exchange){
+            for(int from = 0; from < size; from++){
+                received[from] = this.exchange.messages[from][this.index];
+            }
+        }
+        //The messages of the round can not be replaced before all the shards have taken theirs
+        this.await();
+        return received;
+    }
+
+    /**
+     * Waits for all the shards to arrive.
+     * @throws IOException if a shard closed its transport, or the thread is interrupted
+     */
+    private void await() throws IOException{
+        Exchange e = this.exchange;
+        synchronized(e){
+            if(e.closed){
+                throw new IOException("Transport closed");
+            }
+            long generation = e.generation;
+            if(++e.arrived == e.messages.length){
+                e.arrived = 0;
+                e.generation++;
+                e.notifyAll();
+                return;
+            }
+            while(e.generation == generation && !e.closed){
+                try{
+                    e.wait();
+                }catch(InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the other shards");
+                }
+            }
+            if(e.generation == generation){
+                throw new IOException("A shard left the exchange");
+            }
+        }
+    }
+
+    /**
+     * Closes the transports of all the shards, the ones waiting for a round fail.
+     */
+    @Override
+    public void close(){
+        synchronized(this.exchange){
+            this.exchange.closed = true;
+            this.exchange.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package pcgd.sharding;
+
+import pcgd.dynamics.PCGD;
+import pcgd.graphs.Graph;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that a sharded graph follows Graph.apply : the graph of a file is read into 1 to n shards, and after each
+ * step the shards put together must be the graph given by Graph.apply, but for the names of the new vertices. As these
+ * names differ, the two graphs are compared by colour refinement : each vertex starts with the colour of its state and
+ * of its name, the same for all the new vertices, and takes at each round the colour of its own and of its neighbours
+ * through each port, until the colours stop splitting. Two graphs with the same colours are the same but for a renaming
+ * of the new vertices, as far as colour refinement can tell.
+ */
+public class ShardCheck {
+
+    public static void main(String[] args) throws IOException, ParseException{
+        if(args.length != 4){
+            System.out.println("4 Arguments Expected :\n" +
+                    " - name of the file containing the input graph,\n" +
+                    " - name of the file containing the PCGD description,\n" +
+                    " - number of steps to run,\n" +
+                    " - greatest number of shards to check, from 1.");
+            return;
+        }
+        PCGD p = Parser.parsePCGD(args[1]);
+        int steps = Integer.parseInt(args[2]);
+        int shards = Integer.parseInt(args[3]);
+        //The colours of the graph of Graph.apply at each step
+        Graph single = Parser.parseGraph(args[0]);
+        long[][] expected = new long[steps+1][];
+        for(int i = 0; i <= steps; i++){
+            if(i > 0){single.apply(p);}
+            expected[i] = colours(single);
+        }
+        boolean ok = true;
+        for(int n = 1; n <= shards; n++){
+            int failed = -1;
+            try(ShardedGraph sg = ShardedGraph.load(args[0], n)){
+                for(int i = 0; i <= steps && failed == -1; i++){
+                    if(i > 0){sg.apply(p);}
+                    if(!Arrays.equals(colours(sg.toGraph()), expected[i])){failed = i;}
+                }
+                System.out.println(n+" shards : "+(failed == -1 ? "same graphs" : "different graphs at step "+failed)+
+                        ", vertices by shard "+Arrays.toString(sg.vertexCounts()));
+            }
+            ok &= failed == -1;
+        }
+        if(!ok){System.exit(1);}
+    }
+
+    /**
+     * Colours the vertices of a graph by colour refinement, the new vertices being told apart only by their states and
+     * their neighbours.
+     * @param g the graph
+     * @return the colours of the vertices in increasing order, followed by the number of edges
+     */
+    static long[] colours(Graph g){
+        int capacity = g.vertexCapacity();
+        long[] colours = new long[capacity];
+        for(int v = 0; v < capacity; v++){
+            if(!g.isVertex(v)){continue;}
+            String name = g.nameOf(v);
+            colours[v] = mix(name.startsWith(Graph.FRESH_PREFIX) ? 0 : name.hashCode(), g.stateOf(v));
+        }
+        int classes = count(g, colours);
+        while(true){
+            long[] next = new long[capacity];
+            for(int v = 0; v < capacity; v++){
+                if(!g.isVertex(v)){continue;}
+                long c = colours[v];
+                //The free ports are left out, as the bound on the ports depends on how the graph was built
+                for(int p = 0; p < g.portBound(v); p++){
+                    int u = g.oppositeVertex(v, p);
+                    if(u < 0){continue;}
+                    c = mix(mix(mix(c, p), g.oppositePort(v, p)), colours[u]);
+                }
+                next[v] = c;
+            }
+            colours = next;
+            int more = count(g, colours);
+            if(more == classes){break;}
+            classes = more;
+        }
+        long[] sorted = new long[g.vertexCount()+1];
+        int n = 0;
+        for(int v = 0; v < capacity; v++){
+            if(g.isVertex(v)){sorted[n++] = colours[v];}
+        }
+        Arrays.sort(sorted, 0, n);
+        sorted[n] = g.edgeCount();
+        return sorted;
+    }
+
+    private static int count(Graph g, long[] colours){
+        Set<Long> distinct = new HashSet<>();
+        for(int v = 0; v < colours.length; v++){
+            if(g.isVertex(v)){distinct.add(colours[v]);}
+        }
+        return distinct.size();
+    }
+
+    private static long mix(long h, long x){
+        h = (h ^ x) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
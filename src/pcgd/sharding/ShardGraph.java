@@ -0,0 +1,132 @@
+package pcgd.sharding;
+
+import pcgd.graphs.Graph;
+import pcgd.graphs.PatternPlan;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The graph a shard finds the matches in : the vertices of the shard, and the ghosts, copies of the vertices of the
+ * other shards near them. Each vertex keeps its record, and the edges of the graph are the ones of the records whose
+ * two ends are in the graph; the ports leading to the other vertices are left free. The graph is kept from one cycle
+ * to the next, the records being replaced as the shards tell each other what changed.
+ */
+final class ShardGraph extends Graph {
+
+    //The record of each vertex, by id
+    private VertexRecord[] records;
+
+    ShardGraph(){
+        this.records = new VertexRecord[16];
+    }
+
+    /**
+     * Returns the record of a vertex.
+     * @param v the id of the vertex
+     * @return the record
+     */
+    VertexRecord record(int v){
+        return this.records[v];
+    }
+
+    /**
+     * Returns the record of a vertex.
+     * @param name the name of the vertex
+     * @return the record, or null if the vertex is not in the graph
+     */
+    VertexRecord record(String name){
+        int v = this.idOf(name);
+        return v == -1 ? null : this.records[v];
+    }
+
+    /**
+     * Adds a vertex, or gives a new record to a vertex of the graph, and connects it as its record says to the vertices
+     * of the graph whose records agree. When several records change at once, the edges are right once all of them are
+     * given, in any order.
+     * @param r the record of the vertex
+     */
+    void put(VertexRecord r){
+        int v = this.idOf(r.name);
+        if(v == -1){
+            v = this.newVertex(r.name, r.state);
+            if(v >= this.records.length){
+                this.records = Arrays.copyOf(this.records, Math.max(2*this.records.length, v+1));
+            }
+        }else{
+            this.unlinkAll(v);
+            this.setState(v, r.state);
+        }
+        this.records[v] = r;
+        for(int p = 0; p < r.portBound(); p++){
+            String far = r.farName(p);
+            if(far == null || this.oppositeVertex(v, p) != FREE){continue;}
+            int u = this.idOf(far);
+            int q = r.farPort(p);
+            if(u == -1 || this.oppositeVertex(u, q) != FREE){continue;}
+            VertexRecord s = this.records[u];
+            if(r.name.equals(s.farName(q)) && s.farPort(q) == p){
+                this.link(v, p, u, q);
+            }
+        }
+    }
+
+    /**
+     * Removes a vertex, if it is in the graph.
+     * @param name the name of the vertex
+     */
+    void remove(String name){
+        int v = this.idOf(name);
+        if(v == -1){return;}
+        this.unlinkAll(v);
+        this.deleteVertex(v);
+        this.records[v] = null;
+    }
+
+    private void unlinkAll(int v){
+        for(int p = 0; p < this.portBound(v); p++){
+            this.unlink(v, p);
+        }
+    }
+
+    /**
+     * Returns the distance of each vertex to the nearest vertex of a shard, along the edges of the graph.
+     * @param owner the index of the shard
+     * @param depth the greatest distance wanted
+     * @return the distance of each vertex, by id, depth+1 for the vertices further away and the ids not in use
+     */
+    int[] distances(int owner, int depth){
+        int capacity = this.vertexCapacity();
+        int[] distances = new int[capacity];
+        Arrays.fill(distances, depth+1);
+        int[] queue = new int[this.vertexCount()];
+        int n = 0;
+        for(int v = 0; v < capacity; v++){
+            if(this.isVertex(v) && this.records[v].owner == owner){
+                distances[v] = 0;
+                queue[n++] = v;
+            }
+        }
+        for(int k = 0; k < n; k++){
+            int v = queue[k];
+            if(distances[v] == depth){break;}
+            for(int p = 0; p < this.portBound(v); p++){
+                int u = this.oppositeVertex(v, p);
+                if(u >= 0 && distances[u] > depth){
+                    distances[u] = distances[v]+1;
+                    queue[n++] = u;
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Finds the matches of a compiled pattern, as findPattern does.
+     * @param plan the compiled pattern
+     * @return the matches, match[o] being the id of the vertex bound to the vertex o of the pattern
+     */
+    List<int[]> matches(PatternPlan plan){
+        return this.findMatches(plan);
+    }
+}
@@ -0,0 +1,1018 @@
+package pcgd.sharding;
+
+import pcgd.dynamics.CyclicPermutation;
+import pcgd.dynamics.PCGD;
+import pcgd.graphs.Edge;
+import pcgd.graphs.Exceptions.EdgePortException;
+import pcgd.graphs.Exceptions.VertexNameException;
+import pcgd.graphs.Graph;
+import pcgd.graphs.JSONExporter;
+import pcgd.graphs.PatternPlan;
+import pcgd.graphs.SemiEdge;
+import pcgd.graphs.Subgraph;
+import pcgd.graphs.Vertex;
+import pcgd.parser.GraphHandler;
+import pcgd.parser.ParseException;
+import pcgd.parser.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * One shard of a graph split between several shards, which apply a PCGD together, each one to the vertices it owns.
+ * The shards run the same rounds through a Transport, and only send each other the vertices they need.
+ *
+ * Each vertex is owned by one shard : at first the graph is cut into blocks of vertices, then a new vertex is owned by
+ * the shard which created it. Besides its own vertices, a shard keeps ghosts, copies of the vertices of the other shards
+ * at distance at most r+1 of its own, r being the greatest radius of the parts of the PCGD, all of them in a ShardGraph
+ * kept from one cycle to the next. Each cycle of the PCGD is applied in four parts :
+ *  - the halo : each shard asks the others for the vertices it misses at distance at most r+1 of its own, and drops
+ *    the ghosts gone further away. All the vertices of a match are at distance at most r of the vertex bound to the
+ *    first vertex of its pattern, so each shard finds in its ShardGraph all the matches whose first vertex is bound to
+ *    one of its vertices. Each match is found by exactly one shard.
+ *  - the replacement : the shard which found a match tells the owners of its vertices what becomes of them, and creates
+ *    the new vertices. Each semi edge of the pattern is replaced by its image in a second round : the owner of the
+ *    vertex it was plugged on connects the image to this vertex, or, if this vertex is in an other match, to the image
+ *    of the semi edge of this match.
+ *  - the shards write the ports of their vertices as told.
+ *  - each shard sends the vertices it changed to the shards holding a ghost of them, and all of them update their
+ *    ShardGraph.
+ * The graph obtained is the one Graph.apply gives, but for the names of the new vertices, which are given by each shard
+ * with its own prefix so that no name is given twice.
+ */
+public class ShardNode {
+
+    //The operations sent from shard to shard
+    private static final byte REQUEST = 0;
+    private static final byte RECORD = 1;
+    private static final byte DELETE = 2;
+    private static final byte UPDATE = 3;
+    private static final byte CREATE = 4;
+    private static final byte WRITE = 5;
+    private static final byte SEMI = 6;
+    private static final byte PLUG = 7;
+    private static final byte DROP = 8;
+    private static final byte GONE = 9;
+    private static final byte REGISTER = 10;
+    private static final byte QUERY = 11;
+    private static final byte ANSWER = 12;
+    private static final byte ERROR = 13;
+    private static final byte NODE = 14;
+
+    //The number of vertices each shard sends in each round of an export
+    private static final int EXPORT_CHUNK = 4096;
+
+    private final Transport transport;
+    private final int index;
+    private final int size;
+    //The vertices owned by this shard, by name
+    private final Map<String, VertexRecord> owned;
+    //The vertices of this shard and the ghosts
+    private final ShardGraph local;
+    //The shards holding a ghost of each vertex of this shard, if any
+    private final Map<String, BitSet> subscribers;
+    //The ghosts dropped, whose owners are told in the next halo
+    private final List<VertexRecord> dropped;
+    private int freshNumber;
+
+    private ShardNode(Transport transport){
+        this.transport = transport;
+        this.index = transport.index();
+        this.size = transport.size();
+        this.owned = new LinkedHashMap<>();
+        this.local = new ShardGraph();
+        this.subscribers = new HashMap<>();
+        this.dropped = new ArrayList<>();
+        this.freshNumber = 0;
+    }
+
+    /**
+     * Creates a shard from a whole graph, keeping the vertices of the graph this shard owns. All the shards must be
+     * created from the same graph. Only meant for graphs held by one process, as by ShardedGraph : the shards of a
+     * graph too large for one process are made by load.
+     * @param g the graph, not modified
+     * @param transport the transport of this shard
+     */
+    public ShardNode(Graph g, Transport transport){
+        this(transport);
+        int[] owners = owners(g, this.size);
+        for(int v = 0; v < owners.length; v++){
+            if(owners[v] == this.index){
+                this.owned.put(g.nameOf(v), VertexRecord.of(g, v, owners));
+            }
+        }
+        for(VertexRecord r : this.owned.values()){
+            this.local.put(r);
+        }
+    }
+
+    /**
+     * Reads the shard of a graph file, together with the other shards : each shard reads the file and only keeps its
+     * vertices and their edges, so that no shard ever holds the whole graph. The vertices are cut into blocks of
+     * the same size in the order of the file, so a file listing the vertices close to each other together keeps them
+     * in the same shard. The owners of the vertices of the other shards are found through a directory split between
+     * the shards by the hash of the names.
+     * @param filename the name of the graph file, the same for all the shards
+     * @param transport the transport of this shard
+     * @return the shard
+     * @throws IOException if the file can not be read, or the transport fails
+     * @throws ParseException if the file is malformed, or with all the errors of its vertices and edges, by line, the
+     * same for all the shards
+     */
+    public static ShardNode load(String filename, Transport transport) throws IOException, ParseException{
+        ShardNode node = new ShardNode(transport);
+        Loader loader = node.new Loader();
+        Parser.parseGraph(filename, loader);
+        loader.pass++;
+        Parser.parseGraph(filename, loader);
+        loader.pass++;
+        Parser.parseGraph(filename, loader);
+        loader.resolve();
+        for(VertexRecord r : node.owned.values()){
+            node.local.put(r);
+        }
+        return node;
+    }
+
+    /**
+     * Cuts a graph into blocks of vertices of the same size, the vertices of a block being close to each other : the
+     * vertices are taken in the order of breadth first traversals, from the lowest id of each connected component.
+     * @param g the graph
+     * @param size the number of blocks
+     * @return the index of the block of each vertex, by id, -1 for an id not in use
+     */
+    static int[] owners(Graph g, int size){
+        int capacity = g.vertexCapacity();
+        int[] owners = new int[capacity];
+        Arrays.fill(owners, -1);
+        int count = g.vertexCount();
+        int[] queue = new int[count];
+        boolean[] seen = new boolean[capacity];
+        int n = 0;
+        for(int s = 0; s < capacity; s++){
+            if(!g.isVertex(s) || seen[s]){continue;}
+            seen[s] = true;
+            queue[n++] = s;
+            for(int k = n-1; k < n; k++){
+                int v = queue[k];
+                for(int p = 0; p < g.portBound(v); p++){
+                    int u = g.oppositeVertex(v, p);
+                    if(u >= 0 && !seen[u]){
+                        seen[u] = true;
+                        queue[n++] = u;
+                    }
+                }
+            }
+        }
+        for(int k = 0; k < n; k++){
+            owners[queue[k]] = (int) ((long) k * size / count);
+        }
+        return owners;
+    }
+
+    /**
+     * Returns the index of this shard.
+     * @return the index
+     */
+    public int getIndex(){
+        return this.index;
+    }
+
+    /**
+     * Returns the number of vertices this shard owns.
+     * @return the number of vertices
+     */
+    public int vertexCount(){
+        return this.owned.size();
+    }
+
+    /**
+     * Returns the number of ghosts this shard holds.
+     * @return the number of ghosts
+     */
+    public int ghostCount(){
+        return this.local.vertexCount() - this.owned.size();
+    }
+
+    /**
+     * Applies a PCGD, together with the other shards.
+     * @param pcgd the dynamic, the same for all the shards
+     * @throws IOException if the transport fails
+     */
+    public void apply(PCGD pcgd) throws IOException{
+        //The same halo for all the cycles, so that the ghosts are not dropped by one cycle and asked again by the next
+        int depth = 1;
+        for(int c = 0; c < pcgd.size(); c++){
+            CyclicPermutation cycle = pcgd.get(c);
+            for(int k = 0; k < cycle.size(); k++){
+                depth = Math.max(depth, cycle.getPlan(k).radius()+1);
+            }
+        }
+        for(int c = 0; c < pcgd.size(); c++){
+            this.apply(pcgd.get(c), depth);
+        }
+    }
+
+    /**
+     * Applies one cyclic permutation, together with the other shards.
+     * @param cycle the cyclic permutation
+     * @param depth the depth of the halo, more than the radius of all the parts of the cycle
+     * @throws IOException if the transport fails
+     */
+    private void apply(CyclicPermutation cycle, int depth) throws IOException{
+        int n = cycle.size();
+        this.halo(depth);
+        //All the matches are found before anything is replaced
+        Messages out = new Messages(this.size);
+        for(int k = 0; k < n; k++){
+            PatternPlan plan = cycle.getPlan(k);
+            int key = plan.key();
+            if(key == -1){continue;}
+            for(int[] match : this.local.matches(plan)){
+                if(this.local.record(match[key]).owner == this.index){
+                    this.replace(cycle.getPattern(k), cycle.getPattern((k+1)%n), cycle.getAttachment(k), match, out);
+                }
+            }
+        }
+        Set<String> changed = new LinkedHashSet<>();
+        Messages writes = new Messages(this.size);
+        this.receiveReplacements(this.transport.exchange(out.toArray()), writes, changed);
+        this.receiveWrites(this.transport.exchange(writes.toArray()), changed);
+        this.publish(changed);
+    }
+
+    /**
+     * Gets the vertices at distance at most depth of the vertices of this shard which are not held yet, and drops the
+     * ghosts further away. Each round asks for the vertices missing next to the ones within depth, until no shard
+     * misses any or depth rounds are done, as a vertex at distance d is held after d rounds.
+     * @param depth the distance
+     * @throws IOException if the transport fails
+     */
+    private void halo(int depth) throws IOException{
+        for(int d = 0; d < depth; d++){
+            Messages requests = new Messages(this.size);
+            //The owners of the ghosts dropped before stop sending them, before they are maybe asked again
+            for(VertexRecord r : this.dropped){
+                requests.out(r.owner).writeByte(DROP);
+                requests.out(r.owner).writeUTF(r.name);
+            }
+            this.dropped.clear();
+            int[] distances = this.local.distances(this.index, depth);
+            Set<String> asked = new HashSet<>();
+            for(int v = 0; v < distances.length; v++){
+                if(distances[v] >= depth){continue;}
+                VertexRecord r = this.local.record(v);
+                for(int p = 0; p < r.portBound(); p++){
+                    String far = r.farName(p);
+                    if(far != null && this.local.oppositeVertex(v, p) == Graph.FREE && asked.add(far)){
+                        requests.out(r.farOwner(p)).writeByte(REQUEST);
+                        requests.out(r.farOwner(p)).writeUTF(far);
+                    }
+                }
+            }
+            //Every shard tells the others if it asked for anything, so that they all stop at the same round
+            for(int j = 0; j < this.size; j++){
+                requests.out(j).writeBoolean(!asked.isEmpty());
+            }
+            byte[][] received = this.transport.exchange(requests.toArray());
+            Messages records = new Messages(this.size);
+            boolean more = false;
+            for(int from = 0; from < this.size; from++){
+                DataInputStream in = input(received[from]);
+                while(in.available() > 1){
+                    byte op = in.readByte();
+                    String name = in.readUTF();
+                    if(op == DROP){
+                        this.unsubscribe(name, from);
+                    }else if(op == REQUEST){
+                        VertexRecord r = this.ownedRecord(name);
+                        this.subscribers.computeIfAbsent(name, x -> new BitSet()).set(from);
+                        records.out(from).writeByte(RECORD);
+                        r.write(records.out(from));
+                    }else{
+                        throw new IOException("Unexpected operation "+op);
+                    }
+                }
+                more |= in.readBoolean();
+            }
+            if(!more){break;}
+            received = this.transport.exchange(records.toArray());
+            for(byte[] message : received){
+                DataInputStream in = input(message);
+                while(in.available() > 0){
+                    expect(in, RECORD);
+                    VertexRecord r = VertexRecord.read(in);
+                    if(this.local.record(r.name) == null){this.local.put(r);}
+                }
+            }
+        }
+        int[] distances = this.local.distances(this.index, depth);
+        for(int v = 0; v < distances.length; v++){
+            if(distances[v] > depth && this.local.isVertex(v)){
+                this.dropped.add(this.local.record(v));
+            }
+        }
+        for(VertexRecord r : this.dropped){
+            this.local.remove(r.name);
+        }
+    }
+
+    private void unsubscribe(String name, int shard){
+        BitSet s = this.subscribers.get(name);
+        //The vertex may have been removed since the ghost was dropped
+        if(s == null){return;}
+        s.clear(shard);
+        if(s.isEmpty()){this.subscribers.remove(name);}
+    }
+
+    /**
+     * Sends the replacement of a match to the owners of the vertices concerned.
+     * @param pattern the pattern matched
+     * @param image the image of the pattern
+     * @param attachment the attachment map from the semi edges of the pattern to the semi edges of the image
+     * @param match the match, match[o] being the id in the ShardGraph of the vertex bound to the vertex o of the pattern
+     * @param out the messages to the other shards
+     * @throws IOException never, the messages are written in memory
+     */
+    private void replace(Subgraph pattern, Subgraph image, Map<SemiEdge, SemiEdge> attachment, int[] match,
+                         Messages out) throws IOException{
+        //The vertices of the pattern which are not in the image are removed
+        for(int o = 0; o < pattern.vertexCapacity(); o++){
+            if(!pattern.isVertex(o) || image.idOf(pattern.nameOf(o)) != -1){continue;}
+            VertexRecord v = this.local.record(match[o]);
+            out.out(v.owner).writeByte(DELETE);
+            out.out(v.owner).writeUTF(v.name);
+        }
+        //The vertices of the image are the kept vertices of the pattern, with the state of the image, and new vertices
+        Map<String, String> names = new HashMap<>();
+        Map<String, Integer> owners = new HashMap<>();
+        for(int i = 0; i < image.vertexCapacity(); i++){
+            if(!image.isVertex(i)){continue;}
+            String name = image.nameOf(i);
+            DataOutputStream o;
+            if(pattern.idOf(name) != -1){
+                VertexRecord v = this.local.record(match[pattern.idOf(name)]);
+                names.put(name, v.name);
+                owners.put(v.name, v.owner);
+                o = out.out(v.owner);
+                o.writeByte(UPDATE);
+            }else{
+                String fresh = this.getFreshName();
+                names.put(name, fresh);
+                owners.put(fresh, this.index);
+                o = out.out(this.index);
+                o.writeByte(CREATE);
+            }
+            o.writeUTF(names.get(name));
+            o.writeInt(image.stateOf(i));
+        }
+        //Each end of the edges of the image is written by its owner
+        for(int i = 0; i < image.vertexCapacity(); i++){
+            if(!image.isVertex(i)){continue;}
+            String v = names.get(image.nameOf(i));
+            for(int p = 0; p < image.portBound(i); p++){
+                int j = image.oppositeVertex(i, p);
+                if(j < 0){continue;}
+                String u = names.get(image.nameOf(j));
+                write(out.out(owners.get(v)), v, p, u, image.oppositePort(i, p), owners.get(u));
+            }
+        }
+        //The semi edges of the pattern are replaced by their images, where they were plugged
+        for(int o = 0; o < pattern.vertexCapacity(); o++){
+            if(!pattern.isVertex(o)){continue;}
+            VertexRecord h = this.local.record(match[o]);
+            for(int p = 0; p < pattern.portBound(o); p++){
+                if(pattern.oppositeVertex(o, p) != Graph.SEMI){continue;}
+                SemiEdge alpha = attachment.get(new SemiEdge(pattern.nameOf(o), p));
+                String v = names.get(alpha.getName());
+                int vOwner = owners.get(v);
+                DataOutputStream semi = out.out(h.owner);
+                semi.writeByte(SEMI);
+                endpoint(semi, h.name, p, h.owner);
+                endpoint(semi, v, alpha.getPort(), vOwner);
+                DataOutputStream plug = out.out(h.farOwner(p));
+                plug.writeByte(PLUG);
+                endpoint(plug, h.farName(p), h.farPort(p), h.farOwner(p));
+                endpoint(plug, v, alpha.getPort(), vOwner);
+            }
+        }
+    }
+
+    /**
+     * Applies the replacements sent by the shards to the vertices of this shard, and tells the owners of the images of
+     * the semi edges where to plug them.
+     * @param received the message of each shard
+     * @param writes the messages of the second round
+     * @param changed where to add the names of the vertices of this shard changed, removed or created
+     * @throws IOException if a message is damaged
+     */
+    private void receiveReplacements(byte[][] received, Messages writes, Set<String> changed) throws IOException{
+        List<String> deleted = new ArrayList<>();
+        List<VertexRecord> updated = new ArrayList<>();
+        List<VertexRecord> created = new ArrayList<>();
+        List<Endpoint[]> edges = new ArrayList<>();
+        Map<Endpoint, Endpoint> semis = new HashMap<>();
+        List<Endpoint[]> plugs = new ArrayList<>();
+        for(byte[] message : received){
+            DataInputStream in = input(message);
+            while(in.available() > 0){
+                byte op = in.readByte();
+                switch(op){
+                    case DELETE :
+                        deleted.add(in.readUTF());
+                        break;
+                    case UPDATE :
+                        updated.add(new VertexRecord(in.readUTF(), in.readInt(), this.index));
+                        break;
+                    case CREATE :
+                        created.add(new VertexRecord(in.readUTF(), in.readInt(), this.index));
+                        break;
+                    case WRITE :
+                        edges.add(new Endpoint[]{Endpoint.read(in), Endpoint.read(in)});
+                        break;
+                    case SEMI :
+                        semis.put(Endpoint.read(in), Endpoint.read(in));
+                        break;
+                    case PLUG :
+                        plugs.add(new Endpoint[]{Endpoint.read(in), Endpoint.read(in)});
+                        break;
+                    default :
+                        throw new IOException("Unexpected operation "+op);
+                }
+            }
+        }
+        //A vertex can only be in one match
+        Set<String> touched = new HashSet<>();
+        for(String name : deleted){
+            this.ownedRecord(name);
+            this.checkOnce(touched, name);
+            this.owned.remove(name);
+        }
+        for(VertexRecord u : updated){
+            VertexRecord v = this.ownedRecord(u.name);
+            this.checkOnce(touched, u.name);
+            v.state = u.state;
+            v.clearPorts();
+        }
+        for(VertexRecord v : created){
+            if(this.owned.putIfAbsent(v.name, v) != null){
+                throw new IllegalStateException("Vertex \""+v.name+"\" created twice.");
+            }
+        }
+        changed.addAll(touched);
+        for(VertexRecord v : created){
+            changed.add(v.name);
+        }
+        for(Endpoint[] e : edges){
+            this.ownedRecord(e[0].name).setPort(e[0].port, e[1].name, e[1].port, e[1].owner);
+        }
+        for(Endpoint[] plug : plugs){
+            Endpoint x = plug[0];
+            Endpoint v = plug[1];
+            Endpoint image = semis.get(x);
+            if(image == null){
+                //Plugged on a vertex which is not in a match, the vertex keeps its port
+                this.ownedRecord(x.name).setPort(x.port, v.name, v.port, v.owner);
+                changed.add(x.name);
+                image = x;
+            }
+            write(writes.out(v.owner), v.name, v.port, image.name, image.port, image.owner);
+        }
+    }
+
+    /**
+     * Writes the ports sent by the shards in the second round of a replacement.
+     * @param received the message of each shard
+     * @param changed where to add the names of the vertices of this shard changed
+     * @throws IOException if a message is damaged
+     */
+    private void receiveWrites(byte[][] received, Set<String> changed) throws IOException{
+        for(byte[] message : received){
+            DataInputStream in = input(message);
+            while(in.available() > 0){
+                expect(in, WRITE);
+                Endpoint v = Endpoint.read(in);
+                Endpoint u = Endpoint.read(in);
+                this.ownedRecord(v.name).setPort(v.port, u.name, u.port, u.owner);
+                changed.add(v.name);
+            }
+        }
+    }
+
+    /**
+     * Sends the vertices of this shard changed by a cycle to the shards holding a ghost of them, and updates the
+     * ShardGraph with the vertices changed by this shard and by the others.
+     * @param changed the names of the vertices of this shard changed, removed or created
+     * @throws IOException if the transport fails
+     */
+    private void publish(Set<String> changed) throws IOException{
+        Messages out = new Messages(this.size);
+        List<VertexRecord> updated = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for(String name : changed){
+            VertexRecord r = this.owned.get(name);
+            BitSet s = r == null ? this.subscribers.remove(name) : this.subscribers.get(name);
+            if(r == null){
+                removed.add(name);
+            }else{
+                updated.add(r);
+            }
+            if(s == null){continue;}
+            for(int j = s.nextSetBit(0); j >= 0; j = s.nextSetBit(j+1)){
+                if(r == null){
+                    out.out(j).writeByte(GONE);
+                    out.out(j).writeUTF(name);
+                }else{
+                    out.out(j).writeByte(RECORD);
+                    r.write(out.out(j));
+                }
+            }
+        }
+        byte[][] received = this.transport.exchange(out.toArray());
+        for(byte[] message : received){
+            DataInputStream in = input(message);
+            while(in.available() > 0){
+                byte op = in.readByte();
+                //The ghosts dropped in the last halo are still sent, until their owners are told
+                if(op == RECORD){
+                    VertexRecord r = VertexRecord.read(in);
+                    if(this.local.record(r.name) != null){updated.add(r);}
+                }else if(op == GONE){
+                    removed.add(in.readUTF());
+                }else{
+                    throw new IOException("Unexpected operation "+op);
+                }
+            }
+        }
+        for(String name : removed){
+            this.local.remove(name);
+        }
+        for(VertexRecord r : updated){
+            this.local.put(r);
+        }
+    }
+
+    /**
+     * Writes the graph in the JSON format of the visualizer, together with the other shards : they send their vertices,
+     * then their edges, to the first shard in rounds of a bounded size, and it writes them as it gets them. No shard
+     * holds the whole graph.
+     * @param filename the name of the file, written by the first shard
+     * @param gzip true to gzip the file
+     * @throws IOException if the transport fails, or the file can not be written
+     */
+    public void exportAsJSON(String filename, boolean gzip) throws IOException{
+        List<VertexRecord> records = new ArrayList<>(this.owned.values());
+        //All the shards must run as many rounds as the one with the most vertices
+        Messages counts = new Messages(this.size);
+        for(int j = 0; j < this.size; j++){
+            counts.out(j).writeInt(records.size());
+        }
+        int rounds = 0;
+        for(byte[] message : this.transport.exchange(counts.toArray())){
+            rounds = Math.max(rounds, (input(message).readInt() + EXPORT_CHUNK - 1) / EXPORT_CHUNK);
+        }
+        JSONExporter json = this.index == 0 ? new JSONExporter() : null;
+        try{
+            if(json != null){json.begin(filename, gzip);}
+            for(int k = 0; k < 2*rounds; k++){
+                boolean links = k >= rounds;
+                Messages out = new Messages(this.size);
+                int from = (links ? k-rounds : k) * EXPORT_CHUNK;
+                for(int i = from; i < Math.min(from+EXPORT_CHUNK, records.size()); i++){
+                    VertexRecord r = records.get(i);
+                    if(!links){
+                        out.out(0).writeByte(NODE);
+                        out.out(0).writeUTF(r.name);
+                        out.out(0).writeInt(r.state);
+                        continue;
+                    }
+                    for(int p = 0; p < r.portBound(); p++){
+                        if(r.farName(p) == null || !r.lowEnd(p)){continue;}
+                        write(out.out(0), r.name, p, r.farName(p), r.farPort(p), r.farOwner(p));
+                    }
+                }
+                byte[][] received = this.transport.exchange(out.toArray());
+                if(json == null){continue;}
+                for(byte[] message : received){
+                    DataInputStream in = input(message);
+                    while(in.available() > 0){
+                        byte op = in.readByte();
+                        if(op == NODE){
+                            json.node(in.readUTF(), in.readInt());
+                        }else if(op == WRITE){
+                            Endpoint v = Endpoint.read(in);
+                            Endpoint u = Endpoint.read(in);
+                            json.link(v.name, v.port, u.name, u.port);
+                        }else{
+                            throw new IOException("Unexpected operation "+op);
+                        }
+                    }
+                }
+            }
+            if(json != null){json.end();}
+        }finally{
+            if(json != null){json.close();}
+        }
+    }
+
+    /**
+     * Adds the vertices of this shard to a graph.
+     * @param g the graph
+     * @throws IllegalStateException if a vertex is already in the graph
+     */
+    void addVertices(Graph g){
+        try{
+            for(VertexRecord r : this.owned.values()){
+                g.addVertex(r.name, r.state);
+            }
+        }catch(VertexNameException e){
+            throw new IllegalStateException("Inconsistent shards : "+e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the edges of the vertices of this shard to a graph holding the vertices of all the shards. Each edge is
+     * added by the shard owning its lowest end.
+     * @param g the graph
+     * @throws IllegalStateException if an end is not in the graph, or a port is used twice
+     */
+    void addEdges(Graph g){
+        try{
+            for(VertexRecord r : this.owned.values()){
+                for(int p = 0; p < r.portBound(); p++){
+                    if(r.farName(p) != null && r.lowEnd(p)){
+                        g.addEdge(r.name, p, r.farName(p), r.farPort(p));
+                    }
+                }
+            }
+        }catch(VertexNameException | EdgePortException e){
+            throw new IllegalStateException("Inconsistent shards : "+e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns a vertex of this shard.
+     * @param name the name of the vertex
+     * @return the vertex
+     * @throws IllegalStateException if the vertex is not owned by this shard
+     */
+    private VertexRecord ownedRecord(String name){
+        VertexRecord r = this.owned.get(name);
+        if(r == null){
+            throw new IllegalStateException("Vertex \""+name+"\" not owned by shard "+this.index);
+        }
+        return r;
+    }
+
+    private void checkOnce(Set<String> touched, String name){
+        if(!touched.add(name)){
+            throw new IllegalStateException("Vertex \""+name+"\" in two overlapping matches.");
+        }
+    }
+
+    /**
+     * Return a name that is fresh, using the prefix of the fresh names of the graphs, the index of this shard and a
+     * unique integer.
+     * @return a fresh name
+     */
+    private String getFreshName(){
+        this.freshNumber++;
+        return Graph.FRESH_PREFIX+this.index+"."+this.freshNumber;
+    }
+
+    private static void write(DataOutputStream out, String v, int p, String u, int q, int uOwner) throws IOException{
+        out.writeByte(WRITE);
+        endpoint(out, v, p, -1);
+        endpoint(out, u, q, uOwner);
+    }
+
+    private static void endpoint(DataOutputStream out, String name, int port, int owner) throws IOException{
+        out.writeUTF(name);
+        out.writeInt(port);
+        out.writeInt(owner);
+    }
+
+    private static DataInputStream input(byte[] message){
+        return new DataInputStream(new ByteArrayInputStream(message));
+    }
+
+    private static void expect(DataInputStream in, byte op) throws IOException{
+        byte read = in.readByte();
+        if(read != op){
+            throw new IOException("Unexpected operation "+read);
+        }
+    }
+
+    /**
+     * Reads the shard of a graph file in three passes over the file : the vertices are counted, then the vertices of this
+     * shard are kept, then their edges. The names of the other vertices are then looked up in the directory, which is
+     * split between the shards by the hash of the names, and where each shard registered its vertices. Like
+     * GraphBuilder, the errors do not stop the reading and are all reported together; as a shard only knows a part of
+     * the graph, they are sent to all the shards before any of them gives up.
+     */
+    private final class Loader implements GraphHandler {
+        int pass;
+        //The number of vertices of the file, and the number read in the current pass
+        int vertices;
+        int read;
+        int edges;
+        //The registrations of the vertices and the queries of the names, for each shard of the directory
+        final Messages directory;
+        final Set<String> queried;
+        //The edges whose ends are not all vertices of this shard, to check once the names are looked up
+        final List<Edge> pending;
+        final List<Integer> pendingLines;
+        final List<Integer> errorLines;
+        final List<String> errors;
+
+        Loader(){
+            this.pass = 0;
+            this.vertices = 0;
+            this.read = 0;
+            this.edges = 0;
+            this.directory = new Messages(ShardNode.this.size);
+            this.queried = new HashSet<>();
+            this.pending = new ArrayList<>();
+            this.pendingLines = new ArrayList<>();
+            this.errorLines = new ArrayList<>();
+            this.errors = new ArrayList<>();
+        }
+
+        @Override
+        public void vertex(String name, int state, int line){
+            if(this.pass == 0){
+                this.vertices++;
+                return;
+            }
+            if(this.pass != 1){return;}
+            int owner = (int) ((long) this.read++ * ShardNode.this.size / this.vertices);
+            if(owner != ShardNode.this.index){return;}
+            ShardNode.this.owned.putIfAbsent(name, new VertexRecord(name, state, ShardNode.this.index));
+            //A name given twice is found by the directory, whether both vertices are in this shard or not
+            try{
+                DataOutputStream out = this.directory.out(this.home(name));
+                out.writeByte(REGISTER);
+                out.writeUTF(name);
+                out.writeInt(line);
+                out.writeInt(state);
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void edge(String name1, int port1, String name2, int port2, int line){
+            if(this.pass != 2){return;}
+            int k = this.edges++;
+            VertexRecord r1 = ShardNode.this.owned.get(name1);
+            VertexRecord r2 = ShardNode.this.owned.get(name2);
+            Edge e = new Edge(name1, port1, name2, port2);
+            if(r1 == null || r2 == null){
+                //The ends of the edges with no end in any shard are checked by the shards in turn
+                if(r1 == null && r2 == null && k % ShardNode.this.size != ShardNode.this.index){return;}
+                if(r1 == null){this.query(name1);}
+                if(r2 == null){this.query(name2);}
+                this.pending.add(e);
+                this.pendingLines.add(line);
+            }
+            String error = r1 == null ? null : portError(e, r1, port1);
+            if(error == null && r2 != null){error = portError(e, r2, port2);}
+            if(error == null && r1 != null && r1 == r2 && port1 == port2){
+                error = "Trying to add edge "+e+". Both ends use port "+port1+" of "+name1;
+            }
+            if(error != null){
+                this.error(line, error);
+                return;
+            }
+            if(r1 != null){r1.setPort(port1, name2, port2, -1);}
+            if(r2 != null){r2.setPort(port2, name1, port1, -1);}
+        }
+
+        /**
+         * Looks up the names, gives to the ports of the vertices of this shard the owners of their opposite vertices,
+         * and reports the errors of all the shards.
+         * @throws IOException if the transport fails
+         * @throws ParseException with the errors of all the shards, by line
+         */
+        void resolve() throws IOException, ParseException{
+            //The directory answers the queries once all the vertices are registered
+            Map<String, int[]> registered = new HashMap<>();//{owner, line, state}
+            Messages answers = new Messages(ShardNode.this.size);
+            byte[][] received = ShardNode.this.transport.exchange(this.directory.toArray());
+            for(int from = 0; from < received.length; from++){
+                DataInputStream in = input(received[from]);
+                while(in.available() > 0){
+                    byte op = in.readByte();
+                    String name = in.readUTF();
+                    if(op == REGISTER){
+                        int[] entry = {from, in.readInt(), in.readInt()};
+                        int[] other = registered.putIfAbsent(name, entry);
+                        if(other == null){continue;}
+                        //The first definition is kept, the later one is the error
+                        int[] later = entry;
+                        if(entry[1] < other[1]){
+                            registered.put(name, entry);
+                            later = other;
+                        }
+                        this.error(later[1], "Trying to add vertex "+new Vertex(name, later[2])+". Conflicting vertex name : "+name);
+                    }else if(op != QUERY){
+                        throw new IOException("Unexpected operation "+op);
+                    }
+                }
+            }
+            for(int from = 0; from < received.length; from++){
+                DataInputStream in = input(received[from]);
+                while(in.available() > 0){
+                    byte op = in.readByte();
+                    String name = in.readUTF();
+                    if(op == REGISTER){
+                        in.readInt();
+                        in.readInt();
+                        continue;
+                    }
+                    int[] entry = registered.get(name);
+                    answers.out(from).writeByte(ANSWER);
+                    answers.out(from).writeUTF(name);
+                    answers.out(from).writeInt(entry == null ? -1 : entry[0]);
+                }
+            }
+            Map<String, Integer> owners = new HashMap<>();
+            for(byte[] message : ShardNode.this.transport.exchange(answers.toArray())){
+                DataInputStream in = input(message);
+                while(in.available() > 0){
+                    expect(in, ANSWER);
+                    owners.put(in.readUTF(), in.readInt());
+                }
+            }
+            for(int k = 0; k < this.pending.size(); k++){
+                Edge e = this.pending.get(k);
+                int owner1 = this.ownerOf(e.getName1(), owners);
+                int owner2 = this.ownerOf(e.getName2(), owners);
+                String missing = owner1 == -1 ? e.getName1() : owner2 == -1 ? e.getName2() : null;
+                //An edge with one end known is reported by the owner of this end only
+                if(missing != null && (owner1 == ShardNode.this.index || owner2 == ShardNode.this.index || owner1 == owner2)){
+                    this.error(this.pendingLines.get(k), "Trying to add edge "+e+". Vertex "+missing+" not in the graph.");
+                }
+            }
+            for(VertexRecord r : ShardNode.this.owned.values()){
+                for(int p = 0; p < r.portBound(); p++){
+                    if(r.farName(p) != null){
+                        r.setPort(p, r.farName(p), r.farPort(p), this.ownerOf(r.farName(p), owners));
+                    }
+                }
+            }
+            //Every shard gets the errors of all of them, so that they all give up together
+            Messages out = new Messages(ShardNode.this.size);
+            for(int j = 0; j < ShardNode.this.size; j++){
+                for(int k = 0; k < this.errors.size(); k++){
+                    out.out(j).writeByte(ERROR);
+                    out.out(j).writeInt(this.errorLines.get(k));
+                    out.out(j).writeUTF(this.errors.get(k));
+                }
+            }
+            List<int[]> lines = new ArrayList<>();//{line, index in messages}
+            List<String> messages = new ArrayList<>();
+            for(byte[] message : ShardNode.this.transport.exchange(out.toArray())){
+                DataInputStream in = input(message);
+                while(in.available() > 0){
+                    expect(in, ERROR);
+                    lines.add(new int[]{in.readInt(), messages.size()});
+                    messages.add(in.readUTF());
+                }
+            }
+            if(lines.isEmpty()){return;}
+            lines.sort((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+            //A vertex defined twice may be kept by two shards, which then report the same errors of its edges
+            Set<String> reported = new HashSet<>();
+            StringBuilder sb = new StringBuilder();
+            for(int[] l : lines){
+                String error = "Error at line "+l[0]+" : "+messages.get(l[1]);
+                if(!reported.add(error)){continue;}
+                if(sb.length() > 0){sb.append('\n');}
+                sb.append(error);
+            }
+            throw new ParseException(sb.toString());
+        }
+
+        private int ownerOf(String name, Map<String, Integer> owners){
+            return ShardNode.this.owned.containsKey(name) ? ShardNode.this.index : owners.getOrDefault(name, -1);
+        }
+
+        private void query(String name){
+            if(!this.queried.add(name)){return;}
+            try{
+                DataOutputStream out = this.directory.out(this.home(name));
+                out.writeByte(QUERY);
+                out.writeUTF(name);
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Returns the shard of the directory keeping the owner of a name.
+         * @param name the name of a vertex
+         * @return the index of the shard
+         */
+        private int home(String name){
+            return Math.floorMod(name.hashCode(), ShardNode.this.size);
+        }
+
+        private void error(int line, String message){
+            this.errorLines.add(line);
+            this.errors.add(message);
+        }
+    }
+
+    /**
+     * Checks that a port of a vertex can be used by an edge read from a file, as Graph.addEdge does.
+     * @param e the edge
+     * @param r the end of the edge
+     * @param port the port of the edge on this end
+     * @return the error, or null if the port is free
+     */
+    private static String portError(Edge e, VertexRecord r, int port){
+        if(port < 0){
+            return "Trying to add edge "+e+". Port "+port+" is negative.";
+        }
+        if(r.farName(port) != null){
+            return "Trying to add edge "+e+". Port "+port+" of "+r.name+" already in use in "+new Edge(r.name, port, r.farName(port), r.farPort(port));
+        }
+        return null;
+    }
+
+    /**
+     * A port of a vertex, with the shard owning the vertex. Two endpoints are equal if they are the same port of the
+     * same vertex.
+     */
+    private static final class Endpoint {
+        final String name;
+        final int port;
+        final int owner;
+
+        Endpoint(String name, int port, int owner){
+            this.name = name;
+            this.port = port;
+            this.owner = owner;
+        }
+
+        static Endpoint read(DataInputStream in) throws IOException{
+            return new Endpoint(in.readUTF(), in.readInt(), in.readInt());
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Endpoint)){return false;}
+            Endpoint e = (Endpoint) o;
+            return this.port == e.port && this.name.equals(e.name);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(this.name, this.port);
+        }
+    }
+
+    /**
+     * The messages of a round being written, one per shard.
+     */
+    private static final class Messages {
+        private final ByteArrayOutputStream[] bytes;
+        private final DataOutputStream[] outs;
+
+        Messages(int size){
+            this.bytes = new ByteArrayOutputStream[size];
+            this.outs = new DataOutputStream[size];
+            for(int i = 0; i < size; i++){
+                this.bytes[i] = new ByteArrayOutputStream();
+                this.outs[i] = new DataOutputStream(this.bytes[i]);
+            }
+        }
+
+        DataOutputStream out(int shard){
+            return this.outs[shard];
+        }
+
+        byte[][] toArray(){
+            byte[][] messages = new byte[this.bytes.length][];
+            for(int i = 0; i < messages.length; i++){
+                messages[i] = this.bytes[i].toByteArray();
+            }
+            return messages;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package pcgd.sharding;
+
+import pcgd.dynamics.PCGD;
+import pcgd.graphs.Graph;
+import pcgd.parser.ParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A graph split into shards running on threads of this process, talking through an InProcessTransport. Each step runs
+ * the shards at the same time, as separate processes would with a SocketTransport; it is mostly meant to check the
+ * sharding against Graph.apply, as ShardCheck does.
+ * If a shard fails, the transports are closed and the sharded graph can not be used anymore.
+ */
+public class ShardedGraph implements Closeable {
+
+    private final List<ShardNode> nodes;
+    private final List<Transport> transports;
+    private final ExecutorService threads;
+
+    private ShardedGraph(int shards){
+        this.transports = InProcessTransport.create(shards);
+        this.nodes = new ArrayList<>();
+        this.threads = Executors.newFixedThreadPool(shards, r -> {
+            Thread t = new Thread(r, "shard");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Splits a graph into shards.
+     * @param g the graph, not modified
+     * @param shards the number of shards
+     */
+    public ShardedGraph(Graph g, int shards){
+        this(shards);
+        for(Transport t : this.transports){
+            this.nodes.add(new ShardNode(g, t));
+        }
+    }
+
+    /**
+     * Reads a graph file into shards, each shard reading its part as ShardNode.load does.
+     * @param filename the name of the graph file
+     * @param shards the number of shards
+     * @return the sharded graph
+     * @throws IOException if the file can not be read
+     * @throws ParseException if the file is malformed, or with all the errors of its vertices and edges
+     */
+    public static ShardedGraph load(String filename, int shards) throws IOException, ParseException{
+        ShardedGraph sg = new ShardedGraph(shards);
+        List<Future<ShardNode>> futures = new ArrayList<>();
+        for(Transport t : sg.transports){
+            futures.add(sg.threads.submit(() -> ShardNode.load(filename, t)));
+        }
+        try{
+            for(Future<ShardNode> f : futures){
+                sg.nodes.add(f.get());
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            sg.close();
+            throw new InterruptedIOException("Interrupted while loading the shards");
+        }catch(ExecutionException e){
+            //All the shards give the same errors, the first one is enough
+            sg.close();
+            if(e.getCause() instanceof ParseException){throw (ParseException) e.getCause();}
+            if(e.getCause() instanceof IOException){throw (IOException) e.getCause();}
+            throw new IllegalStateException("Loading failed : "+e.getCause().getMessage(), e.getCause());
+        }
+        return sg;
+    }
+
+    /**
+     * Returns the number of vertices owned by each shard.
+     * @return the number of vertices, by shard
+     */
+    public int[] vertexCounts(){
+        int[] counts = new int[this.nodes.size()];
+        for(int i = 0; i < counts.length; i++){
+            counts[i] = this.nodes.get(i).vertexCount();
+        }
+        return counts;
+    }
+
+    /**
+     * Applies a PCGD on the graph, all the shards at the same time.
+     * @param pcgd the dynamic
+     * @throws IllegalStateException if a shard failed
+     */
+    public void apply(PCGD pcgd){
+        this.onAllShards(node -> {
+            node.apply(pcgd);
+            return null;
+        });
+    }
+
+    /**
+     * Puts the shards together, between two steps.
+     * @return the whole graph, with the names given by the shards to the new vertices
+     * @throws IllegalStateException if the shards are not consistent
+     */
+    public Graph toGraph(){
+        Graph g = new Graph();
+        for(ShardNode node : this.nodes){
+            node.addVertices(g);
+        }
+        for(ShardNode node : this.nodes){
+            node.addEdges(g);
+        }
+        return g;
+    }
+
+    /**
+     * Writes the graph in the JSON format of the visualizer, as ShardNode.exportAsJSON does.
+     * @param filename the name of the file
+     * @throws IllegalStateException if a shard failed
+     */
+    public void exportAsJSON(String filename){
+        this.onAllShards(node -> {
+            node.exportAsJSON(filename, false);
+            return null;
+        });
+    }
+
+    /**
+     * Runs a task on all the shards at the same time and waits for them.
+     * @param task the task
+     * @param <T> the type of the results
+     * @return the result of each shard, by index
+     * @throws IllegalStateException if the task failed on a shard
+     */
+    private <T> List<T> onAllShards(ShardTask<T> task){
+        List<Future<T>> futures = new ArrayList<>();
+        for(ShardNode node : this.nodes){
+            futures.add(this.threads.submit(() -> task.run(node)));
+        }
+        List<T> results = new ArrayList<>();
+        Throwable failure = null;
+        int failed = -1;
+        for(int i = 0; i < futures.size(); i++){
+            try{
+                results.add(futures.get(i).get());
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                this.close();
+                throw new IllegalStateException("Interrupted while waiting for the shards", e);
+            }catch(ExecutionException e){
+                //The other shards are waiting for this one, they must be stopped
+                if(failure == null){
+                    failure = e.getCause();
+                    failed = i;
+                    this.closeTransports();
+                }
+                results.add(null);
+            }
+        }
+        if(failure != null){
+            throw new IllegalStateException("Shard "+failed+" failed : "+failure.getMessage(), failure);
+        }
+        return results;
+    }
+
+    /**
+     * Stops the threads of the shards and closes their transports.
+     */
+    @Override
+    public void close(){
+        this.threads.shutdownNow();
+        this.closeTransports();
+    }
+
+    private void closeTransports(){
+        for(Transport t : this.transports){
+            try{
+                t.close();
+            }catch(IOException e){
+                //Nothing more to do with this transport
+            }
+        }
+    }
+
+    /**
+     * A task run by a shard.
+     * @param <T> the type of the result
+     */
+    private interface ShardTask<T> {
+        T run(ShardNode node) throws IOException;
+    }
+}
@@ -0,0 +1,208 @@
+package pcgd.sharding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A transport between shards running in separate processes, maybe on separate machines, over TCP. Each shard listens on
+ * its own address, connects to the shards of lower index and accepts the connections of the shards of higher index, so
+ * that every pair of shards shares one connection. A message is sent as its length followed by its bytes.
+ * The messages of a round are sent on threads of their own while the ones of the other shards are read, so that two
+ * shards sending each other large messages do not wait for each other.
+ */
+public class SocketTransport implements Transport {
+
+    /**
+     * The time given to the other shards to start listening and to connect, in milliseconds.
+     */
+    public static final int CONNECT_TIMEOUT = 60000;
+
+    /**
+     * The largest message accepted from an other shard, in bytes. A greater length can only come from a broken stream.
+     */
+    public static final int MAX_MESSAGE = 1 << 30;
+
+    private final int index;
+    private final Socket[] sockets;
+    private final DataInputStream[] inputs;
+    private final DataOutputStream[] outputs;
+    private final ExecutorService senders;
+
+    /**
+     * Connects a shard to all the others. Returns once all the connections are made.
+     * @param index the index of the shard
+     * @param addresses the address each shard listens on, by index
+     * @throws IOException if a connection can not be made
+     */
+    public SocketTransport(int index, List<InetSocketAddress> addresses) throws IOException{
+        int size = addresses.size();
+        if(index < 0 || index >= size){
+            throw new IllegalArgumentException("Shard "+index+" not in the "+size+" shards.");
+        }
+        this.index = index;
+        this.sockets = new Socket[size];
+        this.inputs = new DataInputStream[size];
+        this.outputs = new DataOutputStream[size];
+        try(ServerSocket server = new ServerSocket()){
+            server.setReuseAddress(true);
+            server.bind(addresses.get(index));
+            //Neither a shard that never connects nor one that never says its index may block the others for ever
+            server.setSoTimeout(CONNECT_TIMEOUT);
+            for(int j = 0; j < index; j++){
+                this.open(j, connect(addresses.get(j)));
+                this.outputs[j].writeInt(index);
+                this.outputs[j].flush();
+            }
+            for(int k = index+1; k < size; k++){
+                Socket socket = server.accept();
+                socket.setSoTimeout(CONNECT_TIMEOUT);
+                int j = new DataInputStream(socket.getInputStream()).readInt();
+                socket.setSoTimeout(0);
+                if(j <= index || j >= size || this.sockets[j] != null){
+                    socket.close();
+                    throw new IOException("Unexpected connection from shard "+j);
+                }
+                this.open(j, socket);
+            }
+        }catch(IOException e){
+            this.closeSockets();
+            throw e;
+        }
+        this.senders = Executors.newFixedThreadPool(Math.max(1, size-1), r -> {
+            Thread t = new Thread(r, "shard-"+index+"-sender");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Connects to a shard, waiting for it to listen.
+     * @param address the address of the shard
+     * @return the socket
+     * @throws IOException if the shard does not listen before the timeout
+     */
+    private static Socket connect(InetSocketAddress address) throws IOException{
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while(true){
+            Socket socket = new Socket();
+            try{
+                socket.connect(address, CONNECT_TIMEOUT);
+                return socket;
+            }catch(ConnectException e){
+                socket.close();
+                if(System.currentTimeMillis() > deadline){throw e;}
+            }
+            try{
+                Thread.sleep(100);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while connecting to "+address);
+            }
+        }
+    }
+
+    /**
+     * Keeps the connection to a shard.
+     * @param j the index of the shard
+     * @param socket the socket connected to it
+     * @throws IOException if the streams of the socket can not be opened
+     */
+    private void open(int j, Socket socket) throws IOException{
+        socket.setTcpNoDelay(true);
+        this.sockets[j] = socket;
+        this.inputs[j] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.outputs[j] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @Override
+    public int index(){
+        return this.index;
+    }
+
+    @Override
+    public int size(){
+        return this.sockets.length;
+    }
+
+    @Override
+    public byte[][] exchange(byte[][] messages) throws IOException{
+        int size = this.size();
+        if(messages.length != size){
+            throw new IllegalArgumentException(messages.length+" messages for "+size+" shards.");
+        }
+        for(int j = 0; j < size; j++){
+            if(j != this.index && messages[j].length > MAX_MESSAGE){
+                throw new IOException("Message of "+messages[j].length+" bytes to shard "+j+", more than "+MAX_MESSAGE);
+            }
+        }
+        List<Future<?>> sent = new ArrayList<>();
+        for(int j = 0; j < size; j++){
+            if(j == this.index){continue;}
+            DataOutputStream out = this.outputs[j];
+            byte[] message = messages[j];
+            sent.add(this.senders.submit(() -> {
+                out.writeInt(message.length);
+                out.write(message);
+                out.flush();
+                return null;
+            }));
+        }
+        byte[][] received = new byte[size][];
+        received[this.index] = messages[this.index];
+        for(int j = 0; j < size; j++){
+            if(j == this.index){continue;}
+            int length = this.inputs[j].readInt();
+            if(length < 0 || length > MAX_MESSAGE){
+                throw new IOException("Message of "+length+" bytes from shard "+j+", the stream is broken");
+            }
+            byte[] message = new byte[length];
+            this.inputs[j].readFully(message);
+            received[j] = message;
+        }
+        for(Future<?> f : sent){
+            try{
+                f.get();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending to the other shards");
+            }catch(ExecutionException e){
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        return received;
+    }
+
+    /**
+     * Closes the connections to the other shards.
+     */
+    @Override
+    public void close(){
+        this.senders.shutdownNow();
+        this.closeSockets();
+    }
+
+    private void closeSockets(){
+        for(Socket s : this.sockets){
+            if(s == null){continue;}
+            try{
+                s.close();
+            }catch(IOException e){
+                //Nothing more to do with this connection
+            }
+        }
+    }
+}
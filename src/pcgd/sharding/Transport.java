@@ -0,0 +1,32 @@
+package pcgd.sharding;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The way the shards of a sharded graph talk to each other. The shards run the steps together, in rounds : in each
+ * round every shard sends one message to every shard, itself included, and waits for the messages of all the others.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Returns the index of the shard using this transport.
+     * @return the index, from 0 to size()-1
+     */
+    int index();
+
+    /**
+     * Returns the number of shards.
+     * @return the number of shards
+     */
+    int size();
+
+    /**
+     * Runs a round : sends a message to each shard, and receives the message of each shard to this one. All the shards
+     * must call it the same number of times.
+     * @param messages the message for each shard, by index, the one of this shard included
+     * @return the message of each shard to this one, by index
+     * @throws IOException if a message can not be sent or received, or a shard left
+     */
+    byte[][] exchange(byte[][] messages) throws IOException;
+}
@@ -0,0 +1,165 @@
+package pcgd.sharding;
+
+import pcgd.graphs.Graph;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A vertex of a sharded graph, as kept by the shard owning it and sent to the other shards : its name, its state, the
+ * shard owning it, and for each port the name, the port and the owner of the opposite vertex. The vertices are
+ * identified by their names between the shards, as the ids of a vertex differ from one shard to the other.
+ */
+final class VertexRecord {
+
+    final String name;
+    final int owner;
+    int state;
+    //For each port, the opposite vertex (null if the port is not in use), its port and its owner
+    private String[] farNames;
+    private int[] farPorts;
+    private int[] farOwners;
+
+    /**
+     * Creates a vertex with no port in use.
+     * @param name the name of the vertex
+     * @param state the state of the vertex
+     * @param owner the index of the shard owning the vertex
+     */
+    VertexRecord(String name, int state, int owner){
+        this.name = name;
+        this.state = state;
+        this.owner = owner;
+        this.clearPorts();
+    }
+
+    /**
+     * Copies a vertex of a graph.
+     * @param g the graph
+     * @param v the id of the vertex
+     * @param owners the index of the shard owning each vertex of the graph, by id
+     * @return the record of the vertex
+     */
+    static VertexRecord of(Graph g, int v, int[] owners){
+        VertexRecord r = new VertexRecord(g.nameOf(v), g.stateOf(v), owners[v]);
+        for(int p = 0; p < g.portBound(v); p++){
+            int u = g.oppositeVertex(v, p);
+            if(u >= 0){r.setPort(p, g.nameOf(u), g.oppositePort(v, p), owners[u]);}
+        }
+        return r;
+    }
+
+    /**
+     * Returns a bound on the ports in use : all of them are lower than it.
+     * @return the bound
+     */
+    int portBound(){
+        return this.farNames.length;
+    }
+
+    /**
+     * Returns the name of the vertex opposite to a port.
+     * @param p a port
+     * @return the name, or null if the port is not in use
+     */
+    String farName(int p){
+        return p < this.farNames.length ? this.farNames[p] : null;
+    }
+
+    /**
+     * Returns the port of the vertex opposite to a port.
+     * @param p a port in use
+     * @return the opposite port
+     */
+    int farPort(int p){
+        return this.farPorts[p];
+    }
+
+    /**
+     * Returns the shard owning the vertex opposite to a port.
+     * @param p a port in use
+     * @return the index of the shard
+     */
+    int farOwner(int p){
+        return this.farOwners[p];
+    }
+
+    /**
+     * Connects a port to a port of an other vertex, replacing what it was connected to.
+     * @param p the port
+     * @param farName the name of the opposite vertex
+     * @param farPort the opposite port
+     * @param farOwner the index of the shard owning the opposite vertex
+     */
+    void setPort(int p, String farName, int farPort, int farOwner){
+        if(p >= this.farNames.length){
+            int length = Math.max(p+1, 2*this.farNames.length);
+            this.farNames = Arrays.copyOf(this.farNames, length);
+            this.farPorts = Arrays.copyOf(this.farPorts, length);
+            this.farOwners = Arrays.copyOf(this.farOwners, length);
+        }
+        this.farNames[p] = farName;
+        this.farPorts[p] = farPort;
+        this.farOwners[p] = farOwner;
+    }
+
+    /**
+     * Tells if an edge is given from this end when the edges are listed once each : from the end of lowest name, or of
+     * lowest port for a loop.
+     * @param p a port in use
+     * @return true if the edge of the port is given from this vertex
+     */
+    boolean lowEnd(int p){
+        int c = this.name.compareTo(this.farNames[p]);
+        return c < 0 || (c == 0 && p < this.farPorts[p]);
+    }
+
+    /**
+     * Frees all the ports of the vertex.
+     */
+    void clearPorts(){
+        this.farNames = new String[0];
+        this.farPorts = new int[0];
+        this.farOwners = new int[0];
+    }
+
+    /**
+     * Writes the record.
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    void write(DataOutputStream out) throws IOException{
+        out.writeUTF(this.name);
+        out.writeInt(this.state);
+        out.writeInt(this.owner);
+        int bound = this.farNames.length;
+        while(bound > 0 && this.farNames[bound-1] == null){
+            bound--;
+        }
+        out.writeInt(bound);
+        for(int p = 0; p < bound; p++){
+            out.writeBoolean(this.farNames[p] != null);
+            if(this.farNames[p] == null){continue;}
+            out.writeUTF(this.farNames[p]);
+            out.writeInt(this.farPorts[p]);
+            out.writeInt(this.farOwners[p]);
+        }
+    }
+
+    /**
+     * Reads a record written by write.
+     * @param in the input
+     * @return the record
+     * @throws IOException if the input fails
+     */
+    static VertexRecord read(DataInputStream in) throws IOException{
+        VertexRecord r = new VertexRecord(in.readUTF(), in.readInt(), in.readInt());
+        int bound = in.readInt();
+        for(int p = 0; p < bound; p++){
+            if(in.readBoolean()){r.setPort(p, in.readUTF(), in.readInt(), in.readInt());}
+        }
+        return r;
+    }
+}